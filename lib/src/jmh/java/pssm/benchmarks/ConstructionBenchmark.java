@@ -0,0 +1,78 @@
+package pssm.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pssm.CompiledGraph;
+import pssm.GraphSnapshot;
+import pssm.PowerSupplySystemGraph;
+import pssm.benchmarks.topologies.Topologies;
+
+/**
+ * Measures building a graph with addDevice and addEdge, by port id and by port
+ * handle, and with a builder, and loading it from a snapshot. Unlike the
+ * others, a loaded graph is compiled already.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConstructionBenchmark {
+    @Param({ "10", "50", "100" })
+    public int size;
+
+    private Path snapshot;
+
+    @Setup
+    public void setUp() throws IOException {
+        snapshot = Files.createTempFile("graph", ".snapshot");
+        GraphSnapshot.write(Topologies.twoFeeders(size, size), snapshot);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.delete(snapshot);
+    }
+
+    @Benchmark
+    public PowerSupplySystemGraph addDevicesAndEdges() {
+        return Topologies.twoFeeders(size, size);
+    }
+
+    @Benchmark
+    public PowerSupplySystemGraph addDevicesAndEdgesByHandle() {
+        return Topologies.twoFeedersByHandle(size, size);
+    }
+
+    @Benchmark
+    public PowerSupplySystemGraph addDevicesAndEdgesInBulk() {
+        return Topologies.twoFeedersInBulk(size, size);
+    }
+
+    @Benchmark
+    public PowerSupplySystemGraph loadSnapshot() throws IOException {
+        return GraphSnapshot.open(snapshot).toGraph();
+    }
+
+    @Benchmark
+    public CompiledGraph compileSnapshot() throws IOException {
+        return GraphSnapshot.open(snapshot).compile();
+    }
+}
@@ -0,0 +1,52 @@
+package pssm.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pssm.Contingency;
+import pssm.ContingencyAnalysis;
+import pssm.benchmarks.topologies.TopologyGenerator;
+
+/**
+ * Measures the N-k analysis of a graph, the base case is built during the
+ * setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContingencyBenchmark {
+    // the N-2 report of larger graphs runs into millions of cases
+    @Param({ "5", "10" })
+    public int size;
+
+    @Param({ "1", "2" })
+    public int k;
+
+    private ContingencyAnalysis analysis;
+
+    @Setup
+    public void setUp() {
+        analysis = new ContingencyAnalysis(new TopologyGenerator(TopologyGenerator.Shape.RADIAL).sectionSize(size)
+                .loadsPerBus(size).generateSections(2));
+    }
+
+    @Benchmark
+    public List<Contingency> analyze() {
+        return analysis.analyze(k);
+    }
+}
@@ -0,0 +1,76 @@
+package pssm.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pssm.CriticalDeviceIndex;
+import pssm.PowerSupplySystemGraph;
+import pssm.benchmarks.topologies.TopologyGenerator;
+import pssm.devices.BaseDevice;
+
+/**
+ * Measures indexing the critical devices of a graph, updating the index as a
+ * switch is opened and closed again, and asking for the critical devices of a
+ * load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CriticalDeviceBenchmark {
+    @Param({ "10", "50", "100" })
+    public int size;
+
+    private PowerSupplySystemGraph graph;
+
+    private CriticalDeviceIndex index;
+
+    private String leaf;
+
+    @Setup
+    public void setUp() {
+        graph = new TopologyGenerator(TopologyGenerator.Shape.RADIAL).sectionSize(size).loadsPerBus(size)
+                .generateSections(2);
+        graph.compile();
+        index = new CriticalDeviceIndex(graph);
+        leaf = "s0_load_" + (size - 1) + "_" + (size - 1) + ".0";
+    }
+
+    @Benchmark
+    public CriticalDeviceIndex build() {
+        return new CriticalDeviceIndex(graph);
+    }
+
+    @Benchmark
+    public CriticalDeviceIndex toggleLoadSwitch() {
+        index.open("s0_switch_0_0");
+        index.close("s0_switch_0_0");
+        return index;
+    }
+
+    @Benchmark
+    public CriticalDeviceIndex toggleFeederSwitch() {
+        index.open("s0_switch_feeder");
+        index.close("s0_switch_feeder");
+        return index;
+    }
+
+    @Benchmark
+    public List<BaseDevice> criticalDevices() {
+        return index.criticalDevices(leaf);
+    }
+}
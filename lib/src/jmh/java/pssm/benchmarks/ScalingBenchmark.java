@@ -0,0 +1,111 @@
+package pssm.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.util.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pssm.CompactPassage;
+import pssm.EnergizationIndex;
+import pssm.PartitionedEnergizationIndex;
+import pssm.PortHandle;
+import pssm.PowerSupplySystemGraph;
+import pssm.PowerSupplySystemTree;
+import pssm.SwitchStateVector;
+import pssm.benchmarks.topologies.Topologies;
+import pssm.benchmarks.topologies.TopologyGenerator;
+
+/**
+ * Measures how the queries scale with the size and the shape of the graph, on
+ * graphs of {@link TopologyGenerator}, every switch but the ties between
+ * sections closed with a probability of 0.9. The graph is compiled during the
+ * setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScalingBenchmark {
+    @Param({ "RADIAL", "RING", "CASCADE", "DIODE_OR", "MESH" })
+    public String shape;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int ports;
+
+    // the buses of a section
+    @Param({ "16" })
+    public int sectionSize;
+
+    // the buses of the longest feeder of a radial, cascade or diode or section
+    @Param({ "4" })
+    public int depth;
+
+    // the buses of a row of a mesh section
+    @Param({ "4" })
+    public int meshSide;
+
+    private PowerSupplySystemGraph graph;
+
+    private SwitchStateVector switchStates;
+
+    private List<PortHandle> destinations;
+
+    private PartitionedEnergizationIndex partitionedIndex;
+
+    // the switch of a load of the first section, toggled by switchPartitioned
+    private boolean loadSwitchClosed;
+
+    @Setup
+    public void setUp() {
+        graph = new TopologyGenerator(TopologyGenerator.Shape.valueOf(shape)).sectionSize(sectionSize).depth(depth)
+                .meshSide(meshSide).seed(42).closedProbability(0.9).generate(ports);
+        graph.compile();
+        switchStates = graph.switchStates(null);
+        // 100 loads spread over the sections
+        List<Pair<String, Integer>> loads = Topologies.loads(graph, Integer.MAX_VALUE);
+        int step = Math.max(1, loads.size() / 100);
+        destinations = new ArrayList<>();
+        for (int i = 0; i < loads.size() && destinations.size() < 100; i += step) {
+            destinations.add(graph.getPortHandle(loads.get(i).getFirst() + ".0"));
+        }
+        partitionedIndex = new PartitionedEnergizationIndex(graph, switchStates);
+        loadSwitchClosed = switchStates.get(graph.compile().switchIndexOf("s0_switch_0_0"));
+    }
+
+    @Benchmark
+    public List<PowerSupplySystemTree> genForest() {
+        return graph.genForestFor(switchStates);
+    }
+
+    @Benchmark
+    public EnergizationIndex energizationIndex() {
+        return new EnergizationIndex(graph, switchStates);
+    }
+
+    @Benchmark
+    public Map<PortHandle, List<CompactPassage>> findPassagesTo() {
+        return graph.findPassagesTo(destinations, switchStates);
+    }
+
+    @Benchmark
+    public boolean switchPartitioned() {
+        loadSwitchClosed = !loadSwitchClosed;
+        partitionedIndex.setSwitch("s0_switch_0_0", loadSwitchClosed);
+        return partitionedIndex.isPowered("s0_load_0_0.0");
+    }
+}
@@ -0,0 +1,77 @@
+package pssm.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pssm.EnergizationChange;
+import pssm.PowerSupplySystemGraph;
+import pssm.SwitchEvent;
+import pssm.SwitchEventProcessor;
+import pssm.benchmarks.topologies.TopologyGenerator;
+
+/**
+ * Measures processing a switch event, one per batch, with a subscriber asking
+ * for every batch.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SwitchEventBenchmark {
+    @Param({ "10", "50", "100" })
+    public int size;
+
+    private SwitchEventProcessor processor;
+
+    private long timestamp;
+
+    private int changes;
+
+    @Setup
+    public void setUp() {
+        PowerSupplySystemGraph graph = new TopologyGenerator(TopologyGenerator.Shape.RADIAL).sectionSize(size)
+                .loadsPerBus(size).generateSections(2);
+        processor = new SwitchEventProcessor(graph, graph.switchStates(null), Runnable::run, 1024, 1024);
+        processor.subscribe(new SwitchEventProcessor.Subscriber() {
+            @Override
+            public void onSubscribe(SwitchEventProcessor.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onChanges(List<EnergizationChange> batch) {
+                changes += batch.size();
+            }
+
+            @Override
+            public void onRejected(SwitchEvent event, RuntimeException e) {
+            }
+        });
+    }
+
+    @Benchmark
+    public int toggleLoadSwitch() {
+        processor.offer(new SwitchEvent("s0_switch_0_0", (timestamp & 1) != 0, timestamp++));
+        return changes;
+    }
+
+    @Benchmark
+    public int toggleFeederSwitch() {
+        processor.offer(new SwitchEvent("s0_switch_feeder", (timestamp & 1) != 0, timestamp++));
+        return changes;
+    }
+}
@@ -0,0 +1,174 @@
+package pssm.benchmarks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.math3.util.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import pssm.CompactPassage;
+import pssm.EnergizationIndex;
+import pssm.PartitionedEnergizationIndex;
+import pssm.Passage;
+import pssm.PowerSupplySystemGraph;
+import pssm.PowerSupplySystemTree;
+import pssm.SwitchStateVector;
+import pssm.SwitchingPlan;
+import pssm.benchmarks.topologies.Topologies;
+import pssm.benchmarks.topologies.TopologyGenerator;
+
+/**
+ * Measures the queries on an already built graph. The graph is compiled during
+ * the setup, so the compilation is not part of the measurements.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TraversalBenchmark {
+    @Param({ "10", "50", "100" })
+    public int size;
+
+    private PowerSupplySystemGraph graph;
+
+    // the same graph, generating its trees on the common pool
+    private PowerSupplySystemGraph parallelGraph;
+
+    private List<Pair<String, Integer>> destinations;
+
+    private List<Pair<String, Integer>> fewDestinations;
+
+    private SwitchStateVector switchStates;
+
+    private PowerSupplySystemTree tree;
+
+    private Pair<String, Integer> leaf;
+
+    // the feeder and the load switch of the leaf open
+    private SwitchStateVector leafCutOff;
+
+    private String leafSwitch;
+
+    // the switch states toggled by switchAndIndex
+    private SwitchStateVector toggledStates;
+
+    private int leafSwitchIndex;
+
+    private boolean leafClosed;
+
+    private PartitionedEnergizationIndex partitionedIndex;
+
+    @Setup
+    public void setUp() {
+        graph = new TopologyGenerator(TopologyGenerator.Shape.RADIAL).sectionSize(size).loadsPerBus(size)
+                .generateSections(2);
+        graph.compile();
+        parallelGraph = new TopologyGenerator(TopologyGenerator.Shape.RADIAL).sectionSize(size).loadsPerBus(size)
+                .generateSections(2);
+        parallelGraph.setForestPool(ForkJoinPool.commonPool());
+        parallelGraph.compile();
+        destinations = Topologies.loads(graph, 100);
+        fewDestinations = Topologies.loads(graph, 3);
+        switchStates = graph.switchStates(null);
+        tree = graph.genForest().get(0);
+        leaf = Pair.create("s0_load_" + (size - 1) + "_" + (size - 1), 0);
+        Map<String, Boolean> truthTable = new HashMap<>();
+        truthTable.put("s0_switch_feeder", false);
+        truthTable.put("s0_switch_" + (size - 1) + "_" + (size - 1), false);
+        leafCutOff = graph.switchStates(truthTable);
+        leafSwitch = "s0_switch_" + (size - 1) + "_" + (size - 1);
+        leafSwitchIndex = graph.compile().switchIndexOf(leafSwitch);
+        toggledStates = graph.switchStates(null);
+        leafClosed = true;
+        partitionedIndex = new PartitionedEnergizationIndex(graph);
+    }
+
+    @Benchmark
+    public List<PowerSupplySystemTree> genForest() {
+        return graph.genForest();
+    }
+
+    @Benchmark
+    public List<PowerSupplySystemTree> genForestInParallel() {
+        return parallelGraph.genForest();
+    }
+
+    @Benchmark
+    public List<PowerSupplySystemTree> genForestOfSwitchStates() {
+        return graph.genForestFor(switchStates);
+    }
+
+    @Benchmark
+    public EnergizationIndex energizationIndex() {
+        return new EnergizationIndex(graph, switchStates);
+    }
+
+    /**
+     * Toggles the switch of the leaf, and indexes the whole graph again.
+     */
+    @Benchmark
+    public boolean switchAndIndex() {
+        toggledStates.flip(leafSwitchIndex);
+        return new EnergizationIndex(graph, toggledStates).isPowered(leaf);
+    }
+
+    /**
+     * Toggles the switch of the leaf, and sums up its partition again.
+     */
+    @Benchmark
+    public boolean switchPartitioned() {
+        leafClosed = !leafClosed;
+        partitionedIndex.setSwitch(leafSwitch, leafClosed);
+        return partitionedIndex.isPowered(leaf.getFirst() + ".0");
+    }
+
+    @Benchmark
+    public Map<String, List<Passage>> findPassages() {
+        return graph.findPassages(destinations);
+    }
+
+    @Benchmark
+    public Map<String, List<CompactPassage>> findCompactPassages() {
+        return graph.findCompactPassagesFor(destinations, switchStates);
+    }
+
+    @Benchmark
+    public Map<String, List<Passage>> findPassagesOfFewLoads() {
+        return graph.findPassages(fewDestinations);
+    }
+
+    @Benchmark
+    public Map<String, List<Passage>> findUpstreamPassagesOfFewLoads() {
+        return graph.findUpstreamPassages(fewDestinations);
+    }
+
+    @Benchmark
+    public Passage findPassage() {
+        return tree.findPassage(leaf);
+    }
+
+    @Benchmark
+    public SwitchingPlan planEnergization() {
+        return graph.planEnergization(leaf.getFirst() + ".0", leafCutOff);
+    }
+
+    @Benchmark
+    public List<CompactPassage> findAlternatePassages() {
+        return graph.findAlternatePassages(leaf.getFirst() + ".0", 8);
+    }
+}
@@ -0,0 +1,167 @@
+package pssm.benchmarks.topologies;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.math3.util.Pair;
+
+import pssm.PortHandle;
+import pssm.PowerSupplySystemGraph;
+import pssm.devices.BaseDevice;
+import pssm.devices.Bus;
+import pssm.devices.DcDc;
+import pssm.devices.Load;
+import pssm.devices.PowerSupply;
+import pssm.devices.Switch;
+
+public final class Topologies {
+    private Topologies() {
+    }
+
+    /**
+     * Two power supplies, each feeding {@code level1} buses through a DcDc and
+     * a switch, each bus feeding {@code level2} loads through a switch. Every
+     * switch is closed.
+     */
+    public static PowerSupplySystemGraph twoFeeders(int level1, int level2) {
+        PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
+
+        graph.addDevice(new PowerSupply("power_supply_0"));
+        graph.addDevice(new PowerSupply("power_supply_1"));
+
+        graph.addDevice(new DcDc("dc_dc_0"));
+        graph.addEdge("power_supply_0.0", "dc_dc_0.0");
+        graph.addDevice(new DcDc("dc_dc_1"));
+        graph.addEdge("power_supply_1.0", "dc_dc_1.0");
+
+        graph.addDevice(new Switch("switch_0", true));
+        graph.addEdge("dc_dc_0.0", "switch_0.0");
+        graph.addDevice(new Switch("switch_1", true));
+        graph.addEdge("dc_dc_1.0", "switch_1.0");
+
+        for (int i = 0; i < level1; ++i) {
+            graph.addDevice(new Bus("bus_0_" + i));
+            graph.addEdge("switch_0.1", "bus_0_" + i + ".0");
+
+            graph.addDevice(new Bus("bus_1_" + i));
+            graph.addEdge("switch_1.1", "bus_1_" + i + ".0");
+
+            for (int j = 0; j < level2; j++) {
+                graph.addDevice(new Switch("switch_0_" + i + "_" + j, true));
+                graph.addEdge("bus_0_" + i + ".0", "switch_0_" + i + "_" + j + ".0");
+                graph.addDevice(new Load("load_0_" + i + "_" + j));
+                graph.addEdge("switch_0_" + i + "_" + j + ".1", "load_0_" + i + "_" + j + ".0");
+
+                graph.addDevice(new Switch("switch_1_" + i + "_" + j, true));
+                graph.addEdge("bus_1_" + i + ".0", "switch_1_" + i + "_" + j + ".0");
+                graph.addDevice(new Load("load_1_" + i + "_" + j));
+                graph.addEdge("switch_1_" + i + "_" + j + ".1", "load_1_" + i + "_" + j + ".0");
+            }
+        }
+
+        return graph;
+    }
+
+    /**
+     * The same graph as {@link #twoFeeders(int, int)}, wired with the port
+     * handles returned by addDevice instead of port ids.
+     */
+    public static PowerSupplySystemGraph twoFeedersByHandle(int level1, int level2) {
+        PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
+
+        PortHandle powerSupply0 = graph.addDevice(new PowerSupply("power_supply_0")).get(0);
+        PortHandle powerSupply1 = graph.addDevice(new PowerSupply("power_supply_1")).get(0);
+
+        PortHandle dcDc0 = graph.addDevice(new DcDc("dc_dc_0")).get(0);
+        graph.addEdge(powerSupply0, dcDc0);
+        PortHandle dcDc1 = graph.addDevice(new DcDc("dc_dc_1")).get(0);
+        graph.addEdge(powerSupply1, dcDc1);
+
+        List<PortHandle> switch0 = graph.addDevice(new Switch("switch_0", true));
+        graph.addEdge(dcDc0, switch0.get(0));
+        List<PortHandle> switch1 = graph.addDevice(new Switch("switch_1", true));
+        graph.addEdge(dcDc1, switch1.get(0));
+
+        for (int i = 0; i < level1; ++i) {
+            PortHandle bus0 = graph.addDevice(new Bus("bus_0_" + i)).get(0);
+            graph.addEdge(switch0.get(1), bus0);
+
+            PortHandle bus1 = graph.addDevice(new Bus("bus_1_" + i)).get(0);
+            graph.addEdge(switch1.get(1), bus1);
+
+            for (int j = 0; j < level2; j++) {
+                List<PortHandle> switch0j = graph.addDevice(new Switch("switch_0_" + i + "_" + j, true));
+                graph.addEdge(bus0, switch0j.get(0));
+                PortHandle load0 = graph.addDevice(new Load("load_0_" + i + "_" + j)).get(0);
+                graph.addEdge(switch0j.get(1), load0);
+
+                List<PortHandle> switch1j = graph.addDevice(new Switch("switch_1_" + i + "_" + j, true));
+                graph.addEdge(bus1, switch1j.get(0));
+                PortHandle load1 = graph.addDevice(new Load("load_1_" + i + "_" + j)).get(0);
+                graph.addEdge(switch1j.get(1), load1);
+            }
+        }
+
+        return graph;
+    }
+
+    /**
+     * The same graph as {@link #twoFeeders(int, int)}, added in bulk with a
+     * builder.
+     */
+    public static PowerSupplySystemGraph twoFeedersInBulk(int level1, int level2) {
+        int numDevices = 6 + level1 * 2 * (1 + level2 * 2);
+        PowerSupplySystemGraph.Builder builder = new PowerSupplySystemGraph.Builder(numDevices, numDevices);
+
+        builder.addDevice(new PowerSupply("power_supply_0"));
+        builder.addDevice(new PowerSupply("power_supply_1"));
+
+        builder.addDevice(new DcDc("dc_dc_0"));
+        builder.addEdge("power_supply_0.0", "dc_dc_0.0");
+        builder.addDevice(new DcDc("dc_dc_1"));
+        builder.addEdge("power_supply_1.0", "dc_dc_1.0");
+
+        builder.addDevice(new Switch("switch_0", true));
+        builder.addEdge("dc_dc_0.0", "switch_0.0");
+        builder.addDevice(new Switch("switch_1", true));
+        builder.addEdge("dc_dc_1.0", "switch_1.0");
+
+        for (int i = 0; i < level1; ++i) {
+            builder.addDevice(new Bus("bus_0_" + i));
+            builder.addEdge("switch_0.1", "bus_0_" + i + ".0");
+
+            builder.addDevice(new Bus("bus_1_" + i));
+            builder.addEdge("switch_1.1", "bus_1_" + i + ".0");
+
+            for (int j = 0; j < level2; j++) {
+                builder.addDevice(new Switch("switch_0_" + i + "_" + j, true));
+                builder.addEdge("bus_0_" + i + ".0", "switch_0_" + i + "_" + j + ".0");
+                builder.addDevice(new Load("load_0_" + i + "_" + j));
+                builder.addEdge("switch_0_" + i + "_" + j + ".1", "load_0_" + i + "_" + j + ".0");
+
+                builder.addDevice(new Switch("switch_1_" + i + "_" + j, true));
+                builder.addEdge("bus_1_" + i + ".0", "switch_1_" + i + "_" + j + ".0");
+                builder.addDevice(new Load("load_1_" + i + "_" + j));
+                builder.addEdge("switch_1_" + i + "_" + j + ".1", "load_1_" + i + "_" + j + ".0");
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Collects up to {@code limit} load ports of the graph.
+     */
+    public static List<Pair<String, Integer>> loads(PowerSupplySystemGraph graph, int limit) {
+        List<Pair<String, Integer>> destinations = new ArrayList<>();
+        for (BaseDevice d : graph.getDevices().values()) {
+            if (d instanceof Load) {
+                destinations.add(Pair.create(d.name, 0));
+            }
+            if (destinations.size() == limit) {
+                break;
+            }
+        }
+        return destinations;
+    }
+}
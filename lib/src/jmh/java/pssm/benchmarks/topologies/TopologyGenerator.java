@@ -0,0 +1,271 @@
+package pssm.benchmarks.topologies;
+
+import java.util.Random;
+
+import pssm.PowerSupplySystemGraph;
+import pssm.devices.BaseDevice;
+import pssm.devices.Bus;
+import pssm.devices.DcDc;
+import pssm.devices.Diode;
+import pssm.devices.Load;
+import pssm.devices.PowerSupply;
+import pssm.devices.Switch;
+
+/**
+ * Generates graphs of a given shape, with random switch states, the same graph
+ * for the same settings and seed.
+ *
+ * A graph is a chain of sections of the same shape, each fed by its own power
+ * supplies. Every section has {@link #sectionSize(int)} buses, and every bus
+ * feeds {@link #loadsPerBus(int)} loads, each through a switch. Consecutive
+ * sections are tied by a switch which is always open, so no state of the
+ * switches connects two power supplies, every other switch is closed with the
+ * given probability. The devices of section k are prefixed by "s" + k + "_":
+ * the buses are "bus_i", the power supply "power_supply" ("power_supply_0" and
+ * "power_supply_1" for {@link Shape#DIODE_OR}) fed through "switch_feeder", the
+ * tie to the previous section "switch_tie", and the switch of load j of bus i
+ * is named "switch_i_j", next to "load_i_j".
+ *
+ * <pre>
+ * PowerSupplySystemGraph graph = new TopologyGenerator(TopologyGenerator.Shape.MESH).sectionSize(64).meshSide(8)
+ *         .closedProbability(0.9).generate(100000);
+ * </pre>
+ */
+public final class TopologyGenerator {
+    public enum Shape {
+        /**
+         * A power supply feeding the first bus through a switch, the other
+         * buses hanging off it as chains of {@link #depth(int)} buses at most,
+         * fed through switches.
+         */
+        RADIAL,
+        /**
+         * A power supply feeding the first bus through a switch, the buses in a
+         * ring, each tied to the next by a switch.
+         */
+        RING,
+        /**
+         * A radial section whose buses feed each other through a switch and a
+         * DcDc.
+         */
+        CASCADE,
+        /**
+         * A radial section whose first bus is fed by two power supplies, each
+         * through a switch and a diode.
+         */
+        DIODE_OR,
+        /**
+         * A power supply feeding a corner of a grid of buses through a switch,
+         * {@link #meshSide(int)} buses wide, every bus tied to its right and
+         * lower neighbours by switches.
+         */
+        MESH
+    }
+
+    private final Shape shape;
+
+    private int sectionSize = 16;
+
+    private int depth = 4;
+
+    private int meshSide = 4;
+
+    private int loadsPerBus = 4;
+
+    private long seed;
+
+    private double closedProbability = 1;
+
+    // the state of a generation
+    private Random random;
+
+    private PowerSupplySystemGraph.Builder builder;
+
+    private int numPorts;
+
+    /**
+     * A generator of sections of 16 buses, 4 levels deep, in grids 4 buses
+     * wide, every bus feeding 4 loads, every switch closed.
+     */
+    public TopologyGenerator(Shape shape) {
+        this.shape = shape;
+    }
+
+    /**
+     * @param sectionSize the number of buses of a section
+     */
+    public TopologyGenerator sectionSize(int sectionSize) {
+        if (sectionSize < 1) {
+            throw new IllegalArgumentException("a section has one bus at least");
+        }
+        this.sectionSize = sectionSize;
+        return this;
+    }
+
+    /**
+     * @param depth the number of buses from the first bus of a radial, cascade
+     *              or diode or section to its farthest one, both included
+     */
+    public TopologyGenerator depth(int depth) {
+        if (depth < 2) {
+            throw new IllegalArgumentException("a section is two buses deep at least");
+        }
+        this.depth = depth;
+        return this;
+    }
+
+    /**
+     * @param meshSide the number of buses of a row of a mesh section
+     */
+    public TopologyGenerator meshSide(int meshSide) {
+        if (meshSide < 1) {
+            throw new IllegalArgumentException("a mesh is one bus wide at least");
+        }
+        this.meshSide = meshSide;
+        return this;
+    }
+
+    public TopologyGenerator loadsPerBus(int loadsPerBus) {
+        if (loadsPerBus < 0) {
+            throw new IllegalArgumentException("negative number of loads");
+        }
+        this.loadsPerBus = loadsPerBus;
+        return this;
+    }
+
+    public TopologyGenerator seed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param closedProbability the probability of a switch to be closed, the
+     *                          ties between sections aside
+     */
+    public TopologyGenerator closedProbability(double closedProbability) {
+        if (closedProbability < 0 || closedProbability > 1) {
+            throw new IllegalArgumentException("not a probability: " + closedProbability);
+        }
+        this.closedProbability = closedProbability;
+        return this;
+    }
+
+    /**
+     * Generates sections until the graph has at least the given number of
+     * ports.
+     */
+    public PowerSupplySystemGraph generate(int numPorts) {
+        start(numPorts);
+        for (int k = 0; this.numPorts < numPorts; k++) {
+            addSection(k);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Generates the given number of sections.
+     */
+    public PowerSupplySystemGraph generateSections(int numSections) {
+        start(0);
+        for (int k = 0; k < numSections; k++) {
+            addSection(k);
+        }
+        return builder.build();
+    }
+
+    private void start(int expectedPorts) {
+        random = new Random(seed);
+        // about two ports per device and per edge
+        builder = new PowerSupplySystemGraph.Builder(expectedPorts / 2, expectedPorts / 2);
+        numPorts = 0;
+    }
+
+    private void add(BaseDevice device) {
+        builder.addDevice(device);
+        numPorts += device.getNumPorts();
+    }
+
+    // a switch from one port to another, closed at random
+    private void addSwitch(String name, String from, String to) {
+        add(new Switch(name, random.nextDouble() < closedProbability));
+        builder.addEdge(from, name + ".0");
+        builder.addEdge(name + ".1", to);
+    }
+
+    private void addSection(int k) {
+        String prefix = "s" + k + "_";
+        for (int i = 0; i < sectionSize; i++) {
+            add(new Bus(prefix + "bus_" + i));
+        }
+        String first = prefix + "bus_0.0";
+        if (shape == Shape.DIODE_OR) {
+            for (int d = 0; d < 2; d++) {
+                add(new PowerSupply(prefix + "power_supply_" + d));
+                add(new Diode(prefix + "diode_" + d));
+                addSwitch(prefix + "switch_feeder_" + d, prefix + "power_supply_" + d + ".0",
+                        prefix + "diode_" + d + ".0");
+                builder.addEdge(prefix + "diode_" + d + ".1", first);
+            }
+        } else {
+            add(new PowerSupply(prefix + "power_supply"));
+            addSwitch(prefix + "switch_feeder", prefix + "power_supply.0", first);
+        }
+
+        // the number of chains hanging off the first bus
+        int width = Math.max(1, (sectionSize - 1 + depth - 2) / (depth - 1));
+        switch (shape) {
+            case RADIAL:
+            case DIODE_OR:
+                for (int i = 1; i < sectionSize; i++) {
+                    addSwitch(prefix + "switch_bus_" + i, prefix + "bus_" + Math.max(0, i - width) + ".0",
+                            prefix + "bus_" + i + ".0");
+                }
+                break;
+            case RING:
+                for (int i = 0; i < sectionSize; i++) {
+                    addSwitch(prefix + "switch_bus_" + i, prefix + "bus_" + i + ".0",
+                            prefix + "bus_" + (i + 1) % sectionSize + ".0");
+                }
+                break;
+            case CASCADE:
+                for (int i = 1; i < sectionSize; i++) {
+                    add(new DcDc(prefix + "dc_dc_" + i));
+                    addSwitch(prefix + "switch_bus_" + i, prefix + "bus_" + Math.max(0, i - width) + ".0",
+                            prefix + "dc_dc_" + i + ".0");
+                    builder.addEdge(prefix + "dc_dc_" + i + ".1", prefix + "bus_" + i + ".0");
+                }
+                break;
+            case MESH:
+                for (int i = 0; i < sectionSize; i++) {
+                    if (i % meshSide < meshSide - 1 && i + 1 < sectionSize) {
+                        addSwitch(prefix + "switch_right_" + i, prefix + "bus_" + i + ".0",
+                                prefix + "bus_" + (i + 1) + ".0");
+                    }
+                    if (i + meshSide < sectionSize) {
+                        addSwitch(prefix + "switch_down_" + i, prefix + "bus_" + i + ".0",
+                                prefix + "bus_" + (i + meshSide) + ".0");
+                    }
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(shape.toString());
+        }
+
+        for (int i = 0; i < sectionSize; i++) {
+            for (int j = 0; j < loadsPerBus; j++) {
+                String load = prefix + "load_" + i + "_" + j;
+                add(new Load(load));
+                addSwitch(prefix + "switch_" + i + "_" + j, prefix + "bus_" + i + ".0", load + ".0");
+            }
+        }
+
+        if (k > 0) {
+            // the normally open point between the last bus of the previous
+            // section and the first of this one
+            String tie = prefix + "switch_tie";
+            add(new Switch(tie, false));
+            builder.addEdge("s" + (k - 1) + "_bus_" + (sectionSize - 1) + ".0", tie + ".0");
+            builder.addEdge(tie + ".1", first);
+        }
+    }
+}
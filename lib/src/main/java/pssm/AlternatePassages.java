@@ -0,0 +1,396 @@
+package pssm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Finds the k shortest loopless passages from any power supply to a port,
+ * whatever the state of the switches, see
+ * {@link PowerSupplySystemGraph#findAlternatePassages(String, int, ToDoubleFunction)}.
+ *
+ * The passages follow the edges, and go through switches and DcDcs both ways,
+ * and through diodes from their first port to their second one. They never go
+ * through a power supply. The power supplies are joined under a virtual root,
+ * and Yen's algorithm runs from that root: each passage found is deviated
+ * from every one of its ports in turn, the part before the port kept as it
+ * is, and the shortest deviation of all becomes the next passage.
+ *
+ * The deviations are searched with A*, the distance of every port to the
+ * destination being the heuristic. These distances are computed once per
+ * destination, by a single Dijkstra search backwards from it, and hold in
+ * every deviation, since leaving out ports and links only makes the
+ * passages longer.
+ */
+final class AlternatePassages {
+    private static final double UNREACHABLE = Double.POSITIVE_INFINITY;
+
+    private final CompiledGraph graph;
+
+    // the weight of every edge
+    private final double[] edgeWeights;
+
+    // the weight of going through a device, from one port to the other
+    private final double deviceWeight;
+
+    // the virtual root, joined to every power supply
+    private final int virtualRoot;
+
+    /**
+     * @param edgeWeight the weight of an edge given its extras, or null to count
+     *                   the hops, both the edges and the devices gone through
+     * @throws IllegalArgumentException if a weight is negative or NaN
+     */
+    AlternatePassages(CompiledGraph graph, ToDoubleFunction<Object> edgeWeight) throws IllegalArgumentException {
+        this(graph, edgeWeight == null ? (IntToDoubleFunction) null
+                : (IntToDoubleFunction) e -> edgeWeight.applyAsDouble(graph.edgeExtras[e]));
+    }
+
+    /**
+     * @param edgeWeight the weight of an edge given its index, or null to count
+     *                   the hops
+     * @throws IllegalArgumentException if a weight is negative or NaN
+     */
+    AlternatePassages(CompiledGraph graph, IntToDoubleFunction edgeWeight) throws IllegalArgumentException {
+        this.graph = graph;
+        edgeWeights = new double[graph.getNumEdges()];
+        for (int e = 0; e < edgeWeights.length; e++) {
+            double weight = edgeWeight == null ? 1 : edgeWeight.applyAsDouble(e);
+            if (!(weight >= 0)) {
+                throw new IllegalArgumentException("the weight of an edge must not be negative: " + weight);
+            }
+            edgeWeights[e] = weight;
+        }
+        deviceWeight = edgeWeight == null ? 1 : 0;
+        virtualRoot = graph.numPorts;
+    }
+
+    // if power could go from the given port to the other port of its device
+    private boolean passes(int port) {
+        switch (graph.portTypes[port]) {
+            case CompiledGraph.TYPE_SWITCH:
+            case CompiledGraph.TYPE_DC_DC:
+                return true;
+            case CompiledGraph.TYPE_DIODE:
+                return graph.portIndices[port] == 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * A passage, the virtual root first, with the distance from the root to
+     * every port of it.
+     */
+    private static final class Path {
+        final int[] ports;
+        final double[] distances;
+        final long order;
+
+        Path(int[] ports, double[] distances, long order) {
+            this.ports = ports;
+            this.distances = distances;
+            this.order = order;
+        }
+
+        double weight() {
+            return distances[distances.length - 1];
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Path && Arrays.equals(ports, ((Path) o).ports);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(ports);
+        }
+    }
+
+    /**
+     * The state of the searches, to be used by one thread at a time, and for
+     * as many destinations as needed.
+     */
+    final class Search {
+        // the distance of every port to the destination
+        private final double[] heuristics = new double[virtualRoot + 1];
+
+        // the distance from the start of the current search, valid if the
+        // stamp is the current one
+        private final double[] distances = new double[virtualRoot + 1];
+        private final int[] parents = new int[virtualRoot + 1];
+        private final int[] stamps = new int[virtualRoot + 1];
+        private final boolean[] settled = new boolean[virtualRoot + 1];
+        // the ports left out of the current search, if their stamp is the
+        // current one
+        private final int[] removed = new int[virtualRoot + 1];
+        private int stamp;
+
+        // the links left out of the current search, as pairs of ports
+        private final IntList removedLinks = new IntList();
+
+        // a binary heap of ports by key, with stale entries skipped
+        private double[] heapKeys = new double[16];
+        private int[] heapPorts = new int[16];
+        private int heapSize;
+
+        private long nextOrder;
+
+        /**
+         * @return the passages, shortest first, at most k of them
+         */
+        List<CompactPassage> find(int destination, int k) {
+            List<CompactPassage> res = new ArrayList<>();
+            if (k <= 0) {
+                return res;
+            }
+            if (graph.portTypes[destination] == CompiledGraph.TYPE_POWER_SUPPLY) {
+                res.add(new CompactPassage(graph, new int[] { destination }));
+                return res;
+            }
+            computeHeuristics(destination);
+            if (heuristics[virtualRoot] == UNREACHABLE) {
+                return res;
+            }
+
+            List<Path> shortest = new ArrayList<>();
+            PriorityQueue<Path> candidates = new PriorityQueue<>((a, b) -> a.weight() != b.weight()
+                    ? Double.compare(a.weight(), b.weight())
+                    : Long.compare(a.order, b.order));
+            Set<Path> known = new HashSet<>();
+            nextStamp();
+            removedLinks.clear();
+            Path first = search(virtualRoot, destination, null);
+            shortest.add(first);
+            known.add(first);
+            while (shortest.size() < k) {
+                Path previous = shortest.get(shortest.size() - 1);
+                for (int j = 0; j < previous.ports.length - 1; j++) {
+                    nextStamp();
+                    removedLinks.clear();
+                    // the links taken after the same ports by the passages found
+                    for (Path path : shortest) {
+                        if (path.ports.length > j + 1 && samePrefix(path, previous, j)) {
+                            removedLinks.add(path.ports[j]);
+                            removedLinks.add(path.ports[j + 1]);
+                        }
+                    }
+                    for (int i = 0; i < j; i++) {
+                        removed[previous.ports[i]] = stamp;
+                    }
+                    Path candidate = search(previous.ports[j], destination, previous);
+                    if (candidate != null && known.add(candidate)) {
+                        candidates.add(candidate);
+                    }
+                }
+                Path next = candidates.poll();
+                if (next == null) {
+                    break;
+                }
+                shortest.add(next);
+            }
+            for (Path path : shortest) {
+                res.add(new CompactPassage(graph, Arrays.copyOfRange(path.ports, 1, path.ports.length)));
+            }
+            return res;
+        }
+
+        private boolean samePrefix(Path a, Path b, int j) {
+            for (int i = 0; i <= j; i++) {
+                if (a.ports[i] != b.ports[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void nextStamp() {
+            stamp++;
+            if (stamp == 0) {
+                // wrapped around, every stamp is stale again
+                Arrays.fill(stamps, 0);
+                Arrays.fill(removed, 0);
+                stamp = 1;
+            }
+        }
+
+        /**
+         * Dijkstra backwards from the destination, over the links power could
+         * go through towards it.
+         */
+        private void computeHeuristics(int destination) {
+            Arrays.fill(heuristics, UNREACHABLE);
+            Arrays.fill(settled, false);
+            heapSize = 0;
+            heuristics[destination] = 0;
+            push(0, destination);
+            while (heapSize > 0) {
+                double distance = heapKeys[0];
+                int port = pop();
+                if (settled[port]) {
+                    continue;
+                }
+                settled[port] = true;
+                // power supplies start the passages, nothing goes through them
+                if (graph.portTypes[port] == CompiledGraph.TYPE_POWER_SUPPLY) {
+                    heuristics[virtualRoot] = Math.min(heuristics[virtualRoot], distance);
+                    continue;
+                }
+                for (int slot = graph.offsets.get(port); slot < graph.offsets.get(port + 1); slot++) {
+                    int from = graph.neighbours.get(slot);
+                    double d = distance + edgeWeights[graph.adjacencyEdges.get(slot)];
+                    if (d < heuristics[from]) {
+                        heuristics[from] = d;
+                        push(d, from);
+                    }
+                }
+                int sibling = graph.siblings[port];
+                if (sibling >= 0 && passes(sibling) && distance + deviceWeight < heuristics[sibling]) {
+                    heuristics[sibling] = distance + deviceWeight;
+                    push(distance + deviceWeight, sibling);
+                }
+            }
+        }
+
+        /**
+         * A* from the given port, which is on the given passage, to the
+         * destination, leaving out the ports and links removed. The passage
+         * found starts with the part of the given passage before the port.
+         *
+         * @return the passage, or null if there's none
+         */
+        private Path search(int start, int destination, Path root) {
+            int rootLength = 0;
+            double rootDistance = 0;
+            if (root != null) {
+                while (root.ports[rootLength] != start) {
+                    rootLength++;
+                }
+                rootDistance = root.distances[rootLength];
+            }
+            heapSize = 0;
+            distances[start] = rootDistance;
+            parents[start] = -1;
+            stamps[start] = stamp;
+            settled[start] = false;
+            push(rootDistance + heuristics[start], start);
+            while (heapSize > 0) {
+                int port = pop();
+                if (settled[port]) {
+                    continue;
+                }
+                settled[port] = true;
+                if (port == destination) {
+                    return toPath(root, rootLength, destination);
+                }
+                double distance = distances[port];
+                if (port == virtualRoot) {
+                    for (int powerSupply : graph.powerSupplyPorts) {
+                        relax(port, powerSupply, distance);
+                    }
+                    continue;
+                }
+                for (int slot = graph.offsets.get(port); slot < graph.offsets.get(port + 1); slot++) {
+                    int to = graph.neighbours.get(slot);
+                    if (graph.portTypes[to] != CompiledGraph.TYPE_POWER_SUPPLY) {
+                        relax(port, to, distance + edgeWeights[graph.adjacencyEdges.get(slot)]);
+                    }
+                }
+                int sibling = graph.siblings[port];
+                if (sibling >= 0 && passes(port)) {
+                    relax(port, sibling, distance + deviceWeight);
+                }
+            }
+            return null;
+        }
+
+        private void relax(int from, int to, double distance) {
+            if (removed[to] == stamp || heuristics[to] == UNREACHABLE) {
+                return;
+            }
+            if (stamps[to] == stamp && (settled[to] || distances[to] <= distance)) {
+                return;
+            }
+            for (int i = 0; i < removedLinks.size(); i += 2) {
+                if (removedLinks.get(i) == from && removedLinks.get(i + 1) == to) {
+                    return;
+                }
+            }
+            stamps[to] = stamp;
+            settled[to] = false;
+            distances[to] = distance;
+            parents[to] = from;
+            push(distance + heuristics[to], to);
+        }
+
+        private Path toPath(Path root, int rootLength, int destination) {
+            int length = rootLength;
+            for (int port = destination; port >= 0; port = parents[port]) {
+                length++;
+            }
+            int[] ports = new int[length];
+            double[] pathDistances = new double[length];
+            int i = length - 1;
+            for (int port = destination; port >= 0; port = parents[port]) {
+                ports[i] = port;
+                pathDistances[i] = distances[port];
+                i--;
+            }
+            if (root != null) {
+                System.arraycopy(root.ports, 0, ports, 0, rootLength);
+                System.arraycopy(root.distances, 0, pathDistances, 0, rootLength);
+            }
+            return new Path(ports, pathDistances, nextOrder++);
+        }
+
+        private void push(double key, int port) {
+            if (heapSize == heapKeys.length) {
+                heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+                heapPorts = Arrays.copyOf(heapPorts, heapSize * 2);
+            }
+            int i = heapSize++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heapKeys[parent] <= key) {
+                    break;
+                }
+                heapKeys[i] = heapKeys[parent];
+                heapPorts[i] = heapPorts[parent];
+                i = parent;
+            }
+            heapKeys[i] = key;
+            heapPorts[i] = port;
+        }
+
+        private int pop() {
+            int res = heapPorts[0];
+            double key = heapKeys[--heapSize];
+            int port = heapPorts[heapSize];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if (child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]) {
+                    child++;
+                }
+                if (key <= heapKeys[child]) {
+                    break;
+                }
+                heapKeys[i] = heapKeys[child];
+                heapPorts[i] = heapPorts[child];
+                i = child;
+            }
+            heapKeys[i] = key;
+            heapPorts[i] = port;
+            return res;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package pssm;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+import org.apache.commons.math3.util.Pair;
+
+/**
+ * A passage kept as the dense indices of its ports in a {@link CompiledGraph},
+ * from the power supply to the destination.
+ *
+ * It is also a read only list of pairs of device name and port index, so it
+ * equals the {@link Passage} of the same ports. The pairs are created when they
+ * are asked for.
+ */
+public final class CompactPassage extends AbstractList<Pair<String, Integer>> implements RandomAccess {
+    private final CompiledGraph graph;
+
+    private final int[] ports;
+
+    CompactPassage(CompiledGraph graph, int[] ports) {
+        this.graph = graph;
+        this.ports = ports;
+    }
+
+    public CompiledGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * @param i the position in the passage, 0 being the power supply
+     * @return the dense index of the port at the given position
+     */
+    public int getPort(int i) {
+        return ports[i];
+    }
+
+    @Override
+    public Pair<String, Integer> get(int i) {
+        int port = ports[i];
+        return Pair.create(graph.portDevices[port].name, graph.portIndices[port]);
+    }
+
+    @Override
+    public int size() {
+        return ports.length;
+    }
+
+    /**
+     * @return the passage as a list of pairs of device name and port index
+     */
+    public Passage toPassage() {
+        Pair<String, Integer>[] hops = Passage.newHops(ports.length);
+        for (int i = 0; i < ports.length; i++) {
+            hops[i] = get(i);
+        }
+        return new Passage(hops);
+    }
+}
@@ -0,0 +1,805 @@
+package pssm;
+
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiFunction;
+
+import org.apache.commons.math3.util.Pair;
+
+import pssm.devices.BaseDevice;
+import pssm.devices.Bus;
+import pssm.devices.DcDc;
+import pssm.devices.Diode;
+import pssm.devices.Load;
+import pssm.devices.PowerSupply;
+import pssm.devices.Switch;
+import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.ClosedLoop;
+import pssm.exceptions.InvalidPort;
+import pssm.exceptions.LackPowerSupplies;
+import pssm.exceptions.NoSuchDevice;
+
+/**
+ * A frozen, integer indexed view of a {@link PowerSupplySystemGraph}.
+ *
+ * Ports are numbered densely in the order they were added to the graph, and
+ * the adjacency is stored in compressed sparse row form: the neighbours of
+ * port {@code p} are {@code neighbours.get(offsets.get(p))} to
+ * {@code neighbours.get(offsets.get(p + 1) - 1)}, in the same order as
+ * {@link Port#adjList}. The adjacency is held by int buffers, so a graph
+ * loaded from a {@link GraphSnapshot} reads it from the mapped file.
+ *
+ * A compiled graph never changes, use {@link PowerSupplySystemGraph#compile()}
+ * to get one that is up to date.
+ */
+public final class CompiledGraph {
+    // also the device types of a GraphSnapshot, so they must not change
+    static final byte TYPE_OTHER = 0;
+    static final byte TYPE_BUS = 1;
+    static final byte TYPE_DC_DC = 2;
+    static final byte TYPE_DIODE = 3;
+    static final byte TYPE_LOAD = 4;
+    static final byte TYPE_POWER_SUPPLY = 5;
+    static final byte TYPE_SWITCH = 6;
+
+    // marks a port not reached by a traversal
+    private static final int UNREACHED = -2;
+
+    // anchor of a port which is not a dead end
+    private static final int NOT_ANCHORED = -1;
+    // anchor of a dead end with no link left at all
+    private static final int FEEDS_NOTHING = -2;
+
+    final int numPorts;
+    final BaseDevice[] portDevices;
+    final int[] portIndices;
+    final byte[] portTypes;
+    final String[] portIds;
+    // the other port of a two port device, or -1
+    final int[] siblings;
+
+    // the adjacency, on the heap or mapped from a GraphSnapshot, read with
+    // absolute gets only, so it could be shared by traversals running at once
+    final IntBuffer offsets;
+    final IntBuffer neighbours;
+    // edge id of each adjacency slot, an index into edgeExtras
+    final IntBuffer adjacencyEdges;
+    // the slot of the same edge seen from the other end
+    final IntBuffer twinSlots;
+    final Object[] edgeExtras;
+
+    final int[] powerSupplyPorts;
+
+    // the only port a dead end could be fed through, see findAnchors()
+    final IntBuffer anchors;
+
+    final Switch[] switches;
+    // the first port of each switch
+    final int[] switchPorts;
+    // index into switches of each port, or -1
+    final int[] portSwitches;
+
+    private final Map<String, Integer> portLookup;
+    private final Map<String, BaseDevice> deviceLookup;
+    private final Map<String, BaseDevice> devicesView;
+
+    /**
+     * Compiles the given devices, ports and edges, see
+     * {@link PowerSupplySystemGraph#compile()}.
+     */
+    static CompiledGraph of(Collection<BaseDevice> devices, List<Port> ports, List<Edge> edges) {
+        int numPorts = ports.size();
+        BaseDevice[] portDevices = new BaseDevice[numPorts];
+        int[] portIndices = new int[numPorts];
+        String[] portIds = new String[numPorts];
+        int[] offsets = new int[numPorts + 1];
+        for (int p = 0; p < numPorts; p++) {
+            Port port = ports.get(p);
+            assert port.ordinal == p;
+            portDevices[p] = port.device;
+            portIndices[p] = port.index;
+            portIds[p] = port.getId();
+            offsets[p + 1] = offsets[p] + port.adjList.size();
+        }
+
+        Object[] edgeExtras = new Object[edges.size()];
+        int[] neighbours = new int[offsets[numPorts]];
+        int[] adjacencyEdges = new int[offsets[numPorts]];
+        int[] twinSlots = new int[offsets[numPorts]];
+        // adjacency lists are filled edge by edge, so replaying the edges in order
+        // reproduces their order
+        int[] cursors = Arrays.copyOf(offsets, numPorts);
+        for (int e = 0; e < edges.size(); e++) {
+            Edge edge = edges.get(e);
+            edgeExtras[e] = edge.extras;
+            int first = edge.first.ordinal;
+            int second = edge.second.ordinal;
+            int firstSlot = cursors[first]++;
+            int secondSlot = cursors[second]++;
+            neighbours[firstSlot] = second;
+            adjacencyEdges[firstSlot] = e;
+            twinSlots[firstSlot] = secondSlot;
+            neighbours[secondSlot] = first;
+            adjacencyEdges[secondSlot] = e;
+            twinSlots[secondSlot] = firstSlot;
+        }
+        return new CompiledGraph(devices, portDevices, portIndices, portIds, IntBuffer.wrap(offsets),
+                IntBuffer.wrap(neighbours), IntBuffer.wrap(adjacencyEdges), IntBuffer.wrap(twinSlots), edgeExtras,
+                null);
+    }
+
+    /**
+     * Takes the adjacency as it is, and derives the rest of the tables from it.
+     *
+     * @param portIds the ids of the ports, or null to generate them
+     * @param anchors the anchors of the ports, or null to find them, see
+     *                {@link #findAnchors()}
+     */
+    CompiledGraph(Collection<BaseDevice> devices, BaseDevice[] portDevices, int[] portIndices, String[] portIds,
+            IntBuffer offsets, IntBuffer neighbours, IntBuffer adjacencyEdges, IntBuffer twinSlots,
+            Object[] edgeExtras, IntBuffer anchors) {
+        numPorts = portDevices.length;
+        this.portDevices = portDevices;
+        this.portIndices = portIndices;
+        this.portIds = portIds != null ? portIds : new String[numPorts];
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+        this.adjacencyEdges = adjacencyEdges;
+        this.twinSlots = twinSlots;
+        this.edgeExtras = edgeExtras;
+        portTypes = new byte[numPorts];
+        siblings = new int[numPorts];
+        portSwitches = new int[numPorts];
+        portLookup = new HashMap<>(numPorts * 2);
+        deviceLookup = new LinkedHashMap<>(devices.size() * 2);
+        for (BaseDevice device : devices) {
+            deviceLookup.put(device.name, device);
+        }
+        devicesView = Collections.unmodifiableMap(deviceLookup);
+
+        int numPowerSupplyPorts = 0;
+        List<Switch> switchList = new ArrayList<>();
+        List<Integer> switchPortList = new ArrayList<>();
+        for (int p = 0; p < numPorts; p++) {
+            BaseDevice device = portDevices[p];
+            int index = portIndices[p];
+            portTypes[p] = typeOf(device);
+            if (portIds == null) {
+                this.portIds[p] = Utils.genPortId(device.name, index);
+            }
+            portLookup.put(this.portIds[p], p);
+            if (portTypes[p] == TYPE_POWER_SUPPLY) {
+                numPowerSupplyPorts++;
+            }
+            if (portTypes[p] == TYPE_SWITCH) {
+                // ports of a device are added one after another
+                if (index == 0) {
+                    switchList.add((Switch) device);
+                    switchPortList.add(p);
+                }
+                portSwitches[p] = switchList.size() - 1;
+            } else {
+                portSwitches[p] = -1;
+            }
+            if (device.getNumPorts() == 2) {
+                siblings[p] = p - index + (1 - index);
+            } else {
+                siblings[p] = -1;
+            }
+        }
+        switches = switchList.toArray(new Switch[0]);
+        switchPorts = new int[switches.length];
+        for (int i = 0; i < switches.length; i++) {
+            switchPorts[i] = switchPortList.get(i);
+        }
+
+        powerSupplyPorts = new int[numPowerSupplyPorts];
+        int nextPowerSupplyPort = 0;
+        for (int p = 0; p < numPorts; p++) {
+            if (portTypes[p] == TYPE_POWER_SUPPLY) {
+                powerSupplyPorts[nextPowerSupplyPort++] = p;
+            }
+        }
+        this.anchors = anchors != null ? anchors : IntBuffer.wrap(findAnchors());
+    }
+
+    /**
+     * Peels the dead ends off the graph: a port other than a power supply with
+     * a single link left, whether an edge or the link to its sibling, can only
+     * be fed through that link, so it never feeds the port at its other end.
+     * That port is its anchor. The links are taken whatever the state of the
+     * switches, so the anchors hold for every truth table.
+     */
+    private int[] findAnchors() {
+        int[] res = new int[numPorts];
+        int[] degrees = new int[numPorts];
+        IntList leaves = new IntList();
+        for (int p = 0; p < numPorts; p++) {
+            res[p] = NOT_ANCHORED;
+            degrees[p] = offsets.get(p + 1) - offsets.get(p) + (siblings[p] >= 0 ? 1 : 0);
+            if (degrees[p] <= 1 && portTypes[p] != TYPE_POWER_SUPPLY) {
+                leaves.add(p);
+            }
+        }
+        for (int i = 0; i < leaves.size(); i++) {
+            int leaf = leaves.get(i);
+            // the one link left, if any, goes to a port which is not peeled yet
+            int anchor = FEEDS_NOTHING;
+            for (int slot = offsets.get(leaf); slot < offsets.get(leaf + 1); slot++) {
+                if (res[neighbours.get(slot)] == NOT_ANCHORED && neighbours.get(slot) != leaf) {
+                    anchor = neighbours.get(slot);
+                }
+            }
+            if (siblings[leaf] >= 0 && res[siblings[leaf]] == NOT_ANCHORED) {
+                anchor = siblings[leaf];
+            }
+            res[leaf] = anchor;
+            if (anchor >= 0 && --degrees[anchor] == 1 && portTypes[anchor] != TYPE_POWER_SUPPLY) {
+                leaves.add(anchor);
+            }
+        }
+        return res;
+    }
+
+    static byte typeOf(BaseDevice device) {
+        if (device instanceof Bus) {
+            return TYPE_BUS;
+        } else if (device instanceof DcDc) {
+            return TYPE_DC_DC;
+        } else if (device instanceof Diode) {
+            return TYPE_DIODE;
+        } else if (device instanceof Load) {
+            return TYPE_LOAD;
+        } else if (device instanceof PowerSupply) {
+            return TYPE_POWER_SUPPLY;
+        } else if (device instanceof Switch) {
+            return TYPE_SWITCH;
+        }
+        return TYPE_OTHER;
+    }
+
+    public int getNumPorts() {
+        return numPorts;
+    }
+
+    public int getNumEdges() {
+        return edgeExtras.length;
+    }
+
+    /**
+     * Returns the dense index of the given port.
+     *
+     * @param portId the port id, see {@link Utils#genPortId(String, int)}
+     * @return the index of the port
+     * @throws InvalidPort if there's no such port in the graph
+     */
+    public int indexOf(String portId) throws InvalidPort {
+        Integer index = portLookup.get(portId);
+        if (index == null) {
+            throw new InvalidPort(portId);
+        }
+        return index;
+    }
+
+    /**
+     * @return the devices of the graph by their names, in the order they were
+     *         added, as an unmodifiable map
+     */
+    public Map<String, BaseDevice> getDevices() {
+        return devicesView;
+    }
+
+    // the dense index of the given port, or -1 if there's no such port
+    int lookup(String portId) {
+        Integer index = portLookup.get(portId);
+        return index == null ? -1 : index;
+    }
+
+    public String getPortId(int port) {
+        return portIds[port];
+    }
+
+    public int getNumSwitches() {
+        return switches.length;
+    }
+
+    /**
+     * Returns the dense index of the given switch, as used by
+     * {@link SwitchStateVector}.
+     *
+     * @throws NoSuchDevice             if there's no such device in the system
+     * @throws IllegalArgumentException if the device is not a switch
+     */
+    public int switchIndexOf(String name) throws NoSuchDevice, IllegalArgumentException {
+        BaseDevice device = deviceLookup.get(name);
+        if (device == null) {
+            throw new NoSuchDevice(name);
+        }
+        if (!(device instanceof Switch)) {
+            throw new IllegalArgumentException(name + " is not a switch");
+        }
+        return portSwitches[indexOf(Utils.genPortId(name, 0))];
+    }
+
+    public Switch getSwitch(int i) {
+        return switches[i];
+    }
+
+    /**
+     * Resolves a truth table to the state of every switch. Switches absent
+     * from the truth table keep their own state.
+     *
+     * @param truthTable the truth table, or null to keep the state of every
+     *                   switch
+     * @return a new vector
+     * @throws NoSuchDevice             if a device in the truth table does not
+     *                                  exist in the system
+     * @throws IllegalArgumentException if a device in the truth table is not a
+     *                                  switch
+     */
+    public SwitchStateVector switchStates(Map<String, Boolean> truthTable)
+            throws NoSuchDevice, IllegalArgumentException {
+        if (truthTable != null) {
+            for (String key : truthTable.keySet()) {
+                switchIndexOf(key);
+            }
+        }
+        SwitchStateVector closed = new SwitchStateVector(switches.length);
+        for (int i = 0; i < switches.length; i++) {
+            Switch switch_ = switches[i];
+            Boolean state = truthTable == null ? null : truthTable.get(switch_.name);
+            closed.set(i, state == null ? switch_.isClosed() : state);
+        }
+        return closed;
+    }
+
+    void checkSwitchStates(SwitchStateVector closedSwitches) throws IllegalArgumentException {
+        if (closedSwitches.size() != switches.length) {
+            throw new IllegalArgumentException(
+                    "expected the states of " + switches.length + " switches, got " + closedSwitches.size());
+        }
+    }
+
+    /**
+     * Tells if the given port passes power on to the other port of its device.
+     */
+    boolean conducts(int port, SwitchStateVector closedSwitches) {
+        switch (portTypes[port]) {
+            case TYPE_SWITCH:
+                return closedSwitches.get(portSwitches[port]);
+            case TYPE_DC_DC:
+                return true;
+            case TYPE_DIODE:
+                return portIndices[port] == 0;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Generates a forest of power supply system trees based on the given truth
+     * table, see {@link PowerSupplySystemGraph#genForest(Map)}.
+     */
+    public List<PowerSupplySystemTree> genForest(Map<String, Boolean> truthTable)
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        return genForest(truthTable, LoopPolicy.KEEP_FIRST_FEED);
+    }
+
+    /**
+     * Like {@link #genForest(Map)}, with the given policy for the ports fed
+     * twice by the same power supply.
+     *
+     * @throws ClosedLoop if the policy is {@link LoopPolicy#REPORT} and the
+     *                    switches close a loop
+     */
+    public List<PowerSupplySystemTree> genForest(Map<String, Boolean> truthTable, LoopPolicy loopPolicy)
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        return genForestFor(switchStates(truthTable), loopPolicy);
+    }
+
+    public List<PowerSupplySystemTree> genForestFor(SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        return genForestFor(closedSwitches, LoopPolicy.KEEP_FIRST_FEED);
+    }
+
+    /**
+     * Generates a forest of power supply system trees under the given switch
+     * states.
+     *
+     * @throws IllegalArgumentException if the vector is not of the size of the
+     *                                  switches of this graph
+     * @throws ClosedLoop               if the policy is {@link LoopPolicy#REPORT}
+     *                                  and the switches close a loop
+     */
+    public List<PowerSupplySystemTree> genForestFor(SwitchStateVector closedSwitches, LoopPolicy loopPolicy)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        checkSwitchStates(closedSwitches);
+        if (powerSupplyPorts.length == 0) {
+            throw new LackPowerSupplies();
+        }
+        List<PowerSupplySystemTree> forest = new ArrayList<>(powerSupplyPorts.length);
+        // one bit per port, cleared for each tree
+        long[] reached = new long[(numPorts + 63) >>> 6];
+        for (int root : powerSupplyPorts) {
+            Arrays.fill(reached, 0L);
+            forest.add(genTree(root, closedSwitches, loopPolicy, reached));
+        }
+        return forest;
+    }
+
+    /**
+     * Like {@link #genForestFor(SwitchStateVector, LoopPolicy)}, but the trees are
+     * generated concurrently on the given pool. The trees are in the same order,
+     * and if some of them fail, the failure of the first one is thrown, as if
+     * they were generated one after another.
+     *
+     * @param pool the pool to generate the trees on
+     */
+    public List<PowerSupplySystemTree> genForestFor(SwitchStateVector closedSwitches, LoopPolicy loopPolicy,
+            ForkJoinPool pool) throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        checkSwitchStates(closedSwitches);
+        if (powerSupplyPorts.length == 0) {
+            throw new LackPowerSupplies();
+        }
+        PowerSupplySystemTree[] trees = new PowerSupplySystemTree[powerSupplyPorts.length];
+        RuntimeException[] failures = new RuntimeException[powerSupplyPorts.length];
+        pool.invoke(new GenTrees(closedSwitches, loopPolicy, trees, failures, 0, trees.length));
+        for (RuntimeException failure : failures) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+        return new ArrayList<>(Arrays.asList(trees));
+    }
+
+    /**
+     * Generates the trees of the power supplies in [from, to), by halves.
+     */
+    private final class GenTrees extends RecursiveAction {
+        private final SwitchStateVector closedSwitches;
+        private final LoopPolicy loopPolicy;
+        private final PowerSupplySystemTree[] trees;
+        private final RuntimeException[] failures;
+        private final int from;
+        private final int to;
+
+        GenTrees(SwitchStateVector closedSwitches, LoopPolicy loopPolicy, PowerSupplySystemTree[] trees,
+                RuntimeException[] failures, int from, int to) {
+            this.closedSwitches = closedSwitches;
+            this.loopPolicy = loopPolicy;
+            this.trees = trees;
+            this.failures = failures;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new GenTrees(closedSwitches, loopPolicy, trees, failures, from, middle),
+                        new GenTrees(closedSwitches, loopPolicy, trees, failures, middle, to));
+                return;
+            }
+            try {
+                trees[from] = genTree(powerSupplyPorts[from], closedSwitches, loopPolicy,
+                        new long[(numPorts + 63) >>> 6]);
+            } catch (RuntimeException e) {
+                failures[from] = e;
+            }
+        }
+    }
+
+    /**
+     * Breadth first generates the tree of the given power supply. A port is
+     * marked as reached when it's queued, so it's queued at most once and the
+     * cost is bounded by the ports and edges of the tree, whatever the loops.
+     * The queue is the tree itself: the slot of a port is its position in the
+     * queue.
+     */
+    private PowerSupplySystemTree genTree(int root, SwitchStateVector closedSwitches, LoopPolicy loopPolicy,
+            long[] reached) throws ChargePowerSupply, ClosedLoop {
+        int[] ports = new int[16];
+        int[] parents = new int[16];
+        int[] depths = new int[16];
+        int[] edges = new int[16];
+        int head = 0;
+        int tail = 0;
+
+        ports[tail] = root;
+        // power supply is the root, so it has no parent
+        parents[tail] = -1;
+        depths[tail] = 0;
+        edges[tail] = -1;
+        tail++;
+        reached[root >>> 6] |= 1L << root;
+        int relaxed = 0;
+
+        while (head < tail) {
+            int candidate = ports[head];
+            int parent = parents[head] >= 0 ? ports[parents[head]] : -1;
+            int candidateSlot = head;
+            head++;
+
+            int end = offsets.get(candidate + 1);
+            // the simulated edge to the other port comes last, and has no extras
+            int sibling = conducts(candidate, closedSwitches) ? siblings[candidate] : -1;
+            relaxed += end - offsets.get(candidate) + (sibling >= 0 ? 1 : 0);
+            for (int slot = offsets.get(candidate); slot <= end; slot++) {
+                int child;
+                int edge;
+                if (slot < end) {
+                    child = neighbours.get(slot);
+                    edge = adjacencyEdges.get(slot);
+                } else if (sibling >= 0) {
+                    child = sibling;
+                    edge = -1;
+                } else {
+                    break;
+                }
+                // 避免回溯到父节点
+                if (child == parent) {
+                    continue;
+                }
+                if ((reached[child >>> 6] & (1L << child)) != 0) {
+                    // fed twice, the first feed is kept
+                    if (loopPolicy == LoopPolicy.REPORT) {
+                        throw new ClosedLoop(portDevices[root], portIds[child]);
+                    }
+                    continue;
+                }
+                if (portTypes[child] == TYPE_POWER_SUPPLY) {
+                    throw new ChargePowerSupply(portDevices[root], portDevices[child]);
+                }
+                reached[child >>> 6] |= 1L << child;
+
+                if (tail == ports.length) {
+                    int capacity = ports.length * 2;
+                    ports = Arrays.copyOf(ports, capacity);
+                    parents = Arrays.copyOf(parents, capacity);
+                    depths = Arrays.copyOf(depths, capacity);
+                    edges = Arrays.copyOf(edges, capacity);
+                }
+                ports[tail] = child;
+                parents[tail] = candidateSlot;
+                depths[tail] = depths[candidateSlot] + 1;
+                edges[tail] = edge;
+                tail++;
+            }
+        }
+
+        PowerSupplySystemTree tree = new PowerSupplySystemTree(this, Arrays.copyOf(ports, tail),
+                Arrays.copyOf(parents, tail), Arrays.copyOf(depths, tail), Arrays.copyOf(edges, tail), tail);
+        tree.edgesRelaxed = relaxed;
+        return tree;
+    }
+
+    /**
+     * Finds passages start from power supplies for the given destinations and
+     * truth table, see {@link PowerSupplySystemGraph#findPassages(List, Map)}.
+     */
+    public Map<String, List<Passage>> findPassages(List<Pair<String, Integer>> destinations,
+            Map<String, Boolean> truthTable)
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        return findPassages(destinations, genForest(truthTable));
+    }
+
+    public Map<String, List<Passage>> findPassagesFor(List<Pair<String, Integer>> destinations,
+            SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        return findPassages(destinations, genForestFor(closedSwitches));
+    }
+
+    static Map<String, List<Passage>> findPassages(List<Pair<String, Integer>> destinations,
+            List<PowerSupplySystemTree> forest) {
+        return collectPassages(destinations, forest, PowerSupplySystemTree::findPassage);
+    }
+
+    /**
+     * Like {@link #findPassages(List, Map)}, but the passages are kept as port
+     * indices.
+     */
+    public Map<String, List<CompactPassage>> findCompactPassages(List<Pair<String, Integer>> destinations,
+            Map<String, Boolean> truthTable)
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        return findCompactPassages(destinations, genForest(truthTable));
+    }
+
+    public Map<String, List<CompactPassage>> findCompactPassagesFor(List<Pair<String, Integer>> destinations,
+            SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        return findCompactPassages(destinations, genForestFor(closedSwitches));
+    }
+
+    static Map<String, List<CompactPassage>> findCompactPassages(List<Pair<String, Integer>> destinations,
+            List<PowerSupplySystemTree> forest) {
+        return collectPassages(destinations, forest, PowerSupplySystemTree::findCompactPassage);
+    }
+
+    /**
+     * Finds the same passages as {@link #findPassages(List, Map)}, but walks
+     * backwards from the destinations first, so only the ports which could feed
+     * them are ever visited. A power supply connected to another one is only
+     * noticed if it happens on the way to the destinations.
+     *
+     * @param destinations A list of pairs containing the ID of the destination
+     *                     port and the required voltage level.
+     * @param truthTable   A map containing the truth table arguments.
+     * @return A map containing the ID of the destination port and a list of
+     *         passages to reach that port.
+     * @throws NoSuchDevice             if a device in the truth table does not
+     *                                  exist in the system
+     * @throws IllegalArgumentException if a device in the truth table is not a
+     *                                  switch
+     * @throws LackPowerSupplies        if there are no power supplies in the system
+     * @throws ChargePowerSupply        if a power supply feeding a destination is
+     *                                  connected to another power supply
+     */
+    public Map<String, List<Passage>> findUpstreamPassages(List<Pair<String, Integer>> destinations,
+            Map<String, Boolean> truthTable)
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        return findUpstreamPassagesFor(destinations, switchStates(truthTable));
+    }
+
+    public Map<String, List<Passage>> findUpstreamPassagesFor(List<Pair<String, Integer>> destinations,
+            SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        return toPassages(findUpstreamPassages(destinations, closedSwitches, LoopPolicy.KEEP_FIRST_FEED));
+    }
+
+    static Map<String, List<Passage>> toPassages(Map<String, List<CompactPassage>> compactPassages) {
+        Map<String, List<Passage>> res = new HashMap<>();
+        for (Map.Entry<String, List<CompactPassage>> entry : compactPassages.entrySet()) {
+            List<Passage> passages = new ArrayList<>(entry.getValue().size());
+            for (CompactPassage passage : entry.getValue()) {
+                passages.add(passage.toPassage());
+            }
+            res.put(entry.getKey(), passages);
+        }
+        return res;
+    }
+
+    Map<String, List<CompactPassage>> findUpstreamPassages(List<Pair<String, Integer>> destinations,
+            SwitchStateVector closedSwitches, LoopPolicy loopPolicy)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        checkSwitchStates(closedSwitches);
+        if (powerSupplyPorts.length == 0) {
+            throw new LackPowerSupplies();
+        }
+        // the ports which could feed a destination, numbered as they are met
+        IntIntMap coneIndices = new IntIntMap();
+        IntList cone = new IntList();
+        List<String> destinationIds = new ArrayList<>(destinations.size());
+        IntList destinationPorts = new IntList(destinations.size());
+        for (Pair<String, Integer> destination : destinations) {
+            String portId = Utils.genPortId(destination);
+            Integer port = portLookup.get(portId);
+            if (port == null) {
+                continue;
+            }
+            destinationIds.add(portId);
+            destinationPorts.add(port);
+            if (!coneIndices.containsKey(port)) {
+                coneIndices.put(port, cone.size());
+                cone.add(port);
+            }
+        }
+        for (int head = 0; head < cone.size(); head++) {
+            int port = cone.get(head);
+            // power flows both ways along an edge, but only into port from its
+            // sibling if the sibling conducts, and never from a dead end hanging
+            // off port
+            for (int slot = offsets.get(port); slot < offsets.get(port + 1); slot++) {
+                int feeder = neighbours.get(slot);
+                int anchor = anchors.get(feeder);
+                if (!coneIndices.containsKey(feeder) && anchor != port && anchor != FEEDS_NOTHING) {
+                    coneIndices.put(feeder, cone.size());
+                    cone.add(feeder);
+                }
+            }
+            int sibling = siblings[port];
+            if (sibling >= 0 && conducts(sibling, closedSwitches) && !coneIndices.containsKey(sibling)
+                    && anchors.get(sibling) != port && anchors.get(sibling) != FEEDS_NOTHING) {
+                coneIndices.put(sibling, cone.size());
+                cone.add(sibling);
+            }
+        }
+
+        Map<String, List<CompactPassage>> res = new HashMap<>();
+        // the parent of every port of the cone in the current tree, by cone index
+        int[] parents = new int[cone.size()];
+        IntList queue = new IntList();
+        for (int root : powerSupplyPorts) {
+            int rootIndex = coneIndices.get(root, -1);
+            if (rootIndex < 0) {
+                continue;
+            }
+            Arrays.fill(parents, UNREACHED);
+            parents[rootIndex] = -1;
+            queue.clear();
+            queue.add(root);
+            for (int head = 0; head < queue.size(); head++) {
+                int candidate = queue.get(head);
+                int candidateIndex = coneIndices.get(candidate, -1);
+                int end = offsets.get(candidate + 1);
+                int sibling = conducts(candidate, closedSwitches) ? siblings[candidate] : -1;
+                for (int slot = offsets.get(candidate); slot <= end; slot++) {
+                    int child;
+                    if (slot < end) {
+                        child = neighbours.get(slot);
+                    } else if (sibling >= 0) {
+                        child = sibling;
+                    } else {
+                        break;
+                    }
+                    int childIndex = coneIndices.get(child, -1);
+                    if (childIndex < 0) {
+                        continue;
+                    }
+                    if (parents[childIndex] != UNREACHED) {
+                        // only the loops within the cone are seen
+                        if (loopPolicy == LoopPolicy.REPORT && childIndex != parents[candidateIndex]) {
+                            throw new ClosedLoop(portDevices[root], portIds[child]);
+                        }
+                        continue;
+                    }
+                    if (portTypes[child] == TYPE_POWER_SUPPLY) {
+                        throw new ChargePowerSupply(portDevices[root], portDevices[child]);
+                    }
+                    parents[childIndex] = candidateIndex;
+                    queue.add(child);
+                }
+            }
+            for (int i = 0; i < destinationPorts.size(); i++) {
+                int destinationIndex = coneIndices.get(destinationPorts.get(i), -1);
+                if (parents[destinationIndex] == UNREACHED) {
+                    continue;
+                }
+                int depth = 0;
+                for (int p = destinationIndex; p >= 0; p = parents[p]) {
+                    depth++;
+                }
+                int[] ports = new int[depth];
+                for (int p = destinationIndex; p >= 0; p = parents[p]) {
+                    ports[--depth] = cone.get(p);
+                }
+                List<CompactPassage> passages = res.get(destinationIds.get(i));
+                if (passages == null) {
+                    passages = new ArrayList<>();
+                    res.put(destinationIds.get(i), passages);
+                }
+                passages.add(new CompactPassage(this, ports));
+            }
+        }
+        return res;
+    }
+
+    private static <T> Map<String, List<T>> collectPassages(List<Pair<String, Integer>> destinations,
+            List<PowerSupplySystemTree> forest, BiFunction<PowerSupplySystemTree, String, T> find) {
+        Map<String, List<T>> res = new HashMap<>();
+        for (Pair<String, Integer> port : destinations) {
+            String portId = Utils.genPortId(port);
+            for (PowerSupplySystemTree tree : forest) {
+                T passage = find.apply(tree, portId);
+                if (passage != null) {
+                    List<T> passages = res.get(portId);
+                    if (passages == null) {
+                        passages = new ArrayList<>();
+                        res.put(portId, passages);
+                    }
+                    passages.add(passage);
+                }
+            }
+        }
+        return res;
+    }
+}
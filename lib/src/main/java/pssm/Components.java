@@ -0,0 +1,158 @@
+package pssm;
+
+import java.util.Arrays;
+
+import pssm.exceptions.ChargePowerSupply;
+
+/**
+ * A union-find over the elements [0, size), merging the ones linked both ways
+ * into components, which are then numbered densely and fed by the power
+ * supplies along the arcs between them. Used by the indices, which merge the
+ * ports, or the nodes of their boundary graph, the same way.
+ */
+final class Components {
+    private final int[] parents;
+
+    private final int[] sizes;
+
+    private int numComponents = -1;
+
+    Components(int size) {
+        parents = new int[size];
+        sizes = new int[size];
+        for (int i = 0; i < size; i++) {
+            parents[i] = i;
+            sizes[i] = 1;
+        }
+    }
+
+    private int find(int p) {
+        while (parents[p] != p) {
+            // path halving
+            parents[p] = parents[parents[p]];
+            p = parents[p];
+        }
+        return p;
+    }
+
+    void union(int a, int b) {
+        a = find(a);
+        b = find(b);
+        if (a == b) {
+            return;
+        }
+        if (sizes[a] < sizes[b]) {
+            int t = a;
+            a = b;
+            b = t;
+        }
+        parents[b] = a;
+        sizes[a] += sizes[b];
+    }
+
+    /**
+     * Numbers the components densely, in the order of their first element. No
+     * union could follow.
+     *
+     * @return the component of every element
+     */
+    int[] label() {
+        int[] res = new int[parents.length];
+        numComponents = 0;
+        // reusing sizes for the labels
+        int[] labels = sizes;
+        Arrays.fill(labels, -1);
+        for (int i = 0; i < parents.length; i++) {
+            int root = find(i);
+            if (labels[root] < 0) {
+                labels[root] = numComponents++;
+            }
+            res[i] = labels[root];
+        }
+        return res;
+    }
+
+    /**
+     * @return the number of components, once labelled
+     */
+    int getNumComponents() {
+        return numComponents;
+    }
+
+    /**
+     * Follows every power supply from its component along the arcs, breadth
+     * first.
+     *
+     * @param graph          the graph of the power supplies
+     * @param rootComponents the component of every power supply, in the order
+     *                       of the power supply ports of the graph
+     * @param arcs           the arcs between components, as pairs
+     * @return the power supplies feeding every component, as their positions in
+     *         the power supply ports of the graph, in order, null if none does
+     * @throws ChargePowerSupply if two power supplies are in the same
+     *                           component, or one feeds the component of
+     *                           another
+     */
+    int[][] feed(CompiledGraph graph, int[] rootComponents, IntList arcs) throws ChargePowerSupply {
+        // the arcs, in compressed sparse row form
+        int[] arcOffsets = new int[numComponents + 1];
+        for (int i = 0; i < arcs.size(); i += 2) {
+            arcOffsets[arcs.get(i) + 1]++;
+        }
+        for (int c = 0; c < numComponents; c++) {
+            arcOffsets[c + 1] += arcOffsets[c];
+        }
+        int[] targets = new int[arcs.size() / 2];
+        int[] cursors = Arrays.copyOf(arcOffsets, numComponents);
+        for (int i = 0; i < arcs.size(); i += 2) {
+            targets[cursors[arcs.get(i)]++] = arcs.get(i + 1);
+        }
+
+        int[] roots = graph.powerSupplyPorts;
+        // the power supply of every component, if any
+        int[] componentRoots = new int[numComponents];
+        Arrays.fill(componentRoots, -1);
+        for (int t = 0; t < roots.length; t++) {
+            int component = rootComponents[t];
+            if (componentRoots[component] >= 0) {
+                throw new ChargePowerSupply(graph.portDevices[componentRoots[component]],
+                        graph.portDevices[roots[t]]);
+            }
+            componentRoots[component] = roots[t];
+        }
+
+        IntList[] fed = new IntList[numComponents];
+        // the last power supply to reach every component, plus one
+        int[] reachedBy = new int[numComponents];
+        IntList queue = new IntList();
+        for (int t = 0; t < roots.length; t++) {
+            queue.clear();
+            queue.add(rootComponents[t]);
+            reachedBy[rootComponents[t]] = t + 1;
+            for (int head = 0; head < queue.size(); head++) {
+                int component = queue.get(head);
+                if (componentRoots[component] >= 0 && componentRoots[component] != roots[t]) {
+                    throw new ChargePowerSupply(graph.portDevices[roots[t]],
+                            graph.portDevices[componentRoots[component]]);
+                }
+                if (fed[component] == null) {
+                    fed[component] = new IntList(1);
+                }
+                fed[component].add(t);
+                for (int a = arcOffsets[component]; a < arcOffsets[component + 1]; a++) {
+                    if (reachedBy[targets[a]] != t + 1) {
+                        reachedBy[targets[a]] = t + 1;
+                        queue.add(targets[a]);
+                    }
+                }
+            }
+        }
+        int[][] res = new int[numComponents][];
+        for (int c = 0; c < numComponents; c++) {
+            if (fed[c] != null) {
+                res[c] = fed[c].toArray();
+            }
+        }
+        return res;
+    }
+}
@@ -0,0 +1,68 @@
+package pssm;
+
+import java.util.Collections;
+import java.util.List;
+
+import pssm.devices.BaseDevice;
+
+/**
+ * A case of a {@link ContingencyAnalysis}: the devices and edges which failed
+ * together, and the loads left without any passage because of them.
+ */
+public final class Contingency {
+    private final List<BaseDevice> failedDevices;
+
+    private final List<Edge> failedEdges;
+
+    private final List<BaseDevice> lostLoads;
+
+    Contingency(List<BaseDevice> failedDevices, List<Edge> failedEdges, List<BaseDevice> lostLoads) {
+        this.failedDevices = Collections.unmodifiableList(failedDevices);
+        this.failedEdges = Collections.unmodifiableList(failedEdges);
+        this.lostLoads = Collections.unmodifiableList(lostLoads);
+    }
+
+    public List<BaseDevice> getFailedDevices() {
+        return failedDevices;
+    }
+
+    public List<Edge> getFailedEdges() {
+        return failedEdges;
+    }
+
+    /**
+     * @return the loads which are fed in the base case, but not in this one, in
+     *         the order they were added to the graph
+     */
+    public List<BaseDevice> getLostLoads() {
+        return lostLoads;
+    }
+
+    /**
+     * @return the number of failed devices and edges
+     */
+    public int getOrder() {
+        return failedDevices.size() + failedEdges.size();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("Contingency(");
+        String sep = "";
+        for (BaseDevice device : failedDevices) {
+            sb.append(sep).append(device.name);
+            sep = ", ";
+        }
+        for (Edge edge : failedEdges) {
+            sb.append(sep).append(edge.first.getId()).append('-').append(edge.second.getId());
+            sep = ", ";
+        }
+        sb.append(" -> ");
+        sep = "";
+        for (BaseDevice load : lostLoads) {
+            sb.append(sep).append(load.name);
+            sep = ", ";
+        }
+        return sb.append(')').toString();
+    }
+}
@@ -0,0 +1,593 @@
+package pssm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import pssm.devices.BaseDevice;
+import pssm.devices.Load;
+import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.LackPowerSupplies;
+
+/**
+ * Enumerates the failures of up to k devices or edges of a graph, and finds the
+ * loads each of them leaves without any passage.
+ *
+ * A failed switch, DcDc or diode no longer passes power between its ports,
+ * which still connect their edges, so a failed switch is stuck open. Any other
+ * failed device, such as a faulted bus or a lost power supply, takes its ports
+ * out of the graph. Loads themselves never fail.
+ *
+ * Each case is evaluated from the one it extends: a failure only cuts the part
+ * of the trees below it, which is then fed again some other way if there's
+ * one, and the changes are rolled back afterwards. A device or edge without an
+ * energized port can't make any difference, so the cases containing one are
+ * not evaluated, they lose the same loads as the smaller case without it.
+ *
+ * Where the switches close a loop the first feed is kept, whatever the loop
+ * policy of the graph. The analysis is bound to the graph as it is at the time
+ * of construction.
+ */
+public final class ContingencyAnalysis {
+    // link of a port that is not in the tree
+    private static final int UNREACHED = -1;
+    // link of the root of the tree
+    private static final int ROOT = -2;
+    // link of a port fed by the other port of its device
+    private static final int VIA_SIBLING = -3;
+
+    private static final byte EDGE = 0;
+    // a device which no longer passes power between its ports
+    private static final byte OPEN_DEVICE = 1;
+    // a device whose ports are out of the graph
+    private static final byte REMOVED_DEVICE = 2;
+
+    private final CompiledGraph graph;
+
+    private final SwitchStateVector closedSwitches;
+
+    private final List<Edge> edges;
+
+    // the elements which could fail, the devices in the order they were added,
+    // then the edges
+    private final byte[] elementKinds;
+    private final BaseDevice[] elementDevices;
+    // the ports of each device, null for an edge
+    private final int[][] elementPorts;
+    // the id of each edge, -1 for a device
+    private final int[] elementEdges;
+    // if a device passes power between its ports when it works
+    private final boolean[] elementConducts;
+
+    // an adjacency slot of each edge
+    private final int[] edgeSlots;
+
+    private final State base;
+
+    public ContingencyAnalysis(PowerSupplySystemGraph graph) throws LackPowerSupplies, ChargePowerSupply {
+        this(graph, graph.switchStates(null));
+    }
+
+    /**
+     * Creates the base case of the analysis.
+     *
+     * @param graph          the graph
+     * @param closedSwitches the state of every switch in the base case
+     * @throws IllegalArgumentException if the vector is not of the size of the
+     *                                  switches of the graph
+     * @throws LackPowerSupplies        if there are no power supplies in the system
+     * @throws ChargePowerSupply        if a power supply is connected to another
+     *                                  power supply in the base case
+     */
+    public ContingencyAnalysis(PowerSupplySystemGraph graph, SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        this.graph = graph.compile();
+        this.graph.checkSwitchStates(closedSwitches);
+        this.closedSwitches = closedSwitches.copy();
+        this.edges = new ArrayList<>(graph.getEdges());
+        if (this.graph.powerSupplyPorts.length == 0) {
+            throw new LackPowerSupplies();
+        }
+
+        List<BaseDevice> devices = new ArrayList<>();
+        for (BaseDevice device : graph.getDevices().values()) {
+            if (!(device instanceof Load) && device.getNumPorts() > 0) {
+                devices.add(device);
+            }
+        }
+        int numElements = devices.size() + edges.size();
+        elementKinds = new byte[numElements];
+        elementDevices = new BaseDevice[numElements];
+        elementPorts = new int[numElements][];
+        elementEdges = new int[numElements];
+        elementConducts = new boolean[numElements];
+        for (int i = 0; i < devices.size(); i++) {
+            BaseDevice device = devices.get(i);
+            int[] ports = new int[device.getNumPorts()];
+            for (int j = 0; j < ports.length; j++) {
+                ports[j] = this.graph.indexOf(Utils.genPortId(device.name, j));
+            }
+            switch (this.graph.portTypes[ports[0]]) {
+                case CompiledGraph.TYPE_SWITCH:
+                case CompiledGraph.TYPE_DC_DC:
+                case CompiledGraph.TYPE_DIODE:
+                    elementKinds[i] = OPEN_DEVICE;
+                    break;
+                default:
+                    elementKinds[i] = REMOVED_DEVICE;
+            }
+            for (int port : ports) {
+                elementConducts[i] |= this.graph.conducts(port, this.closedSwitches);
+            }
+            elementDevices[i] = device;
+            elementPorts[i] = ports;
+            elementEdges[i] = -1;
+        }
+        for (int e = 0; e < edges.size(); e++) {
+            elementKinds[devices.size() + e] = EDGE;
+            elementEdges[devices.size() + e] = e;
+        }
+
+        edgeSlots = new int[edges.size()];
+        Arrays.fill(edgeSlots, -1);
+        for (int slot = 0; slot < this.graph.neighbours.limit(); slot++) {
+            int edge = this.graph.adjacencyEdges.get(slot);
+            if (edgeSlots[edge] < 0) {
+                edgeSlots[edge] = slot;
+            }
+        }
+
+        base = new State();
+    }
+
+    /**
+     * @return the number of devices and edges which could fail
+     */
+    public int getNumElements() {
+        return elementKinds.length;
+    }
+
+    /**
+     * Evaluates the failures of every set of up to k devices or edges, one
+     * case after another.
+     *
+     * @param k the largest number of elements failing together
+     * @return the cases losing at least one load, smaller cases first among
+     *         those sharing a prefix, the elements of a case in the order of
+     *         the devices, then of the edges
+     */
+    public List<Contingency> analyze(int k) {
+        checkOrder(k);
+        int[] firsts = relevantElements();
+        List<List<Contingency>> results = new ArrayList<>(firsts.length);
+        State state = new State(base);
+        for (int first : firsts) {
+            results.add(analyze(state, first, k));
+        }
+        return concat(results);
+    }
+
+    /**
+     * Like {@link #analyze(int)}, but the cases are evaluated concurrently on
+     * the given pool, split by their first element. The result is the same.
+     *
+     * @param k    the largest number of elements failing together
+     * @param pool the pool to evaluate the cases on
+     */
+    public List<Contingency> analyze(int k, ForkJoinPool pool) {
+        checkOrder(k);
+        int[] firsts = relevantElements();
+        List<List<Contingency>> results = new ArrayList<>(firsts.length);
+        for (int i = 0; i < firsts.length; i++) {
+            results.add(null);
+        }
+        // a few chunks per worker, each of them copies the base case once
+        int grain = Math.max(1, firsts.length / (pool.getParallelism() * 4));
+        pool.invoke(new Analyze(firsts, k, results, grain, 0, firsts.length));
+        return concat(results);
+    }
+
+    private final class Analyze extends RecursiveAction {
+        private final int[] firsts;
+        private final int k;
+        private final List<List<Contingency>> results;
+        private final int grain;
+        private final int from;
+        private final int to;
+
+        Analyze(int[] firsts, int k, List<List<Contingency>> results, int grain, int from, int to) {
+            this.firsts = firsts;
+            this.k = k;
+            this.results = results;
+            this.grain = grain;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new Analyze(firsts, k, results, grain, from, middle),
+                        new Analyze(firsts, k, results, grain, middle, to));
+                return;
+            }
+            State state = new State(base);
+            for (int i = from; i < to; i++) {
+                // each task sets its own slots only, joining the tasks makes
+                // them visible
+                results.set(i, analyze(state, firsts[i], k));
+            }
+        }
+    }
+
+    private static void checkOrder(int k) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+    }
+
+    private int[] relevantElements() {
+        IntList res = new IntList();
+        for (int x = 0; x < elementKinds.length; x++) {
+            if (base.isRelevant(x)) {
+                res.add(x);
+            }
+        }
+        return res.toArray();
+    }
+
+    private static List<Contingency> concat(List<List<Contingency>> results) {
+        List<Contingency> res = new ArrayList<>();
+        for (List<Contingency> contingencies : results) {
+            res.addAll(contingencies);
+        }
+        return res;
+    }
+
+    /**
+     * Evaluates the cases starting with the given element.
+     */
+    private List<Contingency> analyze(State state, int first, int k) {
+        List<Contingency> res = new ArrayList<>();
+        int[] path = new int[k];
+        path[0] = first;
+        int mark = state.fail(first);
+        search(state, path, 0, res);
+        state.restore(first, mark);
+        return res;
+    }
+
+    /**
+     * Reports the case of path[0..depth], then extends it with every later
+     * element which still makes a difference.
+     */
+    private void search(State state, int[] path, int depth, List<Contingency> res) {
+        Contingency contingency = state.toContingency(path, depth + 1);
+        if (contingency != null) {
+            res.add(contingency);
+        }
+        if (depth + 1 == path.length) {
+            return;
+        }
+        for (int x = path[depth] + 1; x < elementKinds.length; x++) {
+            if (!state.isRelevant(x)) {
+                continue;
+            }
+            path[depth + 1] = x;
+            int mark = state.fail(x);
+            search(state, path, depth + 1, res);
+            state.restore(x, mark);
+        }
+    }
+
+    /**
+     * The trees of every power supply under some failures, as the link of every
+     * port to its parent, like {@link EnergizedTopology}.
+     */
+    private final class State {
+        final int[][] links;
+        // the number of trees reaching each port
+        final int[] counts;
+        final boolean[] deadPorts;
+        final boolean[] openPorts;
+        final boolean[] deadEdges;
+
+        // every change of a link, so it could be rolled back
+        final IntList changedTrees = new IntList();
+        final IntList changedPorts = new IntList();
+        final IntList changedLinks = new IntList();
+
+        final IntList removed = new IntList();
+        final IntList seeds = new IntList();
+        final IntList queue = new IntList();
+        final int[] stamps;
+        int stamp;
+
+        State() throws ChargePowerSupply {
+            int[] roots = graph.powerSupplyPorts;
+            links = new int[roots.length][];
+            counts = new int[graph.numPorts];
+            deadPorts = new boolean[graph.numPorts];
+            openPorts = new boolean[graph.numPorts];
+            deadEdges = new boolean[edges.size()];
+            stamps = new int[graph.numPorts];
+            for (int t = 0; t < roots.length; t++) {
+                links[t] = new int[graph.numPorts];
+                Arrays.fill(links[t], UNREACHED);
+                setLink(t, roots[t], ROOT);
+                seeds.clear();
+                seeds.add(roots[t]);
+                expand(t);
+            }
+            changedTrees.clear();
+            changedPorts.clear();
+            changedLinks.clear();
+        }
+
+        State(State other) {
+            links = new int[other.links.length][];
+            for (int t = 0; t < links.length; t++) {
+                links[t] = other.links[t].clone();
+            }
+            counts = other.counts.clone();
+            deadPorts = other.deadPorts.clone();
+            openPorts = other.openPorts.clone();
+            deadEdges = other.deadEdges.clone();
+            stamps = new int[graph.numPorts];
+        }
+
+        private void setLink(int t, int port, int link) {
+            int old = links[t][port];
+            changedTrees.add(t);
+            changedPorts.add(port);
+            changedLinks.add(old);
+            if (old == UNREACHED) {
+                counts[port]++;
+            } else if (link == UNREACHED) {
+                counts[port]--;
+            }
+            links[t][port] = link;
+        }
+
+        boolean isRelevant(int x) {
+            if (elementKinds[x] == EDGE) {
+                int slot = edgeSlots[elementEdges[x]];
+                return counts[graph.neighbours.get(slot)] > 0
+                        || counts[graph.neighbours.get(graph.twinSlots.get(slot))] > 0;
+            }
+            if (elementKinds[x] == OPEN_DEVICE && !elementConducts[x]) {
+                return false;
+            }
+            for (int port : elementPorts[x]) {
+                if (counts[port] > 0) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Fails the given element and updates the trees.
+         *
+         * @return the mark to roll back to
+         */
+        int fail(int x) {
+            int mark = changedPorts.size();
+            switch (elementKinds[x]) {
+                case EDGE: {
+                    int edge = elementEdges[x];
+                    deadEdges[edge] = true;
+                    int slot = edgeSlots[edge];
+                    int twin = graph.twinSlots.get(slot);
+                    int u = graph.neighbours.get(twin);
+                    int v = graph.neighbours.get(slot);
+                    for (int t = 0; t < links.length; t++) {
+                        if (links[t][u] == slot) {
+                            cut(t, u);
+                        } else if (links[t][v] == twin) {
+                            cut(t, v);
+                        }
+                    }
+                    break;
+                }
+                case OPEN_DEVICE:
+                    for (int port : elementPorts[x]) {
+                        openPorts[port] = true;
+                    }
+                    for (int t = 0; t < links.length; t++) {
+                        for (int port : elementPorts[x]) {
+                            if (links[t][port] == VIA_SIBLING) {
+                                cut(t, port);
+                            }
+                        }
+                    }
+                    break;
+                default:
+                    for (int port : elementPorts[x]) {
+                        deadPorts[port] = true;
+                    }
+                    for (int t = 0; t < links.length; t++) {
+                        for (int port : elementPorts[x]) {
+                            cut(t, port);
+                        }
+                    }
+            }
+            return mark;
+        }
+
+        void restore(int x, int mark) {
+            for (int i = changedPorts.size() - 1; i >= mark; i--) {
+                int t = changedTrees.get(i);
+                int port = changedPorts.get(i);
+                int old = changedLinks.get(i);
+                int current = links[t][port];
+                if (current == UNREACHED && old != UNREACHED) {
+                    counts[port]++;
+                } else if (current != UNREACHED && old == UNREACHED) {
+                    counts[port]--;
+                }
+                links[t][port] = old;
+            }
+            changedTrees.truncate(mark);
+            changedPorts.truncate(mark);
+            changedLinks.truncate(mark);
+            if (elementKinds[x] == EDGE) {
+                deadEdges[elementEdges[x]] = false;
+            } else {
+                for (int port : elementPorts[x]) {
+                    openPorts[port] = false;
+                    deadPorts[port] = false;
+                }
+            }
+        }
+
+        /**
+         * Cuts the subtree of the given port off tree {@code t}, then feeds
+         * what could still be fed some other way.
+         */
+        private void cut(int t, int top) {
+            int[] link = links[t];
+            if (link[top] == UNREACHED) {
+                return;
+            }
+            removed.clear();
+            removed.add(top);
+            // collect the subtree first, unlinking it would hide its children
+            for (int i = 0; i < removed.size(); i++) {
+                int port = removed.get(i);
+                for (int slot = graph.offsets.get(port); slot < graph.offsets.get(port + 1); slot++) {
+                    if (link[graph.neighbours.get(slot)] == graph.twinSlots.get(slot)) {
+                        removed.add(graph.neighbours.get(slot));
+                    }
+                }
+                int sibling = graph.siblings[port];
+                if (sibling >= 0 && link[sibling] == VIA_SIBLING) {
+                    removed.add(sibling);
+                }
+            }
+            for (int i = 0; i < removed.size(); i++) {
+                setLink(t, removed.get(i), UNREACHED);
+            }
+            // each neighbour left in the tree is expanded once
+            stamp++;
+            seeds.clear();
+            for (int i = 0; i < removed.size(); i++) {
+                int port = removed.get(i);
+                if (deadPorts[port]) {
+                    continue;
+                }
+                for (int slot = graph.offsets.get(port); slot < graph.offsets.get(port + 1); slot++) {
+                    int neighbour = graph.neighbours.get(slot);
+                    if (!deadEdges[graph.adjacencyEdges.get(slot)] && link[neighbour] != UNREACHED
+                            && stamps[neighbour] != stamp) {
+                        stamps[neighbour] = stamp;
+                        seeds.add(neighbour);
+                    }
+                }
+                int sibling = graph.siblings[port];
+                if (sibling >= 0 && link[sibling] != UNREACHED && stamps[sibling] != stamp) {
+                    stamps[sibling] = stamp;
+                    seeds.add(sibling);
+                }
+            }
+            expand(t);
+        }
+
+        /**
+         * Breadth first expands tree {@code t} from the seeds, which are in the
+         * tree already.
+         */
+        private void expand(int t) throws ChargePowerSupply {
+            int[] link = links[t];
+            queue.clear();
+            for (int i = 0; i < seeds.size(); i++) {
+                queue.add(seeds.get(i));
+            }
+            for (int head = 0; head < queue.size(); head++) {
+                int candidate = queue.get(head);
+                int end = graph.offsets.get(candidate + 1);
+                for (int slot = graph.offsets.get(candidate); slot < end; slot++) {
+                    int child = graph.neighbours.get(slot);
+                    if (link[child] != UNREACHED || deadPorts[child] || deadEdges[graph.adjacencyEdges.get(slot)]) {
+                        continue;
+                    }
+                    // only met while building the base case, failures never
+                    // connect anything
+                    if (graph.portTypes[child] == CompiledGraph.TYPE_POWER_SUPPLY) {
+                        throw new ChargePowerSupply(graph.portDevices[graph.powerSupplyPorts[t]],
+                                graph.portDevices[child]);
+                    }
+                    setLink(t, child, graph.twinSlots.get(slot));
+                    queue.add(child);
+                }
+                int sibling = graph.siblings[candidate];
+                if (sibling >= 0 && link[sibling] == UNREACHED && !deadPorts[sibling] && !openPorts[candidate]
+                        && graph.conducts(candidate, closedSwitches)) {
+                    setLink(t, sibling, VIA_SIBLING);
+                    queue.add(sibling);
+                }
+            }
+        }
+
+        /**
+         * @return the case of the first {@code size} elements of the path, or
+         *         null if it loses no load
+         */
+        Contingency toContingency(int[] path, int size) {
+            // the ports which lost their last feed are among the changed ones
+            stamp++;
+            IntList lost = new IntList();
+            for (int i = 0; i < changedPorts.size(); i++) {
+                int port = changedPorts.get(i);
+                if (graph.portTypes[port] != CompiledGraph.TYPE_LOAD || counts[port] != 0) {
+                    continue;
+                }
+                int firstPort = port - graph.portIndices[port];
+                if (stamps[firstPort] == stamp) {
+                    continue;
+                }
+                stamps[firstPort] = stamp;
+                if (isLost(firstPort, graph.portDevices[port].getNumPorts())) {
+                    lost.add(firstPort);
+                }
+            }
+            if (lost.size() == 0) {
+                return null;
+            }
+            int[] lostPorts = lost.toArray();
+            Arrays.sort(lostPorts);
+            List<BaseDevice> lostLoads = new ArrayList<>(lostPorts.length);
+            for (int port : lostPorts) {
+                lostLoads.add(graph.portDevices[port]);
+            }
+            List<BaseDevice> failedDevices = new ArrayList<>();
+            List<Edge> failedEdges = new ArrayList<>();
+            for (int i = 0; i < size; i++) {
+                if (elementKinds[path[i]] == EDGE) {
+                    failedEdges.add(edges.get(elementEdges[path[i]]));
+                } else {
+                    failedDevices.add(elementDevices[path[i]]);
+                }
+            }
+            return new Contingency(failedDevices, failedEdges, lostLoads);
+        }
+
+        /**
+         * Tells if a load, fed in the base case, has no port fed any more. The
+         * ports of a device are numbered consecutively.
+         */
+        private boolean isLost(int firstPort, int numPorts) {
+            boolean wasFed = false;
+            for (int port = firstPort; port < firstPort + numPorts; port++) {
+                if (counts[port] > 0) {
+                    return false;
+                }
+                wasFed |= base.counts[port] > 0;
+            }
+            return wasFed;
+        }
+    }
+}
@@ -0,0 +1,381 @@
+package pssm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.util.Pair;
+
+import pssm.devices.BaseDevice;
+import pssm.exceptions.InvalidPort;
+import pssm.exceptions.LackPowerSupplies;
+import pssm.exceptions.NoSuchDevice;
+
+/**
+ * The devices every passage to a port goes through under a switch
+ * configuration, its single points of failure, see
+ * {@link #criticalDevices(String)}.
+ *
+ * The ports make a directed graph: an edge conducts both ways, and a port
+ * conducts to the other port of its device as in the traversals. A virtual
+ * root feeds every power supply, and nothing but the root feeds a power
+ * supply. The index keeps the dominator tree of that graph, the immediate
+ * dominator of a port being the last port before it on every passage from a
+ * power supply. A device is critical for a port if one of its ports
+ * dominates the port.
+ *
+ * Opening or closing a switch only recomputes the dominators of the ports
+ * reachable from the switch, and nothing at all if no power supply reaches
+ * it. A switch to a dead end, such as the switch of a load, only reaches the
+ * dead end. The topology is the one of the graph at the time of construction, later
+ * changes of the graph are not seen. This class is not thread safe.
+ */
+public final class CriticalDeviceIndex {
+    // immediate dominator of a port no power supply reaches
+    private static final int UNREACHED = -1;
+
+    private final CompiledGraph graph;
+
+    private final SwitchStateVector closedSwitches;
+
+    // the virtual root, numbered after the ports
+    private final int root;
+
+    // the immediate dominator of every port, the one of the root is the root
+    private final int[] idoms;
+
+    public CriticalDeviceIndex(PowerSupplySystemGraph graph) {
+        this(graph, (Map<String, Boolean>) null);
+    }
+
+    /**
+     * Indexes the given graph under the given truth table.
+     *
+     * @param graph         the graph
+     * @param truthTableArg the truth table, switches absent from it keep their
+     *                      own state
+     * @throws NoSuchDevice             if a device in the truth table does not
+     *                                  exist in the system
+     * @throws IllegalArgumentException if a device in the truth table is not a
+     *                                  switch
+     * @throws LackPowerSupplies        if there are no power supplies in the system
+     */
+    public CriticalDeviceIndex(PowerSupplySystemGraph graph, Map<String, Boolean> truthTableArg)
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies {
+        this(graph, graph.compile().switchStates(truthTableArg));
+    }
+
+    /**
+     * Indexes the given graph under the given switch states. The vector is
+     * copied.
+     *
+     * @throws IllegalArgumentException if the vector is not of the size of the
+     *                                  switches of the graph
+     */
+    public CriticalDeviceIndex(PowerSupplySystemGraph graph, SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies {
+        this.graph = graph.compile();
+        this.graph.checkSwitchStates(closedSwitches);
+        if (this.graph.powerSupplyPorts.length == 0) {
+            throw new LackPowerSupplies();
+        }
+        this.closedSwitches = closedSwitches.copy();
+        root = this.graph.numPorts;
+        idoms = new int[root + 1];
+        Arrays.fill(idoms, UNREACHED);
+        idoms[root] = root;
+        IntList ports = new IntList(root);
+        for (int p = 0; p < root; p++) {
+            ports.add(p);
+        }
+        long[] inRegion = new long[(root + 63) >>> 6];
+        Arrays.fill(inRegion, -1L);
+        recompute(ports, inRegion);
+    }
+
+    public boolean isClosed(String switchName) throws NoSuchDevice, IllegalArgumentException {
+        return closedSwitches.get(graph.switchIndexOf(switchName));
+    }
+
+    /**
+     * @return a copy of the current switch states
+     */
+    public SwitchStateVector getSwitchStates() {
+        return closedSwitches.copy();
+    }
+
+    public void close(String switchName) throws NoSuchDevice, IllegalArgumentException {
+        setSwitch(switchName, true);
+    }
+
+    public void open(String switchName) throws NoSuchDevice, IllegalArgumentException {
+        setSwitch(switchName, false);
+    }
+
+    /**
+     * Opens or closes a switch and updates the dominators of the ports
+     * reachable from it, whether through the switch or not. The dominators of
+     * the other ports can't change, as no passage to them goes near the
+     * switch.
+     *
+     * @param switchName the name of the switch
+     * @param closed     the new state of the switch
+     * @throws NoSuchDevice             if there's no such device in the system
+     * @throws IllegalArgumentException if the device is not a switch
+     */
+    public void setSwitch(String switchName, boolean closed) throws NoSuchDevice, IllegalArgumentException {
+        int switchIndex = graph.switchIndexOf(switchName);
+        if (closedSwitches.get(switchIndex) == closed) {
+            return;
+        }
+        int first = graph.switchPorts[switchIndex];
+        int second = graph.siblings[first];
+        if (idoms[first] == UNREACHED && idoms[second] == UNREACHED) {
+            // the switch only links ports no power supply reaches, before and
+            // after
+            closedSwitches.set(switchIndex, closed);
+            return;
+        }
+        // the ports reachable with the switch closed cover the ones reachable
+        // before and after
+        closedSwitches.set(switchIndex, true);
+        long[] inRegion = new long[(root + 63) >>> 6];
+        IntList region = new IntList();
+        region.add(first);
+        inRegion[first >>> 6] |= 1L << first;
+        region.add(second);
+        inRegion[second >>> 6] |= 1L << second;
+        for (int head = 0; head < region.size(); head++) {
+            int port = region.get(head);
+            int end = graph.offsets.get(port + 1);
+            int sibling = graph.conducts(port, closedSwitches) ? graph.siblings[port] : -1;
+            for (int slot = graph.offsets.get(port); slot <= end; slot++) {
+                int child;
+                if (slot < end) {
+                    child = graph.neighbours.get(slot);
+                } else if (sibling >= 0) {
+                    child = sibling;
+                } else {
+                    break;
+                }
+                if ((inRegion[child >>> 6] & (1L << child)) == 0 && feeds(port, child)) {
+                    inRegion[child >>> 6] |= 1L << child;
+                    region.add(child);
+                }
+            }
+        }
+        closedSwitches.set(switchIndex, closed);
+        recompute(region, inRegion);
+    }
+
+    /**
+     * Tells if a passage could go from a port to another one linked to it. A
+     * power supply is never fed, and a dead end never feeds its anchor, see
+     * {@link CompiledGraph#findAnchors()}, which keeps the changes of a switch
+     * off the ports above it.
+     */
+    private boolean feeds(int port, int child) {
+        return graph.portTypes[child] != CompiledGraph.TYPE_POWER_SUPPLY && graph.anchors.get(port) != child;
+    }
+
+    /**
+     * Recomputes the immediate dominators of the ports of the given region,
+     * which must hold every port reachable from one of its ports. No passage
+     * to a port outside the region goes through the region, so the dominator
+     * tree outside the region is still right, and stands in for the ports
+     * outside: the local graph is made of the region, the ports the region is
+     * entered from, and their dominators linked by the tree. The dominators of
+     * the local graph are those of Cooper, Harvey and Kennedy, "A Simple, Fast
+     * Dominance Algorithm".
+     */
+    private void recompute(IntList region, long[] inRegion) {
+        // the root first, then the region, then the ports outside as they are
+        // met
+        IntIntMap locals = new IntIntMap(region.size() + 1);
+        IntList nodes = new IntList(region.size() + 1);
+        locals.put(root, 0);
+        nodes.add(root);
+        for (int i = 0; i < region.size(); i++) {
+            locals.put(region.get(i), nodes.size());
+            nodes.add(region.get(i));
+        }
+        int regionEnd = nodes.size();
+        IntList froms = new IntList();
+        IntList tos = new IntList();
+        for (int to = 1; to < regionEnd; to++) {
+            int port = nodes.get(to);
+            if (graph.portTypes[port] == CompiledGraph.TYPE_POWER_SUPPLY) {
+                froms.add(0);
+                tos.add(to);
+                continue;
+            }
+            int end = graph.offsets.get(port + 1);
+            int sibling = graph.siblings[port];
+            if (sibling >= 0 && !graph.conducts(sibling, closedSwitches)) {
+                sibling = -1;
+            }
+            for (int slot = graph.offsets.get(port); slot <= end; slot++) {
+                int feeder;
+                if (slot < end) {
+                    feeder = graph.neighbours.get(slot);
+                } else if (sibling >= 0) {
+                    feeder = sibling;
+                } else {
+                    break;
+                }
+                if (!feeds(feeder, port)) {
+                    continue;
+                }
+                boolean inside = (inRegion[feeder >>> 6] & (1L << feeder)) != 0;
+                if (!inside && idoms[feeder] == UNREACHED) {
+                    continue;
+                }
+                if (!inside && !locals.containsKey(feeder)) {
+                    // bring in the feeder and the dominators it's missing,
+                    // linked as in the tree
+                    int start = nodes.size();
+                    for (int p = feeder; !locals.containsKey(p); p = idoms[p]) {
+                        locals.put(p, nodes.size());
+                        nodes.add(p);
+                    }
+                    for (int i = start; i < nodes.size(); i++) {
+                        froms.add(locals.get(idoms[nodes.get(i)], -1));
+                        tos.add(i);
+                    }
+                }
+                froms.add(locals.get(feeder, -1));
+                tos.add(to);
+            }
+        }
+
+        int n = nodes.size();
+        int[] successorOffsets = new int[n + 1];
+        int[] predecessorOffsets = new int[n + 1];
+        for (int a = 0; a < froms.size(); a++) {
+            successorOffsets[froms.get(a) + 1]++;
+            predecessorOffsets[tos.get(a) + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            successorOffsets[i + 1] += successorOffsets[i];
+            predecessorOffsets[i + 1] += predecessorOffsets[i];
+        }
+        int[] successors = new int[froms.size()];
+        int[] predecessors = new int[froms.size()];
+        int[] successorCursors = Arrays.copyOf(successorOffsets, n);
+        int[] predecessorCursors = Arrays.copyOf(predecessorOffsets, n);
+        for (int a = 0; a < froms.size(); a++) {
+            successors[successorCursors[froms.get(a)]++] = tos.get(a);
+            predecessors[predecessorCursors[tos.get(a)]++] = froms.get(a);
+        }
+
+        // depth first from the root, numbering the nodes in postorder
+        int[] postorder = new int[n];
+        Arrays.fill(postorder, -1);
+        IntList order = new IntList(n);
+        int[] stack = new int[n];
+        int[] next = Arrays.copyOf(successorOffsets, n);
+        boolean[] seen = new boolean[n];
+        int depth = 0;
+        stack[depth++] = 0;
+        seen[0] = true;
+        while (depth > 0) {
+            int node = stack[depth - 1];
+            if (next[node] < successorOffsets[node + 1]) {
+                int successor = successors[next[node]++];
+                if (!seen[successor]) {
+                    seen[successor] = true;
+                    stack[depth++] = successor;
+                }
+            } else {
+                depth--;
+                postorder[node] = order.size();
+                order.add(node);
+            }
+        }
+
+        int[] localIdoms = new int[n];
+        Arrays.fill(localIdoms, UNREACHED);
+        localIdoms[0] = 0;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            // in reverse postorder, skipping the root
+            for (int i = order.size() - 2; i >= 0; i--) {
+                int node = order.get(i);
+                int idom = UNREACHED;
+                for (int a = predecessorOffsets[node]; a < predecessorOffsets[node + 1]; a++) {
+                    int predecessor = predecessors[a];
+                    if (localIdoms[predecessor] == UNREACHED) {
+                        continue;
+                    }
+                    idom = idom == UNREACHED ? predecessor
+                            : intersect(predecessor, idom, localIdoms, postorder);
+                }
+                if (localIdoms[node] != idom) {
+                    localIdoms[node] = idom;
+                    changed = true;
+                }
+            }
+        }
+
+        for (int i = 1; i < regionEnd; i++) {
+            idoms[nodes.get(i)] = localIdoms[i] == UNREACHED ? UNREACHED : nodes.get(localIdoms[i]);
+        }
+    }
+
+    private static int intersect(int a, int b, int[] idoms, int[] postorder) {
+        while (a != b) {
+            while (postorder[a] < postorder[b]) {
+                a = idoms[a];
+            }
+            while (postorder[b] < postorder[a]) {
+                b = idoms[b];
+            }
+        }
+        return a;
+    }
+
+    /**
+     * @param portId the id of the port
+     * @return if a power supply reaches the port
+     * @throws InvalidPort if there's no such port in the graph
+     */
+    public boolean isFed(String portId) throws InvalidPort {
+        return idoms[graph.indexOf(portId)] != UNREACHED;
+    }
+
+    public List<BaseDevice> criticalDevices(Pair<String, Integer> destination) throws InvalidPort {
+        return criticalDevices(Utils.genPortId(destination));
+    }
+
+    /**
+     * Returns the devices every passage to the given port goes through, but
+     * the device of the port itself. A power supply is one of them if it's
+     * the only one feeding the port. The cost is proportional to the depth of
+     * the port in the dominator tree.
+     *
+     * @param portId the id of the port
+     * @return the devices, from the power supply side down to the port, or an
+     *         empty list if no power supply reaches the port, see
+     *         {@link #isFed(String)}
+     * @throws InvalidPort if there's no such port in the graph
+     */
+    public List<BaseDevice> criticalDevices(String portId) throws InvalidPort {
+        int port = graph.indexOf(portId);
+        if (idoms[port] == UNREACHED) {
+            return Collections.emptyList();
+        }
+        List<BaseDevice> res = new ArrayList<>();
+        for (int p = idoms[port]; p != root; p = idoms[p]) {
+            BaseDevice device = graph.portDevices[p];
+            // both ports of a device could dominate the port
+            if (device != graph.portDevices[port] && !res.contains(device)) {
+                res.add(device);
+            }
+        }
+        Collections.reverse(res);
+        return res;
+    }
+}
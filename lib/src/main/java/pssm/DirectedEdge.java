@@ -19,9 +19,24 @@ public final class DirectedEdge {
         return extras;
     }
 
+    private final int edgeId;
+
+    /**
+     * @return the id of the edge in the graph, see {@link EdgeAttributes}, or
+     *         -1 if the edge is not one of a graph
+     */
+    public int getEdgeId() {
+        return edgeId;
+    }
+
     public DirectedEdge(DirectedPort from, DirectedPort to, Object extras) {
+        this(from, to, extras, -1);
+    }
+
+    DirectedEdge(DirectedPort from, DirectedPort to, Object extras, int edgeId) {
         this.from = from;
         this.to = to;
         this.extras = extras;
+        this.edgeId = edgeId;
     }
 }
\ No newline at end of file
@@ -10,6 +10,10 @@ public final class DirectedPort {
     public final int portIndex;
     public final List<DirectedPort> children;
     public final List<DirectedEdge> edges;
+    // dense index of the port in the compiled graph, or -1
+    final int ordinal;
+    // built on first use, unless given by the compiled graph
+    private String id;
 
     private DirectedPort parent;
 
@@ -22,13 +26,22 @@ public final class DirectedPort {
     }
 
     public DirectedPort(BaseDevice device, int portIndex) {
+        this(device, portIndex, -1, null);
+    }
+
+    DirectedPort(BaseDevice device, int portIndex, int ordinal, String id) {
         this.device = device;
         this.portIndex = portIndex;
+        this.ordinal = ordinal;
+        this.id = id;
         this.children = new ArrayList<>();
         this.edges = new ArrayList<>();
     }
 
     public String getId() {
-        return Utils.genPortId(device.name, portIndex);
+        if (id == null) {
+            id = Utils.genPortId(device.name, portIndex);
+        }
+        return id;
     }
 }
\ No newline at end of file
@@ -0,0 +1,175 @@
+package pssm;
+
+import java.util.Arrays;
+
+/**
+ * The values of the attributes of the edges of a graph, as declared by its
+ * {@link EdgeSchema}, one primitive array per column indexed by the id of the
+ * edge, so they are read without boxing nor casting.
+ *
+ * The id of an edge is its position in {@link PowerSupplySystemGraph#getEdges()},
+ * the edge added last has the id {@code getEdges().size() - 1}, and it's also
+ * the index of the edge in the {@link CompiledGraph}. An edge gets the default
+ * values of the columns when it's added. Changing a value is not a change of
+ * the topology, the compiled graph and the cached forests are kept.
+ *
+ * The columns come on top of the extras of the edges, they don't replace them:
+ * an edge still holds its extras reference in {@link Edge} and in the
+ * adjacency lists of both its ports, null or not, so a graph takes 8 bytes
+ * more per edge and column of doubles, and 4 per column of ints. The columns
+ * spare the boxing and the casting of the values, not memory.
+ */
+public final class EdgeAttributes {
+    private final EdgeSchema schema;
+
+    private final DoubleColumn[] doubleColumns;
+
+    private final IntColumn[] intColumns;
+
+    private int numEdges;
+
+    EdgeAttributes(EdgeSchema schema, int expectedEdges) {
+        this.schema = schema;
+        int capacity = Math.max(16, expectedEdges);
+        doubleColumns = new DoubleColumn[schema.getDoubleColumns().size()];
+        for (int c = 0; c < doubleColumns.length; c++) {
+            doubleColumns[c] = new DoubleColumn(schema.getDoubleColumns().get(c), capacity);
+        }
+        intColumns = new IntColumn[schema.getIntColumns().size()];
+        for (int c = 0; c < intColumns.length; c++) {
+            intColumns[c] = new IntColumn(schema.getIntColumns().get(c), capacity);
+        }
+    }
+
+    public EdgeSchema getSchema() {
+        return schema;
+    }
+
+    /**
+     * @return the column of doubles of the given name
+     * @throws IllegalArgumentException if there's no such column of doubles
+     */
+    public DoubleColumn doubleColumn(String name) throws IllegalArgumentException {
+        int c = schema.getDoubleColumns().indexOf(name);
+        if (c < 0) {
+            throw new IllegalArgumentException("no such column of doubles: " + name);
+        }
+        return doubleColumns[c];
+    }
+
+    /**
+     * @return the column of ints of the given name
+     * @throws IllegalArgumentException if there's no such column of ints
+     */
+    public IntColumn intColumn(String name) throws IllegalArgumentException {
+        int c = schema.getIntColumns().indexOf(name);
+        if (c < 0) {
+            throw new IllegalArgumentException("no such column of ints: " + name);
+        }
+        return intColumns[c];
+    }
+
+    // appends an edge with the default values
+    void addEdge() {
+        for (int c = 0; c < doubleColumns.length; c++) {
+            doubleColumns[c].append(numEdges, schema.doubleDefault(c));
+        }
+        for (int c = 0; c < intColumns.length; c++) {
+            intColumns[c].append(numEdges, schema.intDefault(c));
+        }
+        numEdges++;
+    }
+
+    // copies the values of the edges of attributes of the same schema, which
+    // has as many edges
+    void copyValues(EdgeAttributes attributes) {
+        for (int c = 0; c < doubleColumns.length; c++) {
+            System.arraycopy(attributes.doubleColumns[c].values, 0, doubleColumns[c].values, 0, numEdges);
+        }
+        for (int c = 0; c < intColumns.length; c++) {
+            System.arraycopy(attributes.intColumns[c].values, 0, intColumns[c].values, 0, numEdges);
+        }
+    }
+
+    private void checkEdge(int edge) {
+        if (edge < 0 || edge >= numEdges) {
+            throw new IndexOutOfBoundsException("no such edge: " + edge);
+        }
+    }
+
+    public final class DoubleColumn {
+        private final String name;
+
+        private double[] values;
+
+        private DoubleColumn(String name, int capacity) {
+            this.name = name;
+            this.values = new double[capacity];
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @throws IndexOutOfBoundsException if there's no such edge
+         */
+        public double get(int edge) throws IndexOutOfBoundsException {
+            checkEdge(edge);
+            return values[edge];
+        }
+
+        /**
+         * @throws IndexOutOfBoundsException if there's no such edge
+         */
+        public void set(int edge, double value) throws IndexOutOfBoundsException {
+            checkEdge(edge);
+            values[edge] = value;
+        }
+
+        private void append(int edge, double value) {
+            if (edge == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[edge] = value;
+        }
+    }
+
+    public final class IntColumn {
+        private final String name;
+
+        private int[] values;
+
+        private IntColumn(String name, int capacity) {
+            this.name = name;
+            this.values = new int[capacity];
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @throws IndexOutOfBoundsException if there's no such edge
+         */
+        public int get(int edge) throws IndexOutOfBoundsException {
+            checkEdge(edge);
+            return values[edge];
+        }
+
+        /**
+         * @throws IndexOutOfBoundsException if there's no such edge
+         */
+        public void set(int edge, int value) throws IndexOutOfBoundsException {
+            checkEdge(edge);
+            values[edge] = value;
+        }
+
+        private void append(int edge, int value) {
+            if (edge == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[edge] = value;
+        }
+    }
+}
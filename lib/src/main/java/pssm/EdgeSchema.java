@@ -0,0 +1,112 @@
+package pssm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The typed attributes of the edges of a graph, declared when the graph is
+ * created, see {@link PowerSupplySystemGraph#PowerSupplySystemGraph(EdgeSchema)}.
+ * Every attribute is a column of doubles or of ints, with the value an edge
+ * gets when it's added.
+ */
+public final class EdgeSchema {
+    static final EdgeSchema EMPTY = new Builder().build();
+
+    private final List<String> doubleColumns;
+    private final double[] doubleDefaults;
+
+    private final List<String> intColumns;
+    private final int[] intDefaults;
+
+    private EdgeSchema(Builder builder) {
+        doubleColumns = Collections.unmodifiableList(new ArrayList<>(builder.doubleColumns.keySet()));
+        doubleDefaults = new double[doubleColumns.size()];
+        int i = 0;
+        for (double value : builder.doubleColumns.values()) {
+            doubleDefaults[i++] = value;
+        }
+        intColumns = Collections.unmodifiableList(new ArrayList<>(builder.intColumns.keySet()));
+        intDefaults = new int[intColumns.size()];
+        i = 0;
+        for (int value : builder.intColumns.values()) {
+            intDefaults[i++] = value;
+        }
+    }
+
+    /**
+     * @return the names of the columns of doubles, in the order they were
+     *         declared
+     */
+    public List<String> getDoubleColumns() {
+        return doubleColumns;
+    }
+
+    /**
+     * @return the names of the columns of ints, in the order they were
+     *         declared
+     */
+    public List<String> getIntColumns() {
+        return intColumns;
+    }
+
+    double doubleDefault(int column) {
+        return doubleDefaults[column];
+    }
+
+    int intDefault(int column) {
+        return intDefaults[column];
+    }
+
+    public static final class Builder {
+        private final Map<String, Double> doubleColumns = new LinkedHashMap<>();
+
+        private final Map<String, Integer> intColumns = new LinkedHashMap<>();
+
+        public Builder doubleColumn(String name) {
+            return doubleColumn(name, 0);
+        }
+
+        /**
+         * Declares a column of doubles.
+         *
+         * @param defaultValue the value of the edges added without one
+         * @throws IllegalArgumentException if there's a column of that name
+         *                                  already
+         */
+        public Builder doubleColumn(String name, double defaultValue) throws IllegalArgumentException {
+            checkName(name);
+            doubleColumns.put(name, defaultValue);
+            return this;
+        }
+
+        public Builder intColumn(String name) {
+            return intColumn(name, 0);
+        }
+
+        /**
+         * Declares a column of ints.
+         *
+         * @param defaultValue the value of the edges added without one
+         * @throws IllegalArgumentException if there's a column of that name
+         *                                  already
+         */
+        public Builder intColumn(String name, int defaultValue) throws IllegalArgumentException {
+            checkName(name);
+            intColumns.put(name, defaultValue);
+            return this;
+        }
+
+        private void checkName(String name) {
+            if (doubleColumns.containsKey(name) || intColumns.containsKey(name)) {
+                throw new IllegalArgumentException("duplicate edge column: " + name);
+            }
+        }
+
+        public EdgeSchema build() {
+            return new EdgeSchema(this);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package pssm;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import pssm.devices.BaseDevice;
+
+/**
+ * A load whose power supplies changed, see {@link SwitchEventProcessor}.
+ */
+public final class EnergizationChange {
+    private final BaseDevice load;
+    private final List<BaseDevice> suppliesBefore;
+    private final List<BaseDevice> suppliesAfter;
+    private final long timestamp;
+
+    EnergizationChange(BaseDevice load, List<BaseDevice> suppliesBefore, List<BaseDevice> suppliesAfter,
+            long timestamp) {
+        this.load = load;
+        this.suppliesBefore = suppliesBefore;
+        this.suppliesAfter = suppliesAfter;
+        this.timestamp = timestamp;
+    }
+
+    public BaseDevice getLoad() {
+        return load;
+    }
+
+    /**
+     * @return the power supplies which fed the load, in the order of the trees
+     *         of the forest, an empty list if none did
+     */
+    public List<BaseDevice> getSuppliesBefore() {
+        return suppliesBefore;
+    }
+
+    /**
+     * @return the power supplies which feed the load now
+     */
+    public List<BaseDevice> getSuppliesAfter() {
+        return suppliesAfter;
+    }
+
+    public boolean wasEnergized() {
+        return !suppliesBefore.isEmpty();
+    }
+
+    public boolean isEnergized() {
+        return !suppliesAfter.isEmpty();
+    }
+
+    /**
+     * @return the timestamp of the last event of the batch which made the
+     *         change
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Merges a later change of the same load into this one.
+     *
+     * @return the change from the supplies before this one to the supplies
+     *         after the later one, or null if they are the same
+     */
+    EnergizationChange followedBy(EnergizationChange later) {
+        if (suppliesBefore.equals(later.suppliesAfter)) {
+            return null;
+        }
+        return new EnergizationChange(load, suppliesBefore, later.suppliesAfter, later.timestamp);
+    }
+
+    @Override
+    public String toString() {
+        return load.name + ": " + names(suppliesBefore) + " -> " + names(suppliesAfter) + " at " + timestamp;
+    }
+
+    private static List<String> names(List<BaseDevice> devices) {
+        List<String> res = new ArrayList<>(devices.size());
+        for (BaseDevice device : devices) {
+            res.add(device.name);
+        }
+        return res;
+    }
+}
@@ -0,0 +1,179 @@
+package pssm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.util.Pair;
+
+import pssm.devices.BaseDevice;
+import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.InvalidPort;
+import pssm.exceptions.LackPowerSupplies;
+import pssm.exceptions.NoSuchDevice;
+
+/**
+ * Which ports are energized, and by which power supplies, under a switch
+ * configuration, for the callers which don't need the passages.
+ *
+ * The ports linked by something which conducts both ways, an edge, a closed
+ * switch or a DcDc, are merged into components with a union-find pass. A
+ * diode only conducts from its first port to its second one, so it's kept as
+ * an arc between two components, and the power supplies are followed along
+ * those arcs. A port is energized by the same power supplies as in the forest,
+ * whatever the loops, but no tree is built. The topology is the one of the
+ * graph at the time of construction, later changes of the graph are not seen.
+ */
+public final class EnergizationIndex {
+    private final PowerSupplySystemGraph source;
+
+    private final CompiledGraph graph;
+
+    // the component of every port
+    private final int[] components;
+
+    // the power supplies feeding every component, null if none does
+    private final List<BaseDevice>[] supplies;
+
+    public EnergizationIndex(PowerSupplySystemGraph graph) {
+        this(graph, (Map<String, Boolean>) null);
+    }
+
+    /**
+     * Indexes the given graph under the given truth table.
+     *
+     * @param graph         the graph
+     * @param truthTableArg the truth table, switches absent from it keep their
+     *                      own state
+     * @throws NoSuchDevice             if a device in the truth table does not
+     *                                  exist in the system
+     * @throws IllegalArgumentException if a device in the truth table is not a
+     *                                  switch
+     * @throws LackPowerSupplies        if there are no power supplies in the system
+     * @throws ChargePowerSupply        if a power supply is connected to another
+     *                                  power supply
+     */
+    public EnergizationIndex(PowerSupplySystemGraph graph, Map<String, Boolean> truthTableArg)
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        this(graph, graph.compile().switchStates(truthTableArg));
+    }
+
+    /**
+     * Indexes the given graph under the given switch states.
+     *
+     * @throws IllegalArgumentException if the vector is not of the size of the
+     *                                  switches of the graph
+     */
+    public EnergizationIndex(PowerSupplySystemGraph graph, SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        this.source = graph;
+        this.graph = graph.compile();
+        this.graph.checkSwitchStates(closedSwitches);
+        int[] roots = this.graph.powerSupplyPorts;
+        if (roots.length == 0) {
+            throw new LackPowerSupplies();
+        }
+        int numPorts = this.graph.numPorts;
+
+        Components merged = new Components(numPorts);
+        // the diodes, as arcs from their first port to their second one
+        IntList diodes = new IntList();
+        for (int p = 0; p < numPorts; p++) {
+            for (int slot = this.graph.offsets.get(p); slot < this.graph.offsets.get(p + 1); slot++) {
+                if (p < this.graph.neighbours.get(slot)) {
+                    merged.union(p, this.graph.neighbours.get(slot));
+                }
+            }
+            // each device once, from its first port
+            int sibling = this.graph.siblings[p];
+            if (sibling > p) {
+                boolean forward = this.graph.conducts(p, closedSwitches);
+                boolean backward = this.graph.conducts(sibling, closedSwitches);
+                if (forward && backward) {
+                    merged.union(p, sibling);
+                } else if (forward) {
+                    diodes.add(p);
+                } else if (backward) {
+                    diodes.add(sibling);
+                }
+            }
+        }
+        components = merged.label();
+
+        IntList arcs = new IntList(diodes.size() * 2);
+        for (int i = 0; i < diodes.size(); i++) {
+            arcs.add(components[diodes.get(i)]);
+            arcs.add(components[this.graph.siblings[diodes.get(i)]]);
+        }
+        int[] rootComponents = new int[roots.length];
+        for (int t = 0; t < roots.length; t++) {
+            rootComponents[t] = components[roots[t]];
+        }
+        int[][] fed = merged.feed(this.graph, rootComponents, arcs);
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        List<BaseDevice>[] supplies = new List[fed.length];
+        this.supplies = supplies;
+        for (int c = 0; c < fed.length; c++) {
+            if (fed[c] != null) {
+                List<BaseDevice> res = new ArrayList<>(fed[c].length);
+                for (int t : fed[c]) {
+                    res.add(this.graph.portDevices[roots[t]]);
+                }
+                supplies[c] = Collections.unmodifiableList(res);
+            }
+        }
+    }
+
+    private int ordinalOf(PortHandle port) throws InvalidPort {
+        if (port.graph != source || port.getOrdinal() >= graph.numPorts) {
+            throw new InvalidPort(port.getId());
+        }
+        return port.getOrdinal();
+    }
+
+    /**
+     * @param portId the id of the port
+     * @return if a power supply feeds the port
+     * @throws InvalidPort if there's no such port in the graph
+     */
+    public boolean isPowered(String portId) throws InvalidPort {
+        return supplies[components[graph.indexOf(portId)]] != null;
+    }
+
+    public boolean isPowered(Pair<String, Integer> port) throws InvalidPort {
+        return isPowered(Utils.genPortId(port));
+    }
+
+    /**
+     * Like {@link #isPowered(String)}, without looking the port up by its id.
+     *
+     * @throws InvalidPort if the handle is not one of a port of the graph
+     */
+    public boolean isPowered(PortHandle port) throws InvalidPort {
+        return supplies[components[ordinalOf(port)]] != null;
+    }
+
+    /**
+     * @param portId the id of the port
+     * @return the power supplies feeding the port, in the order of the trees
+     *         of the forest, an empty list if none does
+     * @throws InvalidPort if there's no such port in the graph
+     */
+    public List<BaseDevice> suppliesOf(String portId) throws InvalidPort {
+        return suppliesOf(graph.indexOf(portId));
+    }
+
+    public List<BaseDevice> suppliesOf(Pair<String, Integer> port) throws InvalidPort {
+        return suppliesOf(Utils.genPortId(port));
+    }
+
+    public List<BaseDevice> suppliesOf(PortHandle port) throws InvalidPort {
+        return suppliesOf(ordinalOf(port));
+    }
+
+    List<BaseDevice> suppliesOf(int port) {
+        List<BaseDevice> res = supplies[components[port]];
+        return res == null ? Collections.<BaseDevice>emptyList() : res;
+    }
+}
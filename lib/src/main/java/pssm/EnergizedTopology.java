@@ -0,0 +1,455 @@
+package pssm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.util.Pair;
+
+import pssm.devices.BaseDevice;
+import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.ClosedLoop;
+import pssm.exceptions.LackPowerSupplies;
+import pssm.exceptions.NoSuchDevice;
+
+/**
+ * A live forest of power supply system trees, bound to a graph and a switch
+ * configuration.
+ *
+ * Opening or closing a switch only detaches or reattaches the part of the
+ * trees below that switch, instead of generating the whole forest again. The
+ * topology is the one of the graph at the time of construction, later changes
+ * of the graph are not seen.
+ *
+ * Every port is reached at most once per tree, where the switches close a loop
+ * the {@link LoopPolicy} of the graph at the time of construction applies.
+ * Under {@link LoopPolicy#KEEP_FIRST_FEED} a port keeps the feed it has when a
+ * switch closes a shorter one, and a port cut off is fed again from wherever it
+ * still touches the tree, so the ports of every tree are the ones of
+ * {@link PowerSupplySystemGraph#genForest(Map)}, but on a meshed graph the
+ * passages may not be the breadth first ones it finds. This class is not thread
+ * safe.
+ */
+public final class EnergizedTopology {
+    // link of a port that is not in the tree
+    private static final int UNREACHED = -1;
+    // link of the root of the tree
+    private static final int ROOT = -2;
+    // link of a port fed by the other port of its device
+    private static final int VIA_SIBLING = -3;
+
+    private final CompiledGraph graph;
+
+    private final LoopPolicy loopPolicy;
+
+    private final SwitchStateVector closedSwitches;
+
+    // for each tree, the link of every port to its parent: either the adjacency
+    // slot of the port pointing to its parent, or one of the constants above
+    private final int[][] links;
+
+    private List<PowerSupplySystemTree> forest;
+
+    // the ports reached or cut off since it was set, if not null, see
+    // SwitchEventProcessor
+    IntList changedPorts;
+
+    public EnergizedTopology(PowerSupplySystemGraph graph) {
+        this(graph, (Map<String, Boolean>) null);
+    }
+
+    /**
+     * Creates the forest of the given graph under the given truth table.
+     *
+     * @param graph         the graph
+     * @param truthTableArg the truth table, switches absent from it keep their
+     *                      own state
+     * @throws NoSuchDevice             if a device in the truth table does not
+     *                                  exist in the system
+     * @throws IllegalArgumentException if a device in the truth table is not a
+     *                                  switch
+     * @throws LackPowerSupplies        if there are no power supplies in the system
+     * @throws ChargePowerSupply        if a power supply is connected to another
+     *                                  power supply
+     * @throws ClosedLoop               if the switches close a loop and the loop
+     *                                  policy of the graph is
+     *                                  {@link LoopPolicy#REPORT}
+     */
+    public EnergizedTopology(PowerSupplySystemGraph graph, Map<String, Boolean> truthTableArg)
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        this(graph, graph.compile().switchStates(truthTableArg));
+    }
+
+    /**
+     * Creates the forest of the given graph under the given switch states. The
+     * vector is copied.
+     *
+     * @throws IllegalArgumentException if the vector is not of the size of the
+     *                                  switches of the graph
+     */
+    public EnergizedTopology(PowerSupplySystemGraph graph, SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        this.graph = graph.compile();
+        this.graph.checkSwitchStates(closedSwitches);
+        this.loopPolicy = graph.getLoopPolicy();
+        this.closedSwitches = closedSwitches.copy();
+        int[] roots = this.graph.powerSupplyPorts;
+        if (roots.length == 0) {
+            throw new LackPowerSupplies();
+        }
+        links = new int[roots.length][];
+        for (int t = 0; t < roots.length; t++) {
+            int[] link = new int[this.graph.numPorts];
+            Arrays.fill(link, UNREACHED);
+            link[roots[t]] = ROOT;
+            links[t] = link;
+            expand(t, roots[t], null);
+        }
+    }
+
+    public boolean isClosed(String switchName) throws NoSuchDevice, IllegalArgumentException {
+        return closedSwitches.get(graph.switchIndexOf(switchName));
+    }
+
+    /**
+     * @return a copy of the current switch states
+     */
+    public SwitchStateVector getSwitchStates() {
+        return closedSwitches.copy();
+    }
+
+    public void close(String switchName)
+            throws NoSuchDevice, IllegalArgumentException, ChargePowerSupply, ClosedLoop {
+        setSwitch(switchName, true);
+    }
+
+    public void open(String switchName) throws NoSuchDevice, IllegalArgumentException {
+        setSwitch(switchName, false);
+    }
+
+    /**
+     * Opens or closes a switch and updates the affected trees.
+     *
+     * If closing the switch connects a power supply to another one, or closes a
+     * loop which is to be reported, the switch and the trees are left as they
+     * were.
+     *
+     * @param switchName the name of the switch
+     * @param closed     the new state of the switch
+     * @throws NoSuchDevice             if there's no such device in the system
+     * @throws IllegalArgumentException if the device is not a switch
+     * @throws ChargePowerSupply        if a power supply gets connected to
+     *                                  another power supply
+     * @throws ClosedLoop               if the switch closes a loop and the loop
+     *                                  policy is {@link LoopPolicy#REPORT}
+     */
+    public void setSwitch(String switchName, boolean closed)
+            throws NoSuchDevice, IllegalArgumentException, ChargePowerSupply, ClosedLoop {
+        int switchIndex = graph.switchIndexOf(switchName);
+        if (closedSwitches.get(switchIndex) == closed) {
+            return;
+        }
+        closedSwitches.set(switchIndex, closed);
+        int a = graph.switchPorts[switchIndex];
+        int b = graph.siblings[a];
+        if (closed) {
+            attach(a, b);
+        } else {
+            detach(a, b);
+        }
+        forest = null;
+    }
+
+    private void attach(int a, int b) throws ChargePowerSupply, ClosedLoop {
+        // the ports reached in each tree, so they could be rolled back
+        IntList[] added = new IntList[links.length];
+        try {
+            for (int t = 0; t < links.length; t++) {
+                int[] link = links[t];
+                if (link[a] != UNREACHED && link[b] != UNREACHED) {
+                    if (loopPolicy == LoopPolicy.REPORT) {
+                        throw new ClosedLoop(graph.portDevices[graph.powerSupplyPorts[t]], graph.portIds[b]);
+                    }
+                    continue;
+                }
+                int to = link[a] != UNREACHED ? b : link[b] != UNREACHED ? a : -1;
+                if (to < 0) {
+                    continue;
+                }
+                added[t] = new IntList();
+                reach(t, to, VIA_SIBLING, added[t]);
+                expand(t, to, added[t]);
+            }
+        } catch (ChargePowerSupply | ClosedLoop e) {
+            for (int t = 0; t < links.length; t++) {
+                if (added[t] != null) {
+                    for (int i = 0; i < added[t].size(); i++) {
+                        links[t][added[t].get(i)] = UNREACHED;
+                    }
+                }
+            }
+            closedSwitches.set(graph.portSwitches[a], false);
+            throw e;
+        }
+    }
+
+    private void detach(int a, int b) {
+        // without loops, nothing cut off could be fed some other way
+        boolean refeed = loopPolicy == LoopPolicy.KEEP_FIRST_FEED;
+        for (int t = 0; t < links.length; t++) {
+            int[] link = links[t];
+            int to = link[b] == VIA_SIBLING ? b : link[a] == VIA_SIBLING ? a : -1;
+            if (to < 0) {
+                continue;
+            }
+            IntList removed = new IntList();
+            removed.add(to);
+            // collect the subtree first, unlinking it would hide its children
+            for (int i = 0; i < removed.size(); i++) {
+                int port = removed.get(i);
+                for (int slot = graph.offsets.get(port); slot < graph.offsets.get(port + 1); slot++) {
+                    if (link[graph.neighbours.get(slot)] == graph.twinSlots.get(slot)) {
+                        removed.add(graph.neighbours.get(slot));
+                    }
+                }
+                int sibling = graph.siblings[port];
+                if (sibling >= 0 && link[sibling] == VIA_SIBLING) {
+                    removed.add(sibling);
+                }
+            }
+            for (int i = 0; i < removed.size(); i++) {
+                link[removed.get(i)] = UNREACHED;
+            }
+            if (changedPorts != null) {
+                for (int i = 0; i < removed.size(); i++) {
+                    changedPorts.add(removed.get(i));
+                }
+            }
+            if (!refeed) {
+                continue;
+            }
+            // some of the removed ports might still be fed some other way, no
+            // power supply could be met from there, it would have been met before
+            for (int i = 0; i < removed.size(); i++) {
+                int port = removed.get(i);
+                for (int slot = graph.offsets.get(port); slot < graph.offsets.get(port + 1); slot++) {
+                    int neighbour = graph.neighbours.get(slot);
+                    if (link[neighbour] != UNREACHED) {
+                        expand(t, neighbour, null);
+                    }
+                }
+                int sibling = graph.siblings[port];
+                if (sibling >= 0 && link[sibling] != UNREACHED) {
+                    expand(t, sibling, null);
+                }
+            }
+        }
+    }
+
+    /**
+     * Breadth first expands tree {@code t} from the given port, which is in the
+     * tree already. Under {@link LoopPolicy#REPORT} the neighbours of the start
+     * port, but its parent, must not be in the tree yet.
+     */
+    private void expand(int t, int start, IntList added) throws ChargePowerSupply, ClosedLoop {
+        int[] link = links[t];
+        IntList queue = new IntList();
+        queue.add(start);
+        for (int head = 0; head < queue.size(); head++) {
+            int candidate = queue.get(head);
+            int parent = parentOf(link, candidate);
+            int end = graph.offsets.get(candidate + 1);
+            for (int slot = graph.offsets.get(candidate); slot < end; slot++) {
+                int child = graph.neighbours.get(slot);
+                if (link[child] == UNREACHED) {
+                    reach(t, child, graph.twinSlots.get(slot), added);
+                    queue.add(child);
+                } else if (child != parent) {
+                    fedTwice(t, child);
+                }
+            }
+            int sibling = graph.siblings[candidate];
+            if (sibling >= 0 && graph.conducts(candidate, closedSwitches)) {
+                if (link[sibling] == UNREACHED) {
+                    reach(t, sibling, VIA_SIBLING, added);
+                    queue.add(sibling);
+                } else if (sibling != parent) {
+                    fedTwice(t, sibling);
+                }
+            }
+        }
+    }
+
+    private void fedTwice(int t, int port) throws ClosedLoop {
+        if (loopPolicy == LoopPolicy.REPORT) {
+            throw new ClosedLoop(graph.portDevices[graph.powerSupplyPorts[t]], graph.portIds[port]);
+        }
+    }
+
+    private void reach(int t, int port, int portLink, IntList added) throws ChargePowerSupply {
+        if (graph.portTypes[port] == CompiledGraph.TYPE_POWER_SUPPLY) {
+            int root = graph.powerSupplyPorts[t];
+            throw new ChargePowerSupply(graph.portDevices[root], graph.portDevices[port]);
+        }
+        links[t][port] = portLink;
+        if (added != null) {
+            added.add(port);
+        }
+        if (changedPorts != null) {
+            changedPorts.add(port);
+        }
+    }
+
+    /**
+     * Tells if the given port is fed by any power supply.
+     *
+     * @param portId the id of the port
+     * @return if the port is energized
+     */
+    public boolean isEnergized(String portId) {
+        int port = graph.indexOf(portId);
+        for (int[] link : links) {
+            if (link[port] != UNREACHED) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the power supplies of the trees the given port is in, in the
+     *         order of the trees
+     */
+    List<BaseDevice> suppliesOf(int port) {
+        List<BaseDevice> res = new ArrayList<>(1);
+        for (int t = 0; t < links.length; t++) {
+            if (links[t][port] != UNREACHED) {
+                res.add(graph.portDevices[graph.powerSupplyPorts[t]]);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Finds passages start from power supplies for the given destinations, see
+     * {@link PowerSupplySystemGraph#findPassages(List, Map)}. The destinations
+     * which are not ports of the graph are skipped. Where the closed switches
+     * make loops, the passages are the ones of the current trees, see
+     * {@link #getForest()}.
+     *
+     * @param destinations the destination ports
+     * @return A map containing the ID of the destination port and a list of
+     *         passages to reach that port.
+     */
+    public Map<String, List<Passage>> findPassages(List<Pair<String, Integer>> destinations) {
+        return CompiledGraph.toPassages(findCompactPassages(destinations));
+    }
+
+    /**
+     * Like {@link #findPassages(List)}, but the passages are kept as port
+     * indices.
+     */
+    public Map<String, List<CompactPassage>> findCompactPassages(List<Pair<String, Integer>> destinations) {
+        Map<String, List<CompactPassage>> res = new HashMap<>();
+        for (Pair<String, Integer> destination : destinations) {
+            String portId = Utils.genPortId(destination);
+            int port = graph.lookup(portId);
+            if (port < 0) {
+                continue;
+            }
+            for (int[] link : links) {
+                if (link[port] == UNREACHED) {
+                    continue;
+                }
+                int depth = 0;
+                for (int p = port; p >= 0; p = parentOf(link, p)) {
+                    depth++;
+                }
+                int[] ports = new int[depth];
+                for (int p = port; p >= 0; p = parentOf(link, p)) {
+                    ports[--depth] = p;
+                }
+                List<CompactPassage> passages = res.get(portId);
+                if (passages == null) {
+                    passages = new ArrayList<>();
+                    res.put(portId, passages);
+                }
+                passages.add(new CompactPassage(graph, ports));
+            }
+        }
+        return res;
+    }
+
+    private int parentOf(int[] link, int port) {
+        int portLink = link[port];
+        if (portLink >= 0) {
+            return graph.neighbours.get(portLink);
+        }
+        return portLink == VIA_SIBLING ? graph.siblings[port] : -1;
+    }
+
+    /**
+     * Returns the forest under the current switch configuration. Without loops,
+     * it's the one {@link PowerSupplySystemGraph#genForest(Map)} would generate.
+     * Where the closed switches make loops, every tree has the same ports, but a
+     * port may hang off another parent than in the breadth first tree, the one
+     * it was fed by before the last changes. The trees are built again after
+     * each change, and shared until the next one.
+     *
+     * @return the forest
+     */
+    public List<PowerSupplySystemTree> getForest() {
+        if (forest == null) {
+            List<PowerSupplySystemTree> trees = new ArrayList<>(links.length);
+            for (int t = 0; t < links.length; t++) {
+                trees.add(materialize(t));
+            }
+            forest = trees;
+        }
+        return forest;
+    }
+
+    private PowerSupplySystemTree materialize(int t) {
+        int[] link = links[t];
+        int root = graph.powerSupplyPorts[t];
+        IntList ports = new IntList();
+        IntList parents = new IntList();
+        IntList depths = new IntList();
+        IntList edges = new IntList();
+        ports.add(root);
+        parents.add(-1);
+        depths.add(0);
+        edges.add(-1);
+        // children in the order genForest meets them: edges first, then the other
+        // port of the device
+        for (int head = 0; head < ports.size(); head++) {
+            int port = ports.get(head);
+            int end = graph.offsets.get(port + 1);
+            for (int slot = graph.offsets.get(port); slot <= end; slot++) {
+                int child;
+                int edge;
+                if (slot < end) {
+                    child = graph.neighbours.get(slot);
+                    if (link[child] != graph.twinSlots.get(slot)) {
+                        continue;
+                    }
+                    edge = graph.adjacencyEdges.get(slot);
+                } else {
+                    child = graph.siblings[port];
+                    if (child < 0 || link[child] != VIA_SIBLING) {
+                        break;
+                    }
+                    edge = -1;
+                }
+                ports.add(child);
+                parents.add(head);
+                depths.add(depths.get(head) + 1);
+                edges.add(edge);
+            }
+        }
+        return new PowerSupplySystemTree(graph, ports.toArray(), parents.toArray(), depths.toArray(),
+                edges.toArray(), ports.size());
+    }
+}
@@ -0,0 +1,81 @@
+package pssm;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A size bounded, least recently used cache of forests, keyed by the state of
+ * every switch of a graph. See {@link PowerSupplySystemGraph#enableForestCache(int)}.
+ *
+ * The cached forests are shared by every caller asking about the same switch
+ * configuration, they must not be modified.
+ */
+public final class ForestCache {
+    private final int maximumSize;
+
+    private final LinkedHashMap<SwitchStateVector, List<PowerSupplySystemTree>> entries;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    ForestCache(int maximumSize) {
+        if (maximumSize <= 0) {
+            throw new IllegalArgumentException("maximum size must be positive: " + maximumSize);
+        }
+        this.maximumSize = maximumSize;
+        this.entries = new LinkedHashMap<SwitchStateVector, List<PowerSupplySystemTree>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<SwitchStateVector, List<PowerSupplySystemTree>> eldest) {
+                if (size() > ForestCache.this.maximumSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    synchronized List<PowerSupplySystemTree> get(SwitchStateVector key) {
+        List<PowerSupplySystemTree> forest = entries.get(key);
+        if (forest == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return forest;
+    }
+
+    synchronized void put(SwitchStateVector key, List<PowerSupplySystemTree> forest) {
+        // the caller may change its vector afterwards
+        entries.put(key.copy(), forest);
+    }
+
+    /**
+     * Drops every cached forest, the counters are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+}
@@ -0,0 +1,492 @@
+package pssm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+import pssm.devices.BaseDevice;
+import pssm.devices.Bus;
+import pssm.devices.DcDc;
+import pssm.devices.Diode;
+import pssm.devices.Load;
+import pssm.devices.PowerSupply;
+import pssm.devices.Switch;
+
+/**
+ * A compiled graph written to a file in a binary format, and mapped back into
+ * memory without going through the devices and edges one by one.
+ *
+ * The file starts with a header of little endian ints: the magic number, the
+ * version of the format, the numbers of devices, ports, edges and switches,
+ * and the length of the device names. The tables follow, each padded to a
+ * multiple of 4 bytes:
+ * <ul>
+ * <li>the first port of each device, and the end of the ports of the last
+ * one</li>
+ * <li>the end of the name of each device in the names</li>
+ * <li>the type of each device, one byte each</li>
+ * <li>the state of each switch, one bit each in the order of
+ * {@link CompiledGraph#switchIndexOf(String)}, set if it's closed</li>
+ * <li>the names of the devices, in UTF-8</li>
+ * <li>the adjacency of {@link CompiledGraph}: offsets, neighbours, edges of
+ * the slots and twin slots, followed by the anchors of the ports</li>
+ * <li>the first port, the second port and the reference to the extras of each
+ * edge</li>
+ * </ul>
+ *
+ * The extras of the edges are objects, so only a reference to each of them is
+ * written, it's up to the caller to keep the objects and to resolve the
+ * references when the snapshot is read. Only the devices of
+ * {@link pssm.devices} could be written, and only the graphs whose edges have
+ * no attributes, the columns of {@link EdgeAttributes} are not part of the
+ * format.
+ *
+ * Opening a snapshot maps the file read only and checks its header. The
+ * compiled graph made out of it reads its adjacency, the largest of its
+ * tables, from the mapping itself: nothing is copied, and the processes
+ * mapping the same snapshot share those pages through the page cache. The
+ * devices, the port ids and the per port tables are still made on the heap,
+ * so loading is linear in the devices and ports, but not in the edges. A graph
+ * made out of a snapshot comes with that compiled form, and only adds its
+ * devices, ports and edges, which the traversals don't need, the first time
+ * they are asked for or the graph is changed.
+ */
+public final class GraphSnapshot {
+    static final int MAGIC = 0x4d535350;
+
+    /**
+     * The version of the format written by this class, and the only one it
+     * reads.
+     */
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 7 * 4;
+
+    // the reference to no extras
+    private static final int NO_EXTRAS = -1;
+
+    private final ByteBuffer buffer;
+
+    private final int numDevices;
+    private final int numPorts;
+    private final int numEdges;
+    private final int numSwitches;
+
+    private final Layout layout;
+
+    private GraphSnapshot(ByteBuffer buffer, int numDevices, int numPorts, int numEdges, int numSwitches,
+            Layout layout) {
+        this.buffer = buffer;
+        this.numDevices = numDevices;
+        this.numPorts = numPorts;
+        this.numEdges = numEdges;
+        this.numSwitches = numSwitches;
+        this.layout = layout;
+    }
+
+    /**
+     * Where each table starts, and where the file ends.
+     */
+    private static final class Layout {
+        final int deviceFirstPorts;
+        final int deviceNameEnds;
+        final int deviceTypes;
+        final int switchStates;
+        final int names;
+        final int offsets;
+        final int neighbours;
+        final int adjacencyEdges;
+        final int twinSlots;
+        final int anchors;
+        final int edgeFirstPorts;
+        final int edgeSecondPorts;
+        final int edgeExtras;
+        // a long, so a graph too large for a single mapping is noticed, the
+        // positions are only used once the size is known to fit in an int
+        final long size;
+
+        Layout(int numDevices, int numPorts, int numEdges, int numSwitches, int namesLength) {
+            long at = HEADER_SIZE;
+            deviceFirstPorts = (int) at;
+            at += 4L * (numDevices + 1);
+            deviceNameEnds = (int) at;
+            at += 4L * numDevices;
+            deviceTypes = (int) at;
+            at += padded(numDevices);
+            switchStates = (int) at;
+            at += 4L * ((numSwitches + 31L) >>> 5);
+            names = (int) at;
+            at += padded(namesLength);
+            offsets = (int) at;
+            at += 4L * (numPorts + 1);
+            neighbours = (int) at;
+            at += 8L * numEdges;
+            adjacencyEdges = (int) at;
+            at += 8L * numEdges;
+            twinSlots = (int) at;
+            at += 8L * numEdges;
+            anchors = (int) at;
+            at += 4L * numPorts;
+            edgeFirstPorts = (int) at;
+            at += 4L * numEdges;
+            edgeSecondPorts = (int) at;
+            at += 4L * numEdges;
+            edgeExtras = (int) at;
+            size = at + 4L * numEdges;
+        }
+
+        private static long padded(long numBytes) {
+            return (numBytes + 3) & ~3L;
+        }
+    }
+
+    /**
+     * Writes a snapshot of the given graph, whose edges have no extras.
+     *
+     * @throws IllegalArgumentException if an edge has extras, if a device is
+     *                                  not one of {@link pssm.devices}, or if
+     *                                  the edges have attributes
+     */
+    public static void write(PowerSupplySystemGraph graph, Path path) throws IOException, IllegalArgumentException {
+        write(graph, path, null);
+    }
+
+    /**
+     * Writes a snapshot of the given graph, the state of every switch is the
+     * one of the switch itself.
+     *
+     * @param graph      the graph
+     * @param path       the file to write, replaced if it exists
+     * @param extrasRefs gives the reference to the extras of an edge, a non
+     *                   negative int, it's only called for the extras which are
+     *                   not null
+     * @throws IllegalArgumentException if a device is not one of
+     *                                  {@link pssm.devices}, if the edges have
+     *                                  attributes, or if the graph is too
+     *                                  large for a single mapping
+     */
+    public static void write(PowerSupplySystemGraph graph, Path path, ToIntFunction<Object> extrasRefs)
+            throws IOException, IllegalArgumentException {
+        EdgeSchema edgeSchema = graph.getEdgeAttributes().getSchema();
+        if (!edgeSchema.getDoubleColumns().isEmpty() || !edgeSchema.getIntColumns().isEmpty()) {
+            throw new IllegalArgumentException("cannot write the attributes of the edges, "
+                    + "a snapshot has no columns");
+        }
+        CompiledGraph compiled = graph.compile();
+        List<Edge> edges = graph.getEdges();
+        int numDevices = graph.getDevices().size();
+        int numEdges = edges.size();
+        int numSwitches = compiled.getNumSwitches();
+
+        int[] deviceFirstPorts = new int[numDevices + 1];
+        int[] deviceNameEnds = new int[numDevices];
+        byte[] deviceTypes = new byte[numDevices];
+        byte[][] names = new byte[numDevices][];
+        int namesLength = 0;
+        int d = 0;
+        for (BaseDevice device : graph.getDevices().values()) {
+            deviceTypes[d] = CompiledGraph.typeOf(device);
+            if (deviceTypes[d] == CompiledGraph.TYPE_OTHER) {
+                throw new IllegalArgumentException("cannot write " + device.name + " of "
+                        + device.getClass().getName() + ", only the devices of pssm.devices are supported");
+            }
+            deviceFirstPorts[d + 1] = deviceFirstPorts[d] + device.getNumPorts();
+            names[d] = device.name.getBytes(StandardCharsets.UTF_8);
+            namesLength += names[d].length;
+            deviceNameEnds[d] = namesLength;
+            d++;
+        }
+        int[] switchStates = new int[(numSwitches + 31) >>> 5];
+        for (int i = 0; i < numSwitches; i++) {
+            if (compiled.getSwitch(i).isClosed()) {
+                switchStates[i >>> 5] |= 1 << i;
+            }
+        }
+        int[] edgeFirstPorts = new int[numEdges];
+        int[] edgeSecondPorts = new int[numEdges];
+        int[] edgeExtras = new int[numEdges];
+        for (int e = 0; e < numEdges; e++) {
+            Edge edge = edges.get(e);
+            edgeFirstPorts[e] = edge.first.ordinal;
+            edgeSecondPorts[e] = edge.second.ordinal;
+            if (edge.extras == null) {
+                edgeExtras[e] = NO_EXTRAS;
+            } else if (extrasRefs == null) {
+                throw new IllegalArgumentException("the edge from " + edge.first.getId() + " to "
+                        + edge.second.getId() + " has extras, a reference to them is needed");
+            } else {
+                edgeExtras[e] = extrasRefs.applyAsInt(edge.extras);
+                if (edgeExtras[e] < 0) {
+                    throw new IllegalArgumentException("the reference to extras must not be negative: "
+                            + edgeExtras[e]);
+                }
+            }
+        }
+
+        Layout layout = new Layout(numDevices, compiled.numPorts, numEdges, numSwitches, namesLength);
+        if (layout.size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("the graph is too large for a snapshot: " + layout.size + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) layout.size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(numDevices).putInt(compiled.numPorts).putInt(numEdges)
+                .putInt(numSwitches).putInt(namesLength);
+        putInts(buffer, layout.deviceFirstPorts, deviceFirstPorts);
+        putInts(buffer, layout.deviceNameEnds, deviceNameEnds);
+        buffer.position(layout.deviceTypes);
+        buffer.put(deviceTypes);
+        putInts(buffer, layout.switchStates, switchStates);
+        buffer.position(layout.names);
+        for (byte[] name : names) {
+            buffer.put(name);
+        }
+        putInts(buffer, layout.offsets, compiled.offsets);
+        putInts(buffer, layout.neighbours, compiled.neighbours);
+        putInts(buffer, layout.adjacencyEdges, compiled.adjacencyEdges);
+        putInts(buffer, layout.twinSlots, compiled.twinSlots);
+        putInts(buffer, layout.anchors, compiled.anchors);
+        putInts(buffer, layout.edgeFirstPorts, edgeFirstPorts);
+        putInts(buffer, layout.edgeSecondPorts, edgeSecondPorts);
+        putInts(buffer, layout.edgeExtras, edgeExtras);
+
+        buffer.clear();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static void putInts(ByteBuffer buffer, int position, int[] values) {
+        buffer.position(position);
+        buffer.asIntBuffer().put(values);
+    }
+
+    private static void putInts(ByteBuffer buffer, int position, IntBuffer values) {
+        buffer.position(position);
+        buffer.asIntBuffer().put(values.duplicate());
+    }
+
+    /**
+     * Maps the given snapshot, the mapping stays valid after the file is
+     * closed, until the snapshot and the graphs made out of it are garbage
+     * collected. The file must not be changed while it's mapped.
+     *
+     * @param path the file written by {@link #write(PowerSupplySystemGraph, Path)}
+     * @return the snapshot
+     * @throws IOException if the file is not a snapshot, or is of another
+     *                     version of the format
+     */
+    public static GraphSnapshot open(Path path) throws IOException {
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_SIZE || size > Integer.MAX_VALUE) {
+                throw new IOException(path + " is not a graph snapshot");
+            }
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.getInt(0) != MAGIC) {
+            throw new IOException(path + " is not a graph snapshot");
+        }
+        int version = buffer.getInt(4);
+        if (version != VERSION) {
+            throw new IOException(path + " is of version " + version + " of the snapshot format, expected "
+                    + VERSION);
+        }
+        int numDevices = buffer.getInt(8);
+        int numPorts = buffer.getInt(12);
+        int numEdges = buffer.getInt(16);
+        int numSwitches = buffer.getInt(20);
+        int namesLength = buffer.getInt(24);
+        if (numDevices < 0 || numPorts < 0 || numEdges < 0 || numSwitches < 0 || namesLength < 0) {
+            throw new IOException(path + " is not a graph snapshot");
+        }
+        Layout layout = new Layout(numDevices, numPorts, numEdges, numSwitches, namesLength);
+        if (layout.size != buffer.capacity()) {
+            throw new IOException(path + " is truncated, expected " + layout.size + " bytes, got "
+                    + buffer.capacity());
+        }
+        return new GraphSnapshot(buffer, numDevices, numPorts, numEdges, numSwitches, layout);
+    }
+
+    public int getNumDevices() {
+        return numDevices;
+    }
+
+    public int getNumPorts() {
+        return numPorts;
+    }
+
+    public int getNumEdges() {
+        return numEdges;
+    }
+
+    public int getNumSwitches() {
+        return numSwitches;
+    }
+
+    /**
+     * @param device the index of the device, in the order the devices were
+     *               added to the graph
+     * @return the name of the device
+     */
+    public String getDeviceName(int device) {
+        if (device < 0 || device >= numDevices) {
+            throw new IndexOutOfBoundsException("device index " + device + " out of " + numDevices);
+        }
+        int start = device == 0 ? 0 : buffer.getInt(layout.deviceNameEnds + 4 * (device - 1));
+        int end = buffer.getInt(layout.deviceNameEnds + 4 * device);
+        byte[] name = new byte[end - start];
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.position(layout.names + start);
+        bytes.get(name);
+        return new String(name, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the state of every switch when the snapshot was written
+     */
+    public SwitchStateVector getSwitchStates() {
+        int[] words = readInts(layout.switchStates, (numSwitches + 31) >>> 5);
+        SwitchStateVector res = new SwitchStateVector(numSwitches);
+        for (int i = 0; i < numSwitches; i++) {
+            res.set(i, (words[i >>> 5] & (1 << i)) != 0);
+        }
+        return res;
+    }
+
+    public PowerSupplySystemGraph toGraph() throws IllegalArgumentException {
+        return toGraph(null);
+    }
+
+    /**
+     * Makes a new graph out of the snapshot, with new devices. The graph comes
+     * with its compiled form, which reads the mapping, see
+     * {@link PowerSupplySystemGraph#compile()}. The compiled form made once
+     * the graph is changed is an ordinary one.
+     *
+     * @param extras resolves a reference written by
+     *               {@link #write(PowerSupplySystemGraph, Path, ToIntFunction)}
+     *               to the extras of an edge
+     * @return the graph
+     * @throws IllegalArgumentException if an edge has extras, but there's
+     *                                  nothing to resolve them
+     */
+    public PowerSupplySystemGraph toGraph(IntFunction<Object> extras) throws IllegalArgumentException {
+        BaseDevice[] devices = readDevices();
+        CompiledGraph compiled = compile(devices, extras);
+        return PowerSupplySystemGraph.restore(compiled, Arrays.asList(devices), mapInts(layout.edgeFirstPorts,
+                numEdges), mapInts(layout.edgeSecondPorts, numEdges));
+    }
+
+    public CompiledGraph compile() throws IllegalArgumentException {
+        return compile(null);
+    }
+
+    /**
+     * Like {@link #toGraph(IntFunction)}, but only the compiled graph is made,
+     * which is all the traversals of {@link CompiledGraph} need.
+     */
+    public CompiledGraph compile(IntFunction<Object> extras) throws IllegalArgumentException {
+        return compile(readDevices(), extras);
+    }
+
+    private CompiledGraph compile(BaseDevice[] devices, IntFunction<Object> extras) {
+        int[] deviceFirstPorts = readInts(layout.deviceFirstPorts, numDevices + 1);
+        BaseDevice[] portDevices = new BaseDevice[numPorts];
+        int[] portIndices = new int[numPorts];
+        for (int d = 0; d < numDevices; d++) {
+            for (int p = deviceFirstPorts[d]; p < deviceFirstPorts[d + 1]; p++) {
+                portDevices[p] = devices[d];
+                portIndices[p] = p - deviceFirstPorts[d];
+            }
+        }
+        int[] extrasRefs = readInts(layout.edgeExtras, numEdges);
+        Object[] edgeExtras = new Object[numEdges];
+        for (int e = 0; e < numEdges; e++) {
+            if (extrasRefs[e] == NO_EXTRAS) {
+                continue;
+            }
+            if (extras == null) {
+                throw new IllegalArgumentException("the edges have extras, a way to resolve them is needed");
+            }
+            edgeExtras[e] = extras.apply(extrasRefs[e]);
+        }
+        return new CompiledGraph(Arrays.asList(devices), portDevices, portIndices, null,
+                mapInts(layout.offsets, numPorts + 1), mapInts(layout.neighbours, 2 * numEdges),
+                mapInts(layout.adjacencyEdges, 2 * numEdges), mapInts(layout.twinSlots, 2 * numEdges),
+                edgeExtras, mapInts(layout.anchors, numPorts));
+    }
+
+    private BaseDevice[] readDevices() {
+        int[] nameEnds = readInts(layout.deviceNameEnds, numDevices);
+        int[] switchStates = readInts(layout.switchStates, (numSwitches + 31) >>> 5);
+        ByteBuffer bytes = buffer.duplicate();
+        bytes.position(layout.deviceTypes);
+        byte[] types = new byte[numDevices];
+        bytes.get(types);
+        bytes.position(layout.names);
+        byte[] names = new byte[numDevices == 0 ? 0 : nameEnds[numDevices - 1]];
+        bytes.get(names);
+
+        BaseDevice[] res = new BaseDevice[numDevices];
+        int nextSwitch = 0;
+        for (int d = 0; d < numDevices; d++) {
+            int start = d == 0 ? 0 : nameEnds[d - 1];
+            String name = new String(names, start, nameEnds[d] - start, StandardCharsets.UTF_8);
+            switch (types[d]) {
+                case CompiledGraph.TYPE_BUS:
+                    res[d] = new Bus(name);
+                    break;
+                case CompiledGraph.TYPE_DC_DC:
+                    res[d] = new DcDc(name);
+                    break;
+                case CompiledGraph.TYPE_DIODE:
+                    res[d] = new Diode(name);
+                    break;
+                case CompiledGraph.TYPE_LOAD:
+                    res[d] = new Load(name);
+                    break;
+                case CompiledGraph.TYPE_POWER_SUPPLY:
+                    res[d] = new PowerSupply(name);
+                    break;
+                case CompiledGraph.TYPE_SWITCH:
+                    res[d] = new Switch(name, (switchStates[nextSwitch >>> 5] & (1 << nextSwitch)) != 0);
+                    nextSwitch++;
+                    break;
+                default:
+                    throw new IllegalStateException("unknown type " + types[d] + " of device " + name);
+            }
+        }
+        return res;
+    }
+
+    // a view of a table, which reads the mapping itself
+    private IntBuffer mapInts(int position, int length) {
+        ByteBuffer bytes = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        bytes.position(position);
+        IntBuffer res = bytes.asIntBuffer();
+        res.limit(length);
+        return res.slice();
+    }
+
+    private int[] readInts(int position, int length) {
+        int[] res = new int[length];
+        ByteBuffer bytes = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        bytes.position(position);
+        bytes.asIntBuffer().get(res);
+        return res;
+    }
+}
@@ -0,0 +1,138 @@
+package pssm;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.util.Pair;
+
+import pssm.devices.BaseDevice;
+import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.ClosedLoop;
+import pssm.exceptions.LackPowerSupplies;
+import pssm.exceptions.NoSuchDevice;
+
+/**
+ * A version of a {@link VersionedGraph}: its compiled topology and the state
+ * of every switch, as they were when the version was published.
+ *
+ * A version never changes, so any number of threads may query it while the
+ * graph is edited. The versions which only differ by the state of some
+ * switches share their compiled graph. The devices are shared too, but the
+ * state of a switch is the one of the version, never the one of the
+ * {@link pssm.devices.Switch} itself.
+ */
+public final class GraphVersion {
+    private final long version;
+
+    private final CompiledGraph graph;
+
+    private final SwitchStateVector closedSwitches;
+
+    private final LoopPolicy loopPolicy;
+
+    // the forest under the switch states of the version, generated once asked
+    // for, racing threads may both generate it
+    private volatile List<PowerSupplySystemTree> forest;
+
+    GraphVersion(long version, CompiledGraph graph, SwitchStateVector closedSwitches, LoopPolicy loopPolicy) {
+        this.version = version;
+        this.graph = graph;
+        this.closedSwitches = closedSwitches;
+        this.loopPolicy = loopPolicy;
+    }
+
+    /**
+     * @return the number of the version, starting from 0, one more for every
+     *         version published after it
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public CompiledGraph getCompiledGraph() {
+        return graph;
+    }
+
+    /**
+     * @return the devices by their names, as an unmodifiable map
+     */
+    public Map<String, BaseDevice> getDevices() {
+        return graph.getDevices();
+    }
+
+    public LoopPolicy getLoopPolicy() {
+        return loopPolicy;
+    }
+
+    /**
+     * @return a copy of the switch states of the version
+     */
+    public SwitchStateVector getSwitchStates() {
+        return closedSwitches.copy();
+    }
+
+    public boolean isClosed(String switchName) throws NoSuchDevice, IllegalArgumentException {
+        return closedSwitches.get(graph.switchIndexOf(switchName));
+    }
+
+    /**
+     * Resolves a truth table on top of the switch states of the version, see
+     * {@link CompiledGraph#switchStates(Map)}.
+     *
+     * @param truthTable the truth table, switches absent from it keep their
+     *                   state in the version
+     * @return a new vector
+     */
+    public SwitchStateVector switchStates(Map<String, Boolean> truthTable)
+            throws NoSuchDevice, IllegalArgumentException {
+        SwitchStateVector res = closedSwitches.copy();
+        if (truthTable != null) {
+            for (Map.Entry<String, Boolean> entry : truthTable.entrySet()) {
+                res.set(graph.switchIndexOf(entry.getKey()), entry.getValue());
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Generates the forest under the switch states of the version. It's
+     * generated once, and shared by every caller, it must not be modified.
+     */
+    public List<PowerSupplySystemTree> genForest()
+            throws LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        List<PowerSupplySystemTree> res = forest;
+        if (res == null) {
+            res = Collections.unmodifiableList(graph.genForestFor(closedSwitches, loopPolicy));
+            forest = res;
+        }
+        return res;
+    }
+
+    /**
+     * Like {@link PowerSupplySystemGraph#genForest(Map)}, on top of the switch
+     * states of the version.
+     */
+    public List<PowerSupplySystemTree> genForest(Map<String, Boolean> truthTable)
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        if (truthTable == null || truthTable.isEmpty()) {
+            return genForest();
+        }
+        return graph.genForestFor(switchStates(truthTable), loopPolicy);
+    }
+
+    public Map<String, List<Passage>> findPassages(List<Pair<String, Integer>> destinations)
+            throws LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        return CompiledGraph.findPassages(destinations, genForest());
+    }
+
+    /**
+     * Like {@link PowerSupplySystemGraph#findPassages(List, Map)}, on top of the
+     * switch states of the version.
+     */
+    public Map<String, List<Passage>> findPassages(List<Pair<String, Integer>> destinations,
+            Map<String, Boolean> truthTable)
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        return CompiledGraph.findPassages(destinations, genForest(truthTable));
+    }
+}
@@ -0,0 +1,50 @@
+package pssm;
+
+import java.util.Arrays;
+
+/**
+ * A growable list of primitive ints, used by the traversals to avoid boxing.
+ */
+final class IntList {
+    private int[] elements;
+    private int size;
+
+    IntList() {
+        this(16);
+    }
+
+    IntList(int capacity) {
+        elements = new int[Math.max(capacity, 1)];
+    }
+
+    void add(int element) {
+        if (size == elements.length) {
+            elements = Arrays.copyOf(elements, size * 2);
+        }
+        elements[size++] = element;
+    }
+
+    int get(int index) {
+        return elements[index];
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    /**
+     * Drops the elements from the given index on.
+     */
+    void truncate(int newSize) {
+        assert newSize <= size;
+        size = newSize;
+    }
+
+    int[] toArray() {
+        return Arrays.copyOf(elements, size);
+    }
+}
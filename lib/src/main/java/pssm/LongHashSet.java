@@ -0,0 +1,80 @@
+package pssm;
+
+import java.util.Arrays;
+
+/**
+ * An open addressing set of non negative longs, used to find duplicate edges
+ * without boxing.
+ */
+final class LongHashSet {
+    private static final long EMPTY = -1L;
+
+    private long[] keys;
+    private int size;
+    private int mask;
+
+    LongHashSet() {
+        this(16);
+    }
+
+    LongHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 4) * 2 - 1) << 1;
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    boolean contains(long key) {
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return true;
+            }
+            if (k == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return true if the key was not in the set yet
+     */
+    boolean add(long key) {
+        assert key >= 0;
+        for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return false;
+            }
+            if (k == EMPTY) {
+                keys[i] = key;
+                if (++size * 2 > keys.length) {
+                    grow();
+                }
+                return true;
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        keys = new long[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        mask = keys.length - 1;
+        size = 0;
+        for (long key : oldKeys) {
+            if (key != EMPTY) {
+                add(key);
+            }
+        }
+    }
+}
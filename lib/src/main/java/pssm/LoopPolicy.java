@@ -0,0 +1,19 @@
+package pssm;
+
+import pssm.exceptions.ClosedLoop;
+
+/**
+ * What the traversals do when they find a port that is fed twice by the same
+ * power supply, as in a ring of buses joined by closed switches.
+ */
+public enum LoopPolicy {
+    /**
+     * Keep the first feed found. The traversals are breadth first, so this is
+     * also the shortest one.
+     */
+    KEEP_FIRST_FEED,
+    /**
+     * Throw a {@link ClosedLoop}.
+     */
+    REPORT,
+}
@@ -0,0 +1,557 @@
+package pssm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import pssm.devices.BaseDevice;
+import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.InvalidPort;
+import pssm.exceptions.LackPowerSupplies;
+import pssm.exceptions.NoSuchDevice;
+
+/**
+ * Which ports are energized, and by which power supplies, like an
+ * {@link EnergizationIndex}, kept up to date as switches are opened and closed
+ * in graphs too large to be indexed again every time.
+ *
+ * The graph is cut at its buses into partitions, the ports linked by edges and
+ * devices without going through a bus, and the buses a partition touches are
+ * its boundary. Every partition is summed up under the states of its own
+ * switches: which of its buses and power supplies it connects both ways, which
+ * of them it feeds through its diodes, and which of them feed each of its
+ * other ports. The summaries are stitched into a graph of the buses and the
+ * power supplies only, to which most partitions, ending at a single bus, add
+ * nothing.
+ *
+ * Opening or closing a switch only marks its partition dirty. The next query
+ * sums up the dirty partitions again and stitches the summaries, so it costs
+ * the boundary graph and the dirty partitions rather than the whole graph. The
+ * ports are energized by the same power supplies as in an EnergizationIndex of
+ * the same switch states. The topology is the one of the graph at the time of
+ * construction, and the index must not be used by two threads at once.
+ */
+public final class PartitionedEnergizationIndex {
+    private final CompiledGraph graph;
+
+    private final SwitchStateVector closedSwitches;
+
+    // the partition of every port, -1 for the buses
+    private final int[] partitionOf;
+
+    // the index of every port in its partition
+    private final int[] localIndices;
+
+    // the node of every bus and power supply in the boundary graph, or -1
+    private final int[] nodes;
+
+    private final int numNodes;
+
+    // the edges between two buses, as pairs of nodes
+    private final int[] busEdges;
+
+    private final Partition[] partitions;
+
+    private final boolean[] dirty;
+
+    private final IntList dirtyPartitions = new IntList();
+
+    // the partitions linking nodes of the boundary graph, the others are left
+    // out of the stitching
+    private int[] linkingPartitions;
+
+    // if the summaries were stitched since the last one changed
+    private boolean stitched;
+
+    // the component of every node in the boundary graph
+    private int[] nodeComponents;
+
+    // the power supplies feeding every component, as their positions in the
+    // power supply ports of the graph, in order, null if none does
+    private int[][] supplies;
+
+    // the partitions summed up since construction
+    int summaries;
+
+    public PartitionedEnergizationIndex(PowerSupplySystemGraph graph) throws LackPowerSupplies, ChargePowerSupply {
+        this(graph, graph.switchStates(null));
+    }
+
+    /**
+     * Partitions the given graph, and indexes it under the given switch
+     * states.
+     *
+     * @throws IllegalArgumentException if the vector is not of the size of the
+     *                                  switches of the graph
+     * @throws LackPowerSupplies        if there are no power supplies in the system
+     * @throws ChargePowerSupply        if a power supply is connected to another
+     *                                  power supply
+     */
+    public PartitionedEnergizationIndex(PowerSupplySystemGraph graph, SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        this.graph = graph.compile();
+        this.graph.checkSwitchStates(closedSwitches);
+        if (this.graph.powerSupplyPorts.length == 0) {
+            throw new LackPowerSupplies();
+        }
+        this.closedSwitches = closedSwitches.copy();
+        int numPorts = this.graph.numPorts;
+
+        nodes = new int[numPorts];
+        int n = 0;
+        for (int p = 0; p < numPorts; p++) {
+            byte type = this.graph.portTypes[p];
+            nodes[p] = type == CompiledGraph.TYPE_BUS || type == CompiledGraph.TYPE_POWER_SUPPLY ? n++ : -1;
+        }
+        numNodes = n;
+
+        IntList edges = new IntList();
+        for (int p = 0; p < numPorts; p++) {
+            if (this.graph.portTypes[p] == CompiledGraph.TYPE_BUS) {
+                for (int slot = this.graph.offsets.get(p); slot < this.graph.offsets.get(p + 1); slot++) {
+                    int q = this.graph.neighbours.get(slot);
+                    if (p < q && this.graph.portTypes[q] == CompiledGraph.TYPE_BUS) {
+                        edges.add(nodes[p]);
+                        edges.add(nodes[q]);
+                    }
+                }
+            }
+        }
+        busEdges = edges.toArray();
+
+        partitionOf = new int[numPorts];
+        Arrays.fill(partitionOf, -1);
+        localIndices = new int[numPorts];
+        List<Partition> res = new ArrayList<>();
+        // the last partition touching every bus, and the index of the bus in it
+        int[] boundaryStamps = new int[numPorts];
+        Arrays.fill(boundaryStamps, -1);
+        int[] boundaryIndices = new int[numPorts];
+        IntList queue = new IntList();
+        IntList boundaries = new IntList();
+        for (int p = 0; p < numPorts; p++) {
+            if (this.graph.portTypes[p] == CompiledGraph.TYPE_BUS || partitionOf[p] >= 0) {
+                continue;
+            }
+            int id = res.size();
+            queue.clear();
+            boundaries.clear();
+            queue.add(p);
+            partitionOf[p] = id;
+            for (int head = 0; head < queue.size(); head++) {
+                int q = queue.get(head);
+                localIndices[q] = head;
+                for (int slot = this.graph.offsets.get(q); slot < this.graph.offsets.get(q + 1); slot++) {
+                    int r = this.graph.neighbours.get(slot);
+                    if (this.graph.portTypes[r] == CompiledGraph.TYPE_BUS) {
+                        if (boundaryStamps[r] != id) {
+                            boundaryStamps[r] = id;
+                            boundaryIndices[r] = boundaries.size();
+                            boundaries.add(r);
+                        }
+                    } else if (partitionOf[r] < 0) {
+                        partitionOf[r] = id;
+                        queue.add(r);
+                    }
+                }
+                int sibling = this.graph.siblings[q];
+                if (sibling >= 0 && partitionOf[sibling] < 0) {
+                    partitionOf[sibling] = id;
+                    queue.add(sibling);
+                }
+            }
+            int[] ports = queue.toArray();
+            // the edges, each once, the buses after the ports of the partition
+            IntList links = new IntList();
+            IntList devicePorts = new IntList();
+            for (int q : ports) {
+                for (int slot = this.graph.offsets.get(q); slot < this.graph.offsets.get(q + 1); slot++) {
+                    int r = this.graph.neighbours.get(slot);
+                    if (this.graph.portTypes[r] == CompiledGraph.TYPE_BUS) {
+                        links.add(localIndices[q]);
+                        links.add(ports.length + boundaryIndices[r]);
+                    } else if (q < r) {
+                        links.add(localIndices[q]);
+                        links.add(localIndices[r]);
+                    }
+                }
+                if (this.graph.siblings[q] > q) {
+                    devicePorts.add(q);
+                }
+            }
+            res.add(new Partition(ports, boundaries.toArray(), links.toArray(), devicePorts.toArray()));
+        }
+        partitions = res.toArray(new Partition[0]);
+        dirty = new boolean[partitions.length];
+        for (int i = 0; i < partitions.length; i++) {
+            partitions[i].summarize();
+        }
+        findLinkingPartitions();
+        stitch();
+    }
+
+    /**
+     * The ports of a partition, its boundary, and its summary under the
+     * current switch states.
+     */
+    private final class Partition {
+        final int[] ports;
+
+        // the buses touched, local indices follow the ones of the ports
+        final int[] boundaries;
+
+        // the edges, as pairs of local indices
+        final int[] links;
+
+        // the first port of every device with two ports
+        final int[] devicePorts;
+
+        // the local component of every port and bus
+        int[] components;
+
+        // the key of every local component, or -1. A key is a component with
+        // buses or power supplies, which is a node of the boundary graph
+        int[] keys;
+
+        // the nodes of every key, in compressed sparse row form
+        int[] keyOffsets;
+        int[] keyNodes;
+
+        // the keys feeding a key through diodes, as pairs of nodes
+        int[] arcs;
+
+        // the keys feeding every other component through diodes, in
+        // compressed sparse row form
+        int[] feedOffsets;
+        int[] feeds;
+
+        // if a key has several nodes, or feeds another key
+        boolean linking;
+
+        Partition(int[] ports, int[] boundaries, int[] links, int[] devicePorts) {
+            this.ports = ports;
+            this.boundaries = boundaries;
+            this.links = links;
+            this.devicePorts = devicePorts;
+        }
+
+        int nodeOf(int key) {
+            return keyNodes[keyOffsets[key]];
+        }
+
+        void summarize() {
+            summaries++;
+            int size = ports.length + boundaries.length;
+            Components merged = new Components(size);
+            for (int i = 0; i < links.length; i += 2) {
+                merged.union(links[i], links[i + 1]);
+            }
+            IntList diodes = new IntList();
+            for (int p : devicePorts) {
+                int sibling = graph.siblings[p];
+                boolean forward = graph.conducts(p, closedSwitches);
+                boolean backward = graph.conducts(sibling, closedSwitches);
+                if (forward && backward) {
+                    merged.union(localIndices[p], localIndices[sibling]);
+                } else if (forward) {
+                    diodes.add(localIndices[p]);
+                    diodes.add(localIndices[sibling]);
+                } else if (backward) {
+                    diodes.add(localIndices[sibling]);
+                    diodes.add(localIndices[p]);
+                }
+            }
+
+            components = merged.label();
+            int numComponents = merged.getNumComponents();
+
+            // the keys, and their nodes
+            keys = new int[numComponents];
+            Arrays.fill(keys, -1);
+            int numKeys = 0;
+            int numKeyNodes = 0;
+            for (int i = 0; i < size; i++) {
+                int node = nodeAt(i);
+                if (node >= 0) {
+                    if (keys[components[i]] < 0) {
+                        keys[components[i]] = numKeys++;
+                    }
+                    numKeyNodes++;
+                }
+            }
+            keyOffsets = new int[numKeys + 1];
+            keyNodes = new int[numKeyNodes];
+            for (int i = 0; i < size; i++) {
+                if (nodeAt(i) >= 0) {
+                    keyOffsets[keys[components[i]] + 1]++;
+                }
+            }
+            for (int k = 0; k < numKeys; k++) {
+                keyOffsets[k + 1] += keyOffsets[k];
+            }
+            int[] cursors = Arrays.copyOf(keyOffsets, numKeys);
+            for (int i = 0; i < size; i++) {
+                int node = nodeAt(i);
+                if (node >= 0) {
+                    keyNodes[cursors[keys[components[i]]]++] = node;
+                }
+            }
+
+            // the diodes between components, in compressed sparse row form
+            int[] arcOffsets = new int[numComponents + 1];
+            for (int i = 0; i < diodes.size(); i += 2) {
+                arcOffsets[components[diodes.get(i)] + 1]++;
+            }
+            for (int c = 0; c < numComponents; c++) {
+                arcOffsets[c + 1] += arcOffsets[c];
+            }
+            int[] targets = new int[diodes.size() / 2];
+            cursors = Arrays.copyOf(arcOffsets, numComponents);
+            for (int i = 0; i < diodes.size(); i += 2) {
+                targets[cursors[components[diodes.get(i)]]++] = components[diodes.get(i + 1)];
+            }
+
+            // follow the diodes from every key, up to the next keys
+            IntList keyArcs = new IntList();
+            IntList fed = new IntList();
+            int[] reachedBy = new int[numComponents];
+            IntList queue = new IntList();
+            for (int c = 0; c < numComponents; c++) {
+                int key = keys[c];
+                if (key < 0 || arcOffsets[c] == arcOffsets[c + 1]) {
+                    continue;
+                }
+                queue.clear();
+                queue.add(c);
+                reachedBy[c] = key + 1;
+                for (int head = 0; head < queue.size(); head++) {
+                    int component = queue.get(head);
+                    for (int a = arcOffsets[component]; a < arcOffsets[component + 1]; a++) {
+                        int target = targets[a];
+                        if (reachedBy[target] == key + 1) {
+                            continue;
+                        }
+                        reachedBy[target] = key + 1;
+                        if (keys[target] >= 0) {
+                            keyArcs.add(nodeOf(key));
+                            keyArcs.add(nodeOf(keys[target]));
+                        } else {
+                            fed.add(target);
+                            fed.add(key);
+                            queue.add(target);
+                        }
+                    }
+                }
+            }
+            arcs = keyArcs.toArray();
+            linking = arcs.length > 0 || numKeyNodes > numKeys;
+            feedOffsets = new int[numComponents + 1];
+            for (int i = 0; i < fed.size(); i += 2) {
+                feedOffsets[fed.get(i) + 1]++;
+            }
+            for (int c = 0; c < numComponents; c++) {
+                feedOffsets[c + 1] += feedOffsets[c];
+            }
+            feeds = new int[fed.size() / 2];
+            cursors = Arrays.copyOf(feedOffsets, numComponents);
+            for (int i = 0; i < fed.size(); i += 2) {
+                feeds[cursors[fed.get(i)]++] = fed.get(i + 1);
+            }
+        }
+
+        // the node of the port or bus of the given local index, or -1
+        private int nodeAt(int i) {
+            return i < ports.length ? nodes[ports[i]] : nodes[boundaries[i - ports.length]];
+        }
+    }
+
+    private void findLinkingPartitions() {
+        IntList res = new IntList();
+        for (int i = 0; i < partitions.length; i++) {
+            if (partitions[i].linking) {
+                res.add(i);
+            }
+        }
+        linkingPartitions = res.toArray();
+    }
+
+    /**
+     * Stitches the summaries into the boundary graph, and follows every power
+     * supply in it, like {@link EnergizationIndex} does in the whole graph.
+     */
+    private void stitch() throws ChargePowerSupply {
+        Components merged = new Components(numNodes);
+        for (int i = 0; i < busEdges.length; i += 2) {
+            merged.union(busEdges[i], busEdges[i + 1]);
+        }
+        for (int index : linkingPartitions) {
+            Partition partition = partitions[index];
+            for (int k = 0; k + 1 < partition.keyOffsets.length; k++) {
+                for (int i = partition.keyOffsets[k] + 1; i < partition.keyOffsets[k + 1]; i++) {
+                    merged.union(partition.keyNodes[partition.keyOffsets[k]], partition.keyNodes[i]);
+                }
+            }
+        }
+        int[] components = merged.label();
+
+        IntList arcs = new IntList();
+        for (int index : linkingPartitions) {
+            Partition partition = partitions[index];
+            for (int i = 0; i < partition.arcs.length; i += 2) {
+                arcs.add(components[partition.arcs[i]]);
+                arcs.add(components[partition.arcs[i + 1]]);
+            }
+        }
+        int[] roots = graph.powerSupplyPorts;
+        int[] rootComponents = new int[roots.length];
+        for (int t = 0; t < roots.length; t++) {
+            rootComponents[t] = components[nodes[roots[t]]];
+        }
+        supplies = merged.feed(graph, rootComponents, arcs);
+        nodeComponents = components;
+        stitched = true;
+    }
+
+    /**
+     * @return the number of partitions the graph is cut into
+     */
+    public int getNumPartitions() {
+        return partitions.length;
+    }
+
+    /**
+     * @return a copy of the switch states the index is kept under
+     */
+    public SwitchStateVector getSwitchStates() {
+        return closedSwitches.copy();
+    }
+
+    /**
+     * Opens or closes a switch. The index is brought up to date by the next
+     * query.
+     *
+     * @throws NoSuchDevice             if there's no such device in the system
+     * @throws IllegalArgumentException if the device is not a switch
+     */
+    public void setSwitch(String switchName, boolean closed) throws NoSuchDevice, IllegalArgumentException {
+        setSwitch(graph.switchIndexOf(switchName), closed);
+    }
+
+    /**
+     * Sets the state of every switch, only the partitions of the switches
+     * which change are summed up again.
+     *
+     * @throws IllegalArgumentException if the vector is not of the size of the
+     *                                  switches of the graph
+     */
+    public void setSwitchStates(SwitchStateVector closedSwitches) throws IllegalArgumentException {
+        graph.checkSwitchStates(closedSwitches);
+        for (int i = 0; i < closedSwitches.size(); i++) {
+            setSwitch(i, closedSwitches.get(i));
+        }
+    }
+
+    private void setSwitch(int switchIndex, boolean closed) {
+        if (closedSwitches.get(switchIndex) == closed) {
+            return;
+        }
+        closedSwitches.set(switchIndex, closed);
+        stitched = false;
+        int partition = partitionOf[graph.switchPorts[switchIndex]];
+        if (!dirty[partition]) {
+            dirty[partition] = true;
+            dirtyPartitions.add(partition);
+        }
+    }
+
+    // sums up the dirty partitions again, and stitches the summaries
+    private void refresh() throws ChargePowerSupply {
+        if (stitched) {
+            return;
+        }
+        boolean linkingChanged = false;
+        for (int i = 0; i < dirtyPartitions.size(); i++) {
+            Partition partition = partitions[dirtyPartitions.get(i)];
+            boolean linking = partition.linking;
+            partition.summarize();
+            linkingChanged |= linking != partition.linking;
+            dirty[dirtyPartitions.get(i)] = false;
+        }
+        dirtyPartitions.clear();
+        if (linkingChanged) {
+            findLinkingPartitions();
+        }
+        stitch();
+    }
+
+    // the power supplies feeding the given port, as in supplies, or null
+    private int[] suppliesOf(int port) {
+        refresh();
+        if (nodes[port] >= 0) {
+            return supplies[nodeComponents[nodes[port]]];
+        }
+        Partition partition = partitions[partitionOf[port]];
+        int component = partition.components[localIndices[port]];
+        if (partition.keys[component] >= 0) {
+            return supplies[nodeComponents[partition.nodeOf(partition.keys[component])]];
+        }
+        int from = partition.feedOffsets[component];
+        int to = partition.feedOffsets[component + 1];
+        if (to - from == 1) {
+            return supplies[nodeComponents[partition.nodeOf(partition.feeds[from])]];
+        }
+        IntList res = new IntList();
+        for (int i = from; i < to; i++) {
+            int[] fed = supplies[nodeComponents[partition.nodeOf(partition.feeds[i])]];
+            if (fed != null) {
+                for (int t : fed) {
+                    res.add(t);
+                }
+            }
+        }
+        if (res.size() == 0) {
+            return null;
+        }
+        int[] sorted = res.toArray();
+        Arrays.sort(sorted);
+        int size = 1;
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[size - 1]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, size);
+    }
+
+    /**
+     * @param portId the id of the port
+     * @return if a power supply feeds the port
+     * @throws InvalidPort       if there's no such port in the graph
+     * @throws ChargePowerSupply if a power supply is connected to another
+     *                           under the current switch states
+     */
+    public boolean isPowered(String portId) throws InvalidPort, ChargePowerSupply {
+        return suppliesOf(graph.indexOf(portId)) != null;
+    }
+
+    /**
+     * @param portId the id of the port
+     * @return the power supplies feeding the port, in the order of the trees
+     *         of the forest, an empty list if none does
+     * @throws InvalidPort       if there's no such port in the graph
+     * @throws ChargePowerSupply if a power supply is connected to another
+     *                           under the current switch states
+     */
+    public List<BaseDevice> suppliesOf(String portId) throws InvalidPort, ChargePowerSupply {
+        int[] fed = suppliesOf(graph.indexOf(portId));
+        if (fed == null) {
+            return Collections.emptyList();
+        }
+        List<BaseDevice> res = new ArrayList<>(fed.length);
+        for (int t : fed) {
+            res.add(graph.portDevices[graph.powerSupplyPorts[t]]);
+        }
+        return Collections.unmodifiableList(res);
+    }
+}
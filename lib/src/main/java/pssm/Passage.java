@@ -1,6 +1,7 @@
 package pssm;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 import org.apache.commons.math3.util.Pair;
 
@@ -13,4 +14,16 @@ import org.apache.commons.math3.util.Pair;
  * see https://stackoverflow.com/a/1195242/2687929
  */
 public final class Passage extends ArrayList<Pair<String, Integer>> {
+    public Passage() {
+    }
+
+    // takes the hops in order, from the power supply to the destination
+    Passage(Pair<String, Integer>[] hops) {
+        super(Arrays.asList(hops));
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static Pair<String, Integer>[] newHops(int size) {
+        return new Pair[size];
+    }
 }
\ No newline at end of file
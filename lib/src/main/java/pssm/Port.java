@@ -11,9 +11,18 @@ final public class Port {
     public BaseDevice device;
     public int index;
     public List<Pair<Port, Object>> adjList;
+    // dense index of the port in its graph, see CompiledGraph
+    int ordinal;
+    // the handle given out by the graph, or null
+    PortHandle handle;
+    // built on first use
+    private String id;
 
     public String getId() {
-        return this.device.name + "." + this.index;
+        if (id == null) {
+            id = Utils.genPortId(device.name, index);
+        }
+        return id;
     }
 
     public Port(BaseDevice device, int index) {
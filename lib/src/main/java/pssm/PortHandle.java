@@ -0,0 +1,48 @@
+package pssm;
+
+import pssm.devices.BaseDevice;
+
+/**
+ * A port of a graph, as given out by
+ * {@link PowerSupplySystemGraph#addDevice(BaseDevice)}. There's a single
+ * handle per port, so handles could be compared by identity, and the id of the
+ * port is built only once.
+ */
+public final class PortHandle {
+    final PowerSupplySystemGraph graph;
+
+    final Port port;
+
+    private final String id;
+
+    PortHandle(PowerSupplySystemGraph graph, Port port) {
+        this.graph = graph;
+        this.port = port;
+        this.id = port.getId();
+    }
+
+    public BaseDevice getDevice() {
+        return port.device;
+    }
+
+    public int getPortIndex() {
+        return port.index;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * @return the dense index of the port, as used by {@link CompiledGraph} and
+     *         {@link CompactPassage}
+     */
+    public int getOrdinal() {
+        return port.ordinal;
+    }
+
+    @Override
+    public String toString() {
+        return id;
+    }
+}
@@ -1,19 +1,25 @@
 package pssm;
 
+import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 
 import org.apache.commons.math3.util.Pair;
 
 import pssm.devices.BaseDevice;
-import pssm.devices.DcDc;
-import pssm.devices.Diode;
-import pssm.devices.PowerSupply;
-import pssm.devices.Switch;
 import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.ClosedLoop;
 import pssm.exceptions.DuplicateDevice;
 import pssm.exceptions.DuplicateEdge;
 import pssm.exceptions.InvalidPort;
@@ -24,80 +30,317 @@ final public class PowerSupplySystemGraph {
     private Map<String, Port> ports;
 
     public Map<String, Port> getPorts() {
+        ensureRestored();
         return ports;
     }
 
     private Map<String, BaseDevice> devices;
 
     public Map<String, BaseDevice> getDevices() {
+        ensureRestored();
         return devices;
     }
 
     private List<Edge> edges;
 
     public List<Edge> getEdges() {
+        ensureRestored();
         return edges;
     }
 
+    /**
+     * @return the typed attributes of the edges, by the positions of the edges
+     *         in {@link #getEdges()}
+     */
+    public EdgeAttributes getEdgeAttributes() {
+        ensureRestored();
+        return edgeAttributes;
+    }
+
+    private CompiledGraph compiled;
+
+    private ForestCache forestCache;
+
+    private LoopPolicy loopPolicy = LoopPolicy.KEEP_FIRST_FEED;
+
+    private ForkJoinPool forestPool;
+
+    private volatile TraversalListener traversalListener;
+
+    // the pair of port ordinals of every edge, see edgeKey()
+    private LongHashSet edgeKeys;
+
+    // what a graph loaded from a snapshot is rebuilt from, until it's needed,
+    // see restore()
+    private volatile Restoring restoring;
+
+    private final EdgeAttributes edgeAttributes;
+
     public PowerSupplySystemGraph() {
-        ports = new HashMap<>();
-        devices = new HashMap<>();
+        this(EdgeSchema.EMPTY);
+    }
+
+    /**
+     * Creates a graph whose edges have the attributes of the given schema, see
+     * {@link #getEdgeAttributes()}.
+     */
+    public PowerSupplySystemGraph(EdgeSchema edgeSchema) {
+        // keep insertion order, so ports could be numbered densely, see compile()
+        ports = new LinkedHashMap<>();
+        devices = new LinkedHashMap<>();
         edges = new ArrayList<>();
+        edgeKeys = new LongHashSet();
+        edgeAttributes = new EdgeAttributes(edgeSchema, 0);
+    }
+
+    private PowerSupplySystemGraph(int expectedDevices, int expectedPorts, int expectedEdges,
+            EdgeSchema edgeSchema) {
+        ports = new LinkedHashMap<>(capacityFor(expectedPorts));
+        devices = new LinkedHashMap<>(capacityFor(expectedDevices));
+        edges = new ArrayList<>(expectedEdges);
+        edgeKeys = new LongHashSet(expectedEdges);
+        edgeAttributes = new EdgeAttributes(edgeSchema, expectedEdges);
+    }
+
+    private static int capacityFor(int expectedSize) {
+        return Math.max(16, (int) (expectedSize / 0.75f) + 1);
+    }
+
+    private static long edgeKey(Port first, Port second) {
+        int a = Math.min(first.ordinal, second.ordinal);
+        int b = Math.max(first.ordinal, second.ordinal);
+        return ((long) a << 32) | b;
+    }
+
+    /**
+     * Compiles the graph into its integer indexed form, which is what the
+     * traversals run on. The result is cached until the next change of the
+     * topology.
+     * 
+     * @return the compiled graph
+     */
+    public CompiledGraph compile() {
+        if (compiled == null) {
+            compiled = CompiledGraph.of(devices.values(), new ArrayList<>(ports.values()), edges);
+        }
+        return compiled;
+    }
+
+    /**
+     * Caches the forests generated by {@link #genForest(Map)} and
+     * {@link #findPassages(List, Map)}, keyed by the resulting state of every
+     * switch, so asking about the same configuration again costs a lookup. The
+     * cache is emptied whenever the topology changes.
+     * 
+     * @param maximumSize the number of forests to keep, the least recently used
+     *                    one is evicted first
+     * @return the cache, which also holds its hit and miss counters
+     */
+    public ForestCache enableForestCache(int maximumSize) {
+        forestCache = new ForestCache(maximumSize);
+        return forestCache;
+    }
+
+    public void disableForestCache() {
+        forestCache = null;
+    }
+
+    /**
+     * @return the forest cache, or null if it's not enabled
+     */
+    public ForestCache getForestCache() {
+        return forestCache;
+    }
+
+    public LoopPolicy getLoopPolicy() {
+        return loopPolicy;
+    }
+
+    /**
+     * Sets what the traversals do when the switches close a loop, so that a
+     * port is fed twice by the same power supply. The default is
+     * {@link LoopPolicy#KEEP_FIRST_FEED}.
+     * 
+     * @param loopPolicy the policy
+     */
+    public void setLoopPolicy(LoopPolicy loopPolicy) {
+        if (loopPolicy == null) {
+            throw new IllegalArgumentException("loop policy must not be null");
+        }
+        this.loopPolicy = loopPolicy;
+        if (forestCache != null) {
+            forestCache.clear();
+        }
+    }
+
+    /**
+     * Makes the trees of a forest be generated concurrently on the given pool,
+     * one task per power supply. The forests are the same as when they are
+     * generated one tree after another, and so are the exceptions thrown.
+     * 
+     * @param forestPool the pool, or null to generate the trees one after
+     *                   another, which is the default
+     */
+    public void setForestPool(ForkJoinPool forestPool) {
+        this.forestPool = forestPool;
+    }
+
+    public ForkJoinPool getForestPool() {
+        return forestPool;
+    }
+
+    /**
+     * Reports the traversals of this graph to the given listener: a
+     * {@link TraversalEvent.Kind#GEN_FOREST} per call of {@link #genForest(Map)}
+     * and its variants, a {@link TraversalEvent.Kind#FIND_PASSAGES} per call of
+     * {@link #findPassages(List, Map)}, {@link #findCompactPassages(List, Map)},
+     * {@link #findPassagesTo(List, SwitchStateVector)} and their variants, and
+     * per scenario of {@link #findPassagesBatch(List, Collection, Executor)},
+     * and a {@link TraversalEvent.Kind#FIND_UPSTREAM_PASSAGES} per call of
+     * {@link #findUpstreamPassages(List, Map)} and its variants. A forest
+     * generated to find passages is reported as part of the call finding them.
+     * With no listener, which is the default, nothing is measured at all.
+     *
+     * @param traversalListener the listener, see {@link TraversalMetrics}, or
+     *                          null to stop reporting
+     */
+    public void setTraversalListener(TraversalListener traversalListener) {
+        this.traversalListener = traversalListener;
+    }
+
+    public TraversalListener getTraversalListener() {
+        return traversalListener;
+    }
+
+    private void topologyChanged() {
+        compiled = null;
+        if (forestCache != null) {
+            forestCache.clear();
+        }
     }
 
     /**
      * Adds a device to the power supply system graph.
      * 
      * @param device the device to be added
+     * @return the handles of the ports of the device, in the order of their
+     *         indices
      * @throws DuplicateDevice if a device with the same name already exists in the
      *                         graph
      */
-    public <T extends BaseDevice> void addDevice(T device) throws DuplicateDevice {
+    public <T extends BaseDevice> List<PortHandle> addDevice(T device) throws DuplicateDevice {
+        ensureRestored();
+        List<PortHandle> handles = putDevice(device);
+        topologyChanged();
+        return handles;
+    }
 
+    private List<PortHandle> putDevice(BaseDevice device) throws DuplicateDevice {
         if (devices.containsKey(device.name)) {
             throw new DuplicateDevice(device.name);
         }
         devices.put(device.name, device);
+        List<PortHandle> handles = new ArrayList<>(device.getNumPorts());
         for (int i = 0; i < device.getNumPorts(); i++) {
             Port port = new Port(device, i);
+            port.ordinal = ports.size();
+            port.handle = new PortHandle(this, port);
             ports.put(port.getId(), port);
+            handles.add(port.handle);
+        }
+        return handles;
+    }
+
+    /**
+     * @param portId the id of the port
+     * @return the handle of the port
+     * @throws InvalidPort if there's no such port in the graph
+     */
+    public PortHandle getPortHandle(String portId) throws InvalidPort {
+        ensureRestored();
+        Port port = ports.get(portId);
+        if (port == null) {
+            throw new InvalidPort(portId);
         }
+        return port.handle;
     }
 
-    public void addEdge(Pair<String, Integer> first, Pair<String, Integer> second) {
-        addEdge(first, second, null);
+    private Port portOf(PortHandle handle) throws InvalidPort {
+        if (handle.graph != this) {
+            throw new InvalidPort(handle.getId());
+        }
+        return handle.port;
     }
 
-    public void addEdge(Pair<String, Integer> first, Pair<String, Integer> second, Object extras) {
-        addEdge(Utils.genPortId(first), Utils.genPortId(second), extras);
+    public int addEdge(Pair<String, Integer> first, Pair<String, Integer> second) {
+        return addEdge(first, second, null);
     }
 
-    public void addEdge(String firstPortId, String secondPortId) {
-        addEdge(firstPortId, secondPortId, null);
+    public int addEdge(Pair<String, Integer> first, Pair<String, Integer> second, Object extras) {
+        return addEdge(Utils.genPortId(first), Utils.genPortId(second), extras);
     }
 
-    public void addEdge(String firstPortId, String secondPortId, Object extras)
+    public int addEdge(String firstPortId, String secondPortId) {
+        return addEdge(firstPortId, secondPortId, null);
+    }
+
+    /**
+     * Adds an edge between two ports, given by their ids.
+     *
+     * @return the id of the edge, to set its attributes, see
+     *         {@link #getEdgeAttributes()}
+     * @throws InvalidPort   if there's no such port
+     * @throws DuplicateEdge if the ports are connected already
+     */
+    public int addEdge(String firstPortId, String secondPortId, Object extras)
             throws InvalidPort, DuplicateEdge {
-        if (!ports.containsKey(firstPortId)) {
+        ensureRestored();
+        Port firstPort = ports.get(firstPortId);
+        if (firstPort == null) {
             throw new InvalidPort(firstPortId);
         }
-        if (!ports.containsKey(secondPortId)) {
+        Port secondPort = ports.get(secondPortId);
+        if (secondPort == null) {
             throw new InvalidPort(secondPortId);
         }
-        Port firstPort = ports.get(firstPortId);
-        Port secondPort = ports.get(secondPortId);
+        return addEdge(firstPort, secondPort, extras);
+    }
 
-        for (Pair<Port, Object> neighbour : firstPort.adjList) {
-            if (neighbour.getFirst().getId().equals(secondPortId)) {
-                throw new DuplicateEdge(firstPortId, secondPortId, extras);
-            }
+    public int addEdge(PortHandle first, PortHandle second) {
+        return addEdge(first, second, null);
+    }
+
+    /**
+     * Adds an edge between two ports, given by the handles returned by
+     * {@link #addDevice(BaseDevice)}.
+     * 
+     * @return the id of the edge, to set its attributes, see
+     *         {@link #getEdgeAttributes()}
+     * @throws InvalidPort  if a handle is not one of this graph
+     * @throws DuplicateEdge if the ports are connected already
+     */
+    public int addEdge(PortHandle first, PortHandle second, Object extras) throws InvalidPort, DuplicateEdge {
+        return addEdge(portOf(first), portOf(second), extras);
+    }
+
+    private int addEdge(Port firstPort, Port secondPort, Object extras) throws DuplicateEdge {
+        int edge = putEdge(firstPort, secondPort, extras);
+        topologyChanged();
+        return edge;
+    }
+
+    // returns the id of the edge
+    private int putEdge(Port firstPort, Port secondPort, Object extras) throws DuplicateEdge {
+        if (!edgeKeys.add(edgeKey(firstPort, secondPort))) {
+            throw new DuplicateEdge(firstPort.getId(), secondPort.getId(), extras);
         }
         Edge edge = new Edge(firstPort, secondPort, extras);
         edges.add(edge);
+        edgeAttributes.addEdge();
 
         firstPort.adjList.add(new Pair<>(secondPort, extras));
         secondPort.adjList.add(new Pair<>(firstPort, extras));
-
+        return edges.size() - 1;
     }
 
     public List<PowerSupplySystemTree> genForest() {
@@ -118,88 +361,84 @@ final public class PowerSupplySystemGraph {
      * @throws LackPowerSupplies        if there are no power supplies in the system
      * @throws ChargePowerSupply        if a power supply is connected to another
      *                                  power supply
+     * @throws ClosedLoop               if the switches close a loop and the loop
+     *                                  policy is {@link LoopPolicy#REPORT}
      */
     public List<PowerSupplySystemTree> genForest(Map<String, Boolean> truthTableArg)
-            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
-        Map<String, Boolean> truthTable = truthTableArg == null ? new HashMap<>() : truthTableArg;
-        // check truth table
-        for (String key : truthTable.keySet()) {
-            if (!this.devices.containsKey(key)) {
-                throw new NoSuchDevice(key);
-            }
-            BaseDevice device = this.devices.get(key);
-            if (!(device instanceof Switch)) {
-                throw new IllegalArgumentException(key + " is not a switch");
-            }
-        }
-
-        List<DirectedPort> directedRoots = new ArrayList<>();
-
-        for (Port port : this.ports.values()) {
-            if (port.device instanceof PowerSupply) {
-                DirectedPort directedRoot = new DirectedPort(port.device, port.index);
-                directedRoots.add(directedRoot);
-            }
-        }
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        CompiledGraph compiledGraph = compile();
+        return genForest(compiledGraph, compiledGraph.switchStates(truthTableArg));
+    }
 
-        if (directedRoots.isEmpty()) {
-            throw new LackPowerSupplies();
-        }
-
-        List<PowerSupplySystemTree> forest = new ArrayList<>();
-
-        for (DirectedPort directedRoot : directedRoots) {
-            assert directedRoot.device instanceof PowerSupply;
-            // list of candidates and their parent
-            final List<Pair<DirectedPort, DirectedPort>> stack = new LinkedList<>();
-            // power supply is the root, so it has no parent
-            stack.add(Pair.create(directedRoot, null));
-            Map<String, DirectedPort> visited = new HashMap<>();
-
-            while (!stack.isEmpty()) {
-                Pair<DirectedPort, DirectedPort> pair = stack.remove(0);
-                DirectedPort candidate = pair.getFirst();
-                visited.put(candidate.getId(), candidate);
-                DirectedPort parent = pair.getSecond();
-                // NOTE: 注意一定要克隆出一个新的列表, 因为要修改该列表
-                List<Pair<Port, Object>> adjList = new ArrayList<>(ports.get(candidate.getId()).adjList);
-                BaseDevice candidateDevice = candidate.device;
-                boolean isClosedSwitch = (candidateDevice instanceof Switch)
-                        && truthTable.getOrDefault(candidateDevice.name,
-                                ((Switch) candidateDevice).isClosed());
-                boolean isDcDc = candidateDevice instanceof DcDc;
-                boolean isDiodePort0 = candidateDevice instanceof Diode && candidate.portIndex == 0;
-
-                if (isClosedSwitch || isDcDc || isDiodePort0) {
-                    Port theOtherPort = ports.get(Utils.genPortId(candidateDevice.name, 1 - candidate.portIndex));
-                    // 这个边是模拟出来的，所以没有extras
-                    adjList.add(Pair.create(theOtherPort, null));
-                }
+    /**
+     * Resolves a truth table to the state of every switch, see
+     * {@link CompiledGraph#switchStates(Map)}. The vector stays valid as long as
+     * no switch is added or removed.
+     */
+    public SwitchStateVector switchStates(Map<String, Boolean> truthTableArg)
+            throws NoSuchDevice, IllegalArgumentException {
+        return compile().switchStates(truthTableArg);
+    }
 
-                for (Pair<Port, Object> neighbour : adjList) {
-                    Port childPort = neighbour.getFirst();
-                    Object extras = neighbour.getSecond();
-                    // 避免回溯到父节点
-                    if (parent != null && childPort.getId().equals(parent.getId())) {
-                        continue;
-                    }
-                    if (childPort.device instanceof PowerSupply) {
-                        throw new ChargePowerSupply(directedRoot.device, childPort.device);
-                    }
-                    DirectedPort directedChildPort = new DirectedPort(childPort.device, childPort.index);
-                    candidate.children.add(directedChildPort);
-                    directedChildPort.setParent(candidate);
-                    DirectedEdge directedEdge = new DirectedEdge(candidate, directedChildPort, extras);
-                    candidate.edges.add(directedEdge);
+    /**
+     * Like {@link #genForest(Map)}, but the state of every switch is given, see
+     * {@link #switchStates(Map)}.
+     * 
+     * @throws IllegalArgumentException if the vector is not of the size of the
+     *                                  switches of this graph
+     */
+    public List<PowerSupplySystemTree> genForestFor(SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        return genForest(compile(), closedSwitches);
+    }
 
-                    stack.add(Pair.create(directedChildPort, candidate));
-                }
-            }
+    private List<PowerSupplySystemTree> genForest(CompiledGraph compiledGraph, SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        TraversalListener listener = traversalListener;
+        if (listener == null) {
+            return genForest(compiledGraph, closedSwitches, loopPolicy, null);
+        }
+        TraversalEvent event = new TraversalEvent(TraversalEvent.Kind.GEN_FOREST, compiledGraph);
+        try {
+            return genForest(compiledGraph, closedSwitches, loopPolicy, event);
+        } catch (ChargePowerSupply e) {
+            event.conflict(e);
+            throw e;
+        } finally {
+            listener.onTraversal(event.done());
+        }
+    }
 
-            PowerSupplySystemTree tree = new PowerSupplySystemTree(directedRoot, visited);
-            forest.add(tree);
+    /**
+     * @param event the event to count the trees generated in, or null
+     */
+    private List<PowerSupplySystemTree> genForest(CompiledGraph compiledGraph, SwitchStateVector closedSwitches,
+            LoopPolicy loopPolicy, TraversalEvent event)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        ForestCache cache = forestCache;
+        if (cache == null) {
+            return genForestUncached(compiledGraph, closedSwitches, loopPolicy, event);
+        }
+        compiledGraph.checkSwitchStates(closedSwitches);
+        List<PowerSupplySystemTree> forest = cache.get(closedSwitches);
+        if (forest == null) {
+            forest = Collections.unmodifiableList(genForestUncached(compiledGraph, closedSwitches, loopPolicy, event));
+            cache.put(closedSwitches, forest);
+        } else if (event != null) {
+            event.cached();
         }
+        return forest;
+    }
 
+    private List<PowerSupplySystemTree> genForestUncached(CompiledGraph compiledGraph,
+            SwitchStateVector closedSwitches, LoopPolicy loopPolicy, TraversalEvent event)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        ForkJoinPool pool = forestPool;
+        List<PowerSupplySystemTree> forest = pool == null ? compiledGraph.genForestFor(closedSwitches, loopPolicy)
+                : compiledGraph.genForestFor(closedSwitches, loopPolicy, pool);
+        if (event != null) {
+            event.built(forest);
+        }
         return forest;
     }
 
@@ -224,20 +463,597 @@ final public class PowerSupplySystemGraph {
     public Map<String, List<Passage>> findPassages(List<Pair<String, Integer>> destinations,
             Map<String, Boolean> truthTableArg)
             throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
-        Map<String, List<Passage>> res = new HashMap<>();
-        List<PowerSupplySystemTree> forest = genForest(truthTableArg);
-        for (Pair<String, Integer> port : destinations) {
-            String portId = Utils.genPortId(port);
+        CompiledGraph compiledGraph = compile();
+        return findPassages(compiledGraph, destinations, compiledGraph.switchStates(truthTableArg));
+    }
+
+    public Map<String, List<Passage>> findPassagesFor(List<Pair<String, Integer>> destinations,
+            SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        return findPassages(compile(), destinations, closedSwitches);
+    }
+
+    private Map<String, List<Passage>> findPassages(CompiledGraph compiledGraph,
+            List<Pair<String, Integer>> destinations, SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        return findPassages(compiledGraph, closedSwitches, loopPolicy,
+                forest -> CompiledGraph.findPassages(destinations, forest));
+    }
+
+    /**
+     * Generates the forest, and collects the passages out of it, reported as a
+     * single {@link TraversalEvent.Kind#FIND_PASSAGES}.
+     */
+    private <K, V extends List<?>> Map<K, V> findPassages(CompiledGraph compiledGraph,
+            SwitchStateVector closedSwitches, LoopPolicy loopPolicy,
+            Function<List<PowerSupplySystemTree>, Map<K, V>> collect)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        TraversalListener listener = traversalListener;
+        if (listener == null) {
+            return collect.apply(genForest(compiledGraph, closedSwitches, loopPolicy, null));
+        }
+        TraversalEvent event = new TraversalEvent(TraversalEvent.Kind.FIND_PASSAGES, compiledGraph);
+        try {
+            Map<K, V> res = collect.apply(genForest(compiledGraph, closedSwitches, loopPolicy, event));
+            for (V passages : res.values()) {
+                event.found(passages.size());
+            }
+            return res;
+        } catch (ChargePowerSupply e) {
+            event.conflict(e);
+            throw e;
+        } finally {
+            listener.onTraversal(event.done());
+        }
+    }
+
+    /**
+     * Like {@link #findPassages(List, Map)}, but the passages are kept as the
+     * indices of their ports in the compiled graph, which is far cheaper when
+     * many passages are asked for.
+     * 
+     * @param destinations  A list of pairs containing the ID of the destination
+     *                      port and the required voltage level.
+     * @param truthTableArg A map containing the truth table arguments.
+     * @return A map containing the ID of the destination port and a list of
+     *         passages to reach that port.
+     */
+    public Map<String, List<CompactPassage>> findCompactPassages(List<Pair<String, Integer>> destinations,
+            Map<String, Boolean> truthTableArg)
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        CompiledGraph compiledGraph = compile();
+        return findCompactPassages(compiledGraph, destinations, compiledGraph.switchStates(truthTableArg));
+    }
+
+    public Map<String, List<CompactPassage>> findCompactPassagesFor(List<Pair<String, Integer>> destinations,
+            SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        return findCompactPassages(compile(), destinations, closedSwitches);
+    }
+
+    private Map<String, List<CompactPassage>> findCompactPassages(CompiledGraph compiledGraph,
+            List<Pair<String, Integer>> destinations, SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        return findPassages(compiledGraph, closedSwitches, loopPolicy,
+                forest -> CompiledGraph.findCompactPassages(destinations, forest));
+    }
+
+    public Map<String, List<Passage>> findUpstreamPassages(List<Pair<String, Integer>> destinations) {
+        return findUpstreamPassages(destinations, null);
+    }
+
+    /**
+     * Finds the same passages as {@link #findPassages(List, Map)}, but instead
+     * of generating the whole forest it walks backwards from the destinations to
+     * the power supplies which could feed them, and only follows those. The
+     * cost is proportional to the part of the graph upstream of the
+     * destinations, which makes it the better choice for a few destinations on a
+     * large graph.
+     * 
+     * @param destinations  A list of pairs containing the ID of the destination
+     *                      port and the required voltage level.
+     * @param truthTableArg A map containing the truth table arguments.
+     * @return A map containing the ID of the destination port and a list of
+     *         passages to reach that port.
+     * @throws NoSuchDevice             if a device in the truth table does not
+     *                                  exist in the system
+     * @throws IllegalArgumentException if a device in the truth table is not a
+     *                                  switch
+     * @throws LackPowerSupplies        if there are no power supplies in the system
+     * @throws ChargePowerSupply        if a power supply feeding a destination is
+     *                                  connected to another power supply, other
+     *                                  power supplies are not checked
+     */
+    public Map<String, List<Passage>> findUpstreamPassages(List<Pair<String, Integer>> destinations,
+            Map<String, Boolean> truthTableArg)
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        return findUpstreamPassagesFor(destinations, switchStates(truthTableArg));
+    }
+
+    public Map<String, List<Passage>> findUpstreamPassagesFor(List<Pair<String, Integer>> destinations,
+            SwitchStateVector closedSwitches)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        CompiledGraph compiledGraph = compile();
+        TraversalListener listener = traversalListener;
+        if (listener == null) {
+            return CompiledGraph.toPassages(compiledGraph.findUpstreamPassages(destinations, closedSwitches,
+                    loopPolicy));
+        }
+        TraversalEvent event = new TraversalEvent(TraversalEvent.Kind.FIND_UPSTREAM_PASSAGES, compiledGraph);
+        try {
+            Map<String, List<Passage>> res = CompiledGraph.toPassages(compiledGraph.findUpstreamPassages(
+                    destinations, closedSwitches, loopPolicy));
+            for (List<Passage> passages : res.values()) {
+                event.found(passages.size());
+            }
+            return res;
+        } catch (ChargePowerSupply e) {
+            event.conflict(e);
+            throw e;
+        } finally {
+            listener.onTraversal(event.done());
+        }
+    }
+
+    public Map<PortHandle, List<CompactPassage>> findPassagesTo(List<PortHandle> destinations)
+            throws InvalidPort, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        return findPassagesTo(destinations, switchStates(null));
+    }
+
+    /**
+     * Like {@link #findCompactPassagesFor(List, SwitchStateVector)}, but the
+     * destinations are given, and the passages keyed, by their handles.
+     * 
+     * @param destinations   the handles of the destination ports
+     * @param closedSwitches the state of every switch
+     * @return the passages to reach each destination, destinations which are
+     *         not reached are left out
+     * @throws InvalidPort if a handle is not one of this graph
+     */
+    public Map<PortHandle, List<CompactPassage>> findPassagesTo(List<PortHandle> destinations,
+            SwitchStateVector closedSwitches)
+            throws InvalidPort, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        for (PortHandle destination : destinations) {
+            portOf(destination);
+        }
+        return findPassages(compile(), closedSwitches, loopPolicy, forest -> passagesTo(destinations, forest));
+    }
+
+    private static Map<PortHandle, List<CompactPassage>> passagesTo(List<PortHandle> destinations,
+            List<PowerSupplySystemTree> forest) {
+        Map<PortHandle, List<CompactPassage>> res = new HashMap<>();
+        for (PortHandle destination : destinations) {
             for (PowerSupplySystemTree tree : forest) {
-                Passage passage = tree.findPassage(port);
+                CompactPassage passage = tree.findCompactPassage(destination.getOrdinal());
                 if (passage != null) {
-                    if (!res.containsKey(portId)) {
-                        res.put(portId, new ArrayList<>());
+                    List<CompactPassage> passages = res.get(destination);
+                    if (passages == null) {
+                        passages = new ArrayList<>();
+                        res.put(destination, passages);
                     }
-                    res.get(portId).add(passage);
+                    passages.add(passage);
+                }
+            }
+        }
+        return res;
+    }
+
+    public List<Map<String, List<Passage>>> findPassagesBatch(List<Pair<String, Integer>> destinations,
+            Collection<Map<String, Boolean>> truthTables)
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        return findPassagesBatch(destinations, truthTables, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds passages for the given destinations under each of the given truth
+     * tables, the scenarios are evaluated concurrently on the given executor.
+     * 
+     * The truth tables are all checked, and the switch states resolved, before
+     * any scenario is evaluated. The scenarios then only read the compiled
+     * graph, so the graph must not be changed until this method returns.
+     * 
+     * @param destinations A list of pairs containing the ID of the destination
+     *                     port and the required voltage level.
+     * @param truthTables  the truth tables, one per scenario
+     * @param executor     the executor to run the scenarios on
+     * @return for each truth table, in the same order, what
+     *         {@link #findPassages(List, Map)} would return
+     * @throws NoSuchDevice             if a device in a truth table does not
+     *                                  exist in the system
+     * @throws IllegalArgumentException if a device in a truth table is not a
+     *                                  switch
+     * @throws LackPowerSupplies        if there are no power supplies in the system
+     * @throws ChargePowerSupply        if a power supply is connected to another,
+     *                                  the one of the first failing scenario is
+     *                                  thrown
+     */
+    public List<Map<String, List<Passage>>> findPassagesBatch(List<Pair<String, Integer>> destinations,
+            Collection<Map<String, Boolean>> truthTables, Executor executor)
+            throws NoSuchDevice, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        final CompiledGraph compiledGraph = compile();
+        final LoopPolicy loopPolicy = this.loopPolicy;
+        List<CompletableFuture<Map<String, List<Passage>>>> futures = new ArrayList<>(truthTables.size());
+        List<SwitchStateVector> scenarios = new ArrayList<>(truthTables.size());
+        for (Map<String, Boolean> truthTable : truthTables) {
+            scenarios.add(compiledGraph.switchStates(truthTable));
+        }
+        for (final SwitchStateVector closedSwitches : scenarios) {
+            futures.add(CompletableFuture.supplyAsync(() -> findPassages(compiledGraph, closedSwitches, loopPolicy,
+                    forest -> CompiledGraph.findPassages(destinations, forest)), executor));
+        }
+        List<Map<String, List<Passage>>> res = new ArrayList<>(futures.size());
+        for (CompletableFuture<Map<String, List<Passage>>> future : futures) {
+            try {
+                res.add(future.join());
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+        return res;
+    }
+
+    public SwitchingPlan planEnergization(String portId) throws InvalidPort, LackPowerSupplies, ChargePowerSupply {
+        return planEnergization(portId, switchStates(null));
+    }
+
+    /**
+     * Finds the fewest switches to close to feed the given port from any power
+     * supply, without connecting two power supplies. Only closing switches is
+     * considered, the switches closed already stay closed. Of the plans with
+     * the fewest switches, the one of the first power supply is kept. The port
+     * being fed already gives a plan with no switch to close.
+     *
+     * @param portId         the id of the port, usually the one of a load
+     * @param closedSwitches the state of every switch before the plan
+     * @return the plan, or null if no power supply can feed the port
+     * @throws InvalidPort              if there's no such port in the graph
+     * @throws IllegalArgumentException if the vector is not of the size of the
+     *                                  switches of this graph
+     * @throws LackPowerSupplies        if there are no power supplies in the system
+     * @throws ChargePowerSupply        if a power supply is connected to another
+     *                                  one before the plan
+     */
+    public SwitchingPlan planEnergization(String portId, SwitchStateVector closedSwitches)
+            throws InvalidPort, IllegalArgumentException, LackPowerSupplies, ChargePowerSupply {
+        int target = compile().indexOf(portId);
+        return new SwitchingPlanner(this, closedSwitches).plan(target);
+    }
+
+    public List<CompactPassage> findAlternatePassages(String portId, int k) throws InvalidPort {
+        return findAlternatePassages(portId, k, (ToDoubleFunction<Object>) null);
+    }
+
+    /**
+     * Like {@link #findAlternatePassages(String, int, ToDoubleFunction)}, the
+     * weight of every edge read from a column of its attributes.
+     *
+     * @param edgeWeight a column of {@link #getEdgeAttributes()}
+     */
+    public List<CompactPassage> findAlternatePassages(String portId, int k, EdgeAttributes.DoubleColumn edgeWeight)
+            throws InvalidPort, IllegalArgumentException {
+        CompiledGraph compiledGraph = compile();
+        int destination = compiledGraph.indexOf(portId);
+        return new AlternatePassages(compiledGraph, edgeWeight::get).new Search().find(destination, k);
+    }
+
+    /**
+     * Finds the k shortest passages from any power supply to the given port,
+     * whatever the state of the switches, so every switch is taken as one
+     * which could be closed. The passages go through switches and DcDcs both
+     * ways, and through diodes from their first port to their second one, they
+     * never go through a power supply and never through the same port twice.
+     *
+     * @param portId     the id of the port, usually the one of a load
+     * @param k          the number of passages to find at most
+     * @param edgeWeight the weight of an edge given its extras, or null to
+     *                   count the hops. When given, going through a device
+     *                   weighs nothing
+     * @return the passages, the lightest first, passages of the same weight in
+     *         the order they were found
+     * @throws InvalidPort              if there's no such port in the graph
+     * @throws IllegalArgumentException if the weight of an edge is negative
+     */
+    public List<CompactPassage> findAlternatePassages(String portId, int k, ToDoubleFunction<Object> edgeWeight)
+            throws InvalidPort, IllegalArgumentException {
+        CompiledGraph compiledGraph = compile();
+        int destination = compiledGraph.indexOf(portId);
+        return new AlternatePassages(compiledGraph, edgeWeight).new Search().find(destination, k);
+    }
+
+    /**
+     * Like {@link #findAlternatePassagesBatch(List, int, ToDoubleFunction)},
+     * the weight of every edge read from a column of its attributes.
+     *
+     * @param edgeWeight a column of {@link #getEdgeAttributes()}
+     */
+    public Map<String, List<CompactPassage>> findAlternatePassagesBatch(List<String> portIds, int k,
+            EdgeAttributes.DoubleColumn edgeWeight) throws InvalidPort, IllegalArgumentException {
+        CompiledGraph compiledGraph = compile();
+        return findAlternatePassagesBatch(portIds, k, new AlternatePassages(compiledGraph, edgeWeight::get),
+                ForkJoinPool.commonPool());
+    }
+
+    public Map<String, List<CompactPassage>> findAlternatePassagesBatch(List<String> portIds, int k,
+            ToDoubleFunction<Object> edgeWeight) throws InvalidPort, IllegalArgumentException {
+        return findAlternatePassagesBatch(portIds, k, edgeWeight, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Finds the alternate passages of each of the given ports, see
+     * {@link #findAlternatePassages(String, int, ToDoubleFunction)}. The ports
+     * are split in one chunk per thread of the parallelism, run on the given
+     * executor, and every chunk reuses its search state from one port to the
+     * next. The graph must not be changed until this method returns.
+     *
+     * @param executor the executor to run the chunks on
+     * @return the passages by the ids of the ports
+     * @throws InvalidPort              if a port is not in the graph
+     * @throws IllegalArgumentException if the weight of an edge is negative
+     */
+    public Map<String, List<CompactPassage>> findAlternatePassagesBatch(List<String> portIds, int k,
+            ToDoubleFunction<Object> edgeWeight, Executor executor) throws InvalidPort, IllegalArgumentException {
+        return findAlternatePassagesBatch(portIds, k, new AlternatePassages(compile(), edgeWeight), executor);
+    }
+
+    private Map<String, List<CompactPassage>> findAlternatePassagesBatch(List<String> portIds, int k,
+            AlternatePassages alternatePassages, Executor executor) throws InvalidPort {
+        final CompiledGraph compiledGraph = compile();
+        final int[] destinations = new int[portIds.size()];
+        for (int i = 0; i < destinations.length; i++) {
+            destinations[i] = compiledGraph.indexOf(portIds.get(i));
+        }
+        int numChunks = Math.max(1, Math.min(destinations.length, Runtime.getRuntime().availableProcessors()));
+        List<CompletableFuture<List<List<CompactPassage>>>> futures = new ArrayList<>(numChunks);
+        for (int chunk = 0; chunk < numChunks; chunk++) {
+            final int from = (int) ((long) destinations.length * chunk / numChunks);
+            final int to = (int) ((long) destinations.length * (chunk + 1) / numChunks);
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                AlternatePassages.Search search = alternatePassages.new Search();
+                List<List<CompactPassage>> passages = new ArrayList<>(to - from);
+                for (int i = from; i < to; i++) {
+                    passages.add(search.find(destinations[i], k));
+                }
+                return passages;
+            }, executor));
+        }
+        Map<String, List<CompactPassage>> res = new LinkedHashMap<>();
+        int i = 0;
+        for (CompletableFuture<List<List<CompactPassage>>> future : futures) {
+            List<List<CompactPassage>> passages;
+            try {
+                passages = future.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
                 }
+                throw e;
+            }
+            for (List<CompactPassage> p : passages) {
+                res.put(portIds.get(i++), p);
             }
         }
         return res;
     }
+
+    /**
+     * Makes the graph of the given compiled graph, which is cached as its
+     * compiled form. The edges are given by the ordinals of their ports, and
+     * are trusted to be the ones of the compiled graph, see
+     * {@link GraphSnapshot}. The traversals only need the compiled graph, so
+     * the devices, ports and edges are only added the first time they are
+     * asked for, or the graph is changed.
+     */
+    static PowerSupplySystemGraph restore(CompiledGraph compiled, Collection<BaseDevice> devices,
+            IntBuffer firstPorts, IntBuffer secondPorts) {
+        PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
+        graph.compiled = compiled;
+        graph.restoring = new Restoring(compiled, devices, firstPorts, secondPorts);
+        return graph;
+    }
+
+    private static final class Restoring {
+        final CompiledGraph compiled;
+        final Collection<BaseDevice> devices;
+        final IntBuffer firstPorts;
+        final IntBuffer secondPorts;
+
+        Restoring(CompiledGraph compiled, Collection<BaseDevice> devices, IntBuffer firstPorts,
+                IntBuffer secondPorts) {
+            this.compiled = compiled;
+            this.devices = devices;
+            this.firstPorts = firstPorts;
+            this.secondPorts = secondPorts;
+        }
+    }
+
+    private void ensureRestored() {
+        if (restoring != null) {
+            restoreNow();
+        }
+    }
+
+    private synchronized void restoreNow() {
+        Restoring restoring = this.restoring;
+        if (restoring == null) {
+            return;
+        }
+        CompiledGraph compiled = restoring.compiled;
+        int numEdges = restoring.firstPorts.limit();
+        ports = new LinkedHashMap<>(capacityFor(compiled.numPorts));
+        devices = new LinkedHashMap<>(capacityFor(restoring.devices.size()));
+        edges = new ArrayList<>(numEdges);
+        edgeKeys = new LongHashSet(numEdges);
+        Port[] byOrdinal = new Port[compiled.numPorts];
+        for (BaseDevice device : restoring.devices) {
+            for (PortHandle handle : putDevice(device)) {
+                byOrdinal[handle.port.ordinal] = handle.port;
+            }
+        }
+        for (int p = 0; p < byOrdinal.length; p++) {
+            ((ArrayList<Pair<Port, Object>>) byOrdinal[p].adjList)
+                    .ensureCapacity(compiled.offsets.get(p + 1) - compiled.offsets.get(p));
+        }
+        for (int e = 0; e < numEdges; e++) {
+            putEdge(byOrdinal[restoring.firstPorts.get(e)], byOrdinal[restoring.secondPorts.get(e)],
+                    compiled.edgeExtras[e]);
+        }
+        this.restoring = null;
+    }
+
+    /**
+     * Collects devices and edges, and adds them all at once to a new graph
+     * when it's built. Nothing is checked before {@link #build()}, so the
+     * edges could be given before the devices they connect. The edges get the
+     * ids of the order they are added in, and the values of their attributes
+     * are set as they are added, see {@link #setDouble(String, double)}.
+     */
+    public static final class Builder {
+        private final List<BaseDevice> devices;
+
+        private final List<String> firstPortIds;
+        private final List<String> secondPortIds;
+        private final List<Object> extras;
+
+        private final EdgeSchema edgeSchema;
+
+        // the values of the attributes of the edges, copied to the graph
+        private final EdgeAttributes edgeAttributes;
+
+        private boolean built;
+
+        /**
+         * @param expectedDevices the number of devices to be added, a hint only
+         * @param expectedEdges   the number of edges to be added, a hint only
+         */
+        public Builder(int expectedDevices, int expectedEdges) {
+            this(expectedDevices, expectedEdges, EdgeSchema.EMPTY);
+        }
+
+        /**
+         * @param edgeSchema the attributes of the edges of the graph built
+         */
+        public Builder(int expectedDevices, int expectedEdges, EdgeSchema edgeSchema) {
+            this.edgeSchema = edgeSchema;
+            devices = new ArrayList<>(expectedDevices);
+            firstPortIds = new ArrayList<>(expectedEdges);
+            secondPortIds = new ArrayList<>(expectedEdges);
+            extras = new ArrayList<>(expectedEdges);
+            edgeAttributes = new EdgeAttributes(edgeSchema, expectedEdges);
+        }
+
+        public Builder addDevice(BaseDevice device) {
+            devices.add(device);
+            return this;
+        }
+
+        public Builder addDevices(Collection<? extends BaseDevice> devices) {
+            this.devices.addAll(devices);
+            return this;
+        }
+
+        public Builder addEdge(String firstPortId, String secondPortId) {
+            return addEdge(firstPortId, secondPortId, null);
+        }
+
+        public Builder addEdge(String firstPortId, String secondPortId, Object extras) {
+            firstPortIds.add(firstPortId);
+            secondPortIds.add(secondPortId);
+            this.extras.add(extras);
+            edgeAttributes.addEdge();
+            return this;
+        }
+
+        public Builder addEdge(Pair<String, Integer> first, Pair<String, Integer> second) {
+            return addEdge(first, second, null);
+        }
+
+        public Builder addEdge(Pair<String, Integer> first, Pair<String, Integer> second, Object extras) {
+            return addEdge(Utils.genPortId(first), Utils.genPortId(second), extras);
+        }
+
+        /**
+         * Sets an attribute of the edge added last, which has the default value
+         * of its column otherwise.
+         *
+         * @throws IllegalArgumentException if there's no such column of doubles
+         * @throws IllegalStateException    if no edge was added
+         */
+        public Builder setDouble(String column, double value) throws IllegalArgumentException, IllegalStateException {
+            edgeAttributes.doubleColumn(column).set(lastEdge(), value);
+            return this;
+        }
+
+        /**
+         * Like {@link #setDouble(String, double)}, for a column of ints.
+         */
+        public Builder setInt(String column, int value) throws IllegalArgumentException, IllegalStateException {
+            edgeAttributes.intColumn(column).set(lastEdge(), value);
+            return this;
+        }
+
+        private int lastEdge() throws IllegalStateException {
+            if (firstPortIds.isEmpty()) {
+                throw new IllegalStateException("no edge was added");
+            }
+            return firstPortIds.size() - 1;
+        }
+
+        /**
+         * Builds the graph, the devices and the edges are added in the order
+         * they were given. A builder builds a single graph.
+         * 
+         * @return the graph
+         * @throws DuplicateDevice       if two devices have the same name
+         * @throws InvalidPort           if an edge connects a port which doesn't
+         *                               exist
+         * @throws DuplicateEdge         if two edges connect the same ports
+         * @throws IllegalStateException if the graph was built already
+         */
+        public PowerSupplySystemGraph build()
+                throws DuplicateDevice, InvalidPort, DuplicateEdge, IllegalStateException {
+            if (built) {
+                throw new IllegalStateException("the graph was built already");
+            }
+            built = true;
+            int numPorts = 0;
+            for (BaseDevice device : devices) {
+                numPorts += device.getNumPorts();
+            }
+            PowerSupplySystemGraph graph = new PowerSupplySystemGraph(devices.size(), numPorts,
+                    firstPortIds.size(), edgeSchema);
+            for (BaseDevice device : devices) {
+                graph.putDevice(device);
+            }
+
+            // resolve every port first, so the adjacency lists get their sizes
+            Port[] firstPorts = new Port[firstPortIds.size()];
+            Port[] secondPorts = new Port[firstPortIds.size()];
+            int[] degrees = new int[numPorts];
+            for (int i = 0; i < firstPorts.length; i++) {
+                firstPorts[i] = resolve(graph, firstPortIds.get(i));
+                secondPorts[i] = resolve(graph, secondPortIds.get(i));
+                degrees[firstPorts[i].ordinal]++;
+                degrees[secondPorts[i].ordinal]++;
+            }
+            for (Port port : graph.ports.values()) {
+                ((ArrayList<Pair<Port, Object>>) port.adjList).ensureCapacity(degrees[port.ordinal]);
+            }
+            for (int i = 0; i < firstPorts.length; i++) {
+                graph.putEdge(firstPorts[i], secondPorts[i], extras.get(i));
+            }
+            graph.edgeAttributes.copyValues(edgeAttributes);
+            return graph;
+        }
+
+        private static Port resolve(PowerSupplySystemGraph graph, String portId) throws InvalidPort {
+            Port port = graph.ports.get(portId);
+            if (port == null) {
+                throw new InvalidPort(portId);
+            }
+            return port;
+        }
+    }
 }
@@ -1,47 +1,219 @@
 package pssm;
 
-import java.util.Collections;
+import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.commons.math3.util.Pair;
 
+/**
+ * The ports a power supply feeds, each with the port it's fed through.
+ *
+ * A tree generated from a compiled graph is kept as parallel arrays, one slot
+ * per port in breadth first order, the root in slot 0: the port of the slot,
+ * the slot of its parent, its depth, and the edge it's fed through. The
+ * {@link DirectedPort}s of {@link #getRoot()} and {@link #getNodes()} are only
+ * created when one of them is first asked for, the passages are found without
+ * them.
+ */
 public final class PowerSupplySystemTree {
-    private final DirectedPort root;
+    // the graph the tree was generated from, or null
+    private final CompiledGraph graph;
+
+    // by slot, null if the tree was built from its nodes
+    private final int[] ports;
+    // the slot of the parent, -1 for the root
+    private final int[] parents;
+    // the number of ports above, 0 for the root
+    private final int[] depths;
+    // the edge to the parent, an index into the edge extras of the graph, or -1
+    // for the root and the ports fed by the other port of their device
+    private final int[] edges;
+    // the slot of every port of the tree
+    private final IntIntMap slots;
+
+    private volatile DirectedPort root;
+
+    private volatile Map<String, DirectedPort> nodes;
+
+    // the links followed while generating the tree, see TraversalEvent
+    int edgesRelaxed;
 
     public DirectedPort getRoot() {
+        materialize();
         return root;
     }
 
-    private final Map<String, DirectedPort> nodes;
-
+    /**
+     * @return the nodes of the tree by the ids of their ports
+     */
     public Map<String, DirectedPort> getNodes() {
+        materialize();
         return nodes;
     }
 
     public PowerSupplySystemTree(DirectedPort root, Map<String, DirectedPort> nodes) {
+        this.graph = null;
+        this.ports = null;
+        this.parents = null;
+        this.depths = null;
+        this.edges = null;
+        this.slots = null;
         this.root = root;
         this.nodes = nodes;
     }
 
+    /**
+     * Takes the arrays as they are, see the layout above.
+     *
+     * @param size the number of slots used in the arrays
+     */
+    PowerSupplySystemTree(CompiledGraph graph, int[] ports, int[] parents, int[] depths, int[] edges, int size) {
+        this.graph = graph;
+        this.ports = ports;
+        this.parents = parents;
+        this.depths = depths;
+        this.edges = edges;
+        this.slots = new IntIntMap(size);
+        for (int slot = 0; slot < size; slot++) {
+            slots.put(ports[slot], slot);
+        }
+    }
+
+    /**
+     * @return the number of ports of the tree, the root included
+     */
+    public int getNumPorts() {
+        return slots != null ? slots.size() : nodes.size();
+    }
+
+    // creates the nodes once, for every thread
+    private void materialize() {
+        if (nodes != null) {
+            return;
+        }
+        synchronized (this) {
+            if (nodes != null) {
+                return;
+            }
+            int size = slots.size();
+            DirectedPort[] directedPorts = new DirectedPort[size];
+            Map<String, DirectedPort> res = new HashMap<>(Math.max(16, (int) (size / 0.75f) + 1));
+            // parents come before their children, so children are added in the
+            // order they were reached
+            for (int slot = 0; slot < size; slot++) {
+                int port = ports[slot];
+                DirectedPort directedPort = new DirectedPort(graph.portDevices[port], graph.portIndices[port], port,
+                        graph.portIds[port]);
+                directedPorts[slot] = directedPort;
+                res.put(graph.portIds[port], directedPort);
+                if (parents[slot] >= 0) {
+                    DirectedPort parent = directedPorts[parents[slot]];
+                    parent.children.add(directedPort);
+                    directedPort.setParent(parent);
+                    Object extras = edges[slot] >= 0 ? graph.edgeExtras[edges[slot]] : null;
+                    parent.edges.add(new DirectedEdge(parent, directedPort, extras, edges[slot]));
+                }
+            }
+            root = directedPorts[0];
+            nodes = res;
+        }
+    }
+
+    // the slot of the given port, or -1 if it's not in the tree
+    private int slotOf(String portId) {
+        int port = graph.lookup(portId);
+        return port < 0 ? -1 : slots.get(port, -1);
+    }
+
     /**
      * Finds the passage of a given port in the power supply system tree.
-     * 
+     *
      * @param portArg the port to find the passage for, represented as a pair of
      *                port name and index
      * @return the passage of the given port, represented as a list of pairs of
      *         device name and port index
      */
     public Passage findPassage(Pair<String, Integer> portArg) {
-        DirectedPort port = nodes.get(Utils.genPortId(portArg));
+        return findPassage(Utils.genPortId(portArg));
+    }
+
+    /**
+     * Finds the passage of a given port in the power supply system tree.
+     *
+     * @param portId the id of the port to find the passage for
+     * @return the passage of the given port, represented as a list of pairs of
+     *         device name and port index
+     */
+    public Passage findPassage(String portId) {
+        if (slots == null) {
+            return findPassageOfNodes(portId);
+        }
+        int slot = slotOf(portId);
+        if (slot < 0) {
+            return null;
+        }
+        Pair<String, Integer>[] hops = Passage.newHops(depths[slot] + 1);
+        for (int i = hops.length - 1; i >= 0; i--) {
+            int port = ports[slot];
+            hops[i] = Pair.create(graph.portDevices[port].name, graph.portIndices[port]);
+            slot = parents[slot];
+        }
+        return new Passage(hops);
+    }
+
+    private Passage findPassageOfNodes(String portId) {
+        DirectedPort port = nodes.get(portId);
         if (port == null) {
             return null;
         }
-        Passage passage = new Passage();
-        do {
-            passage.add(Pair.create(port.device.name, port.portIndex));
+        Pair<String, Integer>[] hops = Passage.newHops(depthOf(port));
+        for (int i = hops.length - 1; i >= 0; i--) {
+            hops[i] = Pair.create(port.device.name, port.portIndex);
             port = port.getParent();
-        } while (port != null);
-        Collections.reverse(passage);
-        return passage;
+        }
+        return new Passage(hops);
+    }
+
+    /**
+     * Finds the passage of a given port in the power supply system tree, as the
+     * ports of the compiled graph the tree was generated from.
+     *
+     * @param portId the id of the port to find the passage for
+     * @return the passage of the given port
+     * @throws IllegalStateException if the tree was not generated from a
+     *                               compiled graph
+     */
+    public CompactPassage findCompactPassage(String portId) throws IllegalStateException {
+        if (graph == null) {
+            throw new IllegalStateException("the tree was not generated from a compiled graph");
+        }
+        int port = graph.lookup(portId);
+        return port < 0 ? null : findCompactPassage(port);
+    }
+
+    /**
+     * Like {@link #findCompactPassage(String)}, for the port of the given index
+     * in the compiled graph the tree was generated from.
+     */
+    CompactPassage findCompactPassage(int port) {
+        int slot = slots.get(port, -1);
+        if (slot < 0) {
+            return null;
+        }
+        int[] res = new int[depths[slot] + 1];
+        for (int i = res.length - 1; i >= 0; i--) {
+            res[i] = ports[slot];
+            slot = parents[slot];
+        }
+        return new CompactPassage(graph, res);
+    }
+
+    // the number of ports from the root to the given port, both included
+    private static int depthOf(DirectedPort port) {
+        int depth = 0;
+        for (DirectedPort p = port; p != null; p = p.getParent()) {
+            depth++;
+        }
+        return depth;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,40 @@
+package pssm;
+
+/**
+ * A switch reported open or closed at some time, see
+ * {@link SwitchEventProcessor}.
+ */
+public final class SwitchEvent {
+    private final String switchName;
+    private final boolean closed;
+    private final long timestamp;
+
+    /**
+     * @param switchName the name of the switch
+     * @param closed     the state of the switch
+     * @param timestamp  when the switch was seen in that state, in any unit, as
+     *                   long as the events of a processor agree on it
+     */
+    public SwitchEvent(String switchName, boolean closed, long timestamp) {
+        this.switchName = switchName;
+        this.closed = closed;
+        this.timestamp = timestamp;
+    }
+
+    public String getSwitchName() {
+        return switchName;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    @Override
+    public String toString() {
+        return switchName + (closed ? " closed at " : " opened at ") + timestamp;
+    }
+}
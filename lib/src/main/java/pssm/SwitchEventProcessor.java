@@ -0,0 +1,369 @@
+package pssm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import pssm.devices.BaseDevice;
+import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.ClosedLoop;
+import pssm.exceptions.LackPowerSupplies;
+import pssm.exceptions.NoSuchDevice;
+
+/**
+ * Applies a stream of switch events to a live {@link EnergizedTopology}, and
+ * publishes the loads whose power supplies changed.
+ *
+ * The events are queued, and processed on the given executor in batches: each
+ * run takes whatever has been queued since the last one, up to the maximum
+ * size of a batch, so a burst of events is processed as one batch. Only the
+ * loads whose ports were reached or cut off by the batch are looked at, and a
+ * load is published only if it ends the batch with other power supplies than
+ * it was last published with, so a switch opened and closed again within a
+ * batch publishes nothing.
+ *
+ * A subscriber asks for batches of changes with
+ * {@link Subscription#request(long)}. The changes made while it hasn't asked
+ * for any are kept for it, merged per load, so a slow subscriber holds at most
+ * one change per load, and gets what changed since its last batch once it
+ * asks again. The events themselves are held back by the queue: a full queue
+ * blocks {@link #submit(SwitchEvent)}, and fails {@link #offer(SwitchEvent)}.
+ *
+ * The batches, and the events which could not be applied, are delivered on
+ * the executor, one at a time. A subscriber which throws from either callback
+ * is cancelled, the others go on. If the executor rejects a run, the
+ * exception is thrown to the caller, and the events queued are processed by
+ * the next run scheduled. The topology is the one of the graph at the time of
+ * construction.
+ */
+public final class SwitchEventProcessor implements AutoCloseable {
+    /**
+     * Receives the changes of a processor.
+     */
+    public interface Subscriber {
+        /**
+         * Called once, before anything else, on the thread subscribing.
+         */
+        void onSubscribe(Subscription subscription);
+
+        /**
+         * Called with the changes since the last batch delivered to this
+         * subscriber, at most once per batch asked for.
+         *
+         * @param changes the changes, one per load, in the order of the ports
+         *                of the loads
+         */
+        void onChanges(List<EnergizationChange> changes);
+
+        /**
+         * Called when an event could not be applied, the switch keeps its
+         * state. Rejections are not counted against the batches asked for.
+         *
+         * @param event the event
+         * @param e     why it was rejected: a {@link NoSuchDevice}, an
+         *              {@link IllegalArgumentException} if the device is not a
+         *              switch, a {@link ChargePowerSupply} or a
+         *              {@link ClosedLoop}
+         */
+        void onRejected(SwitchEvent event, RuntimeException e);
+    }
+
+    /**
+     * The link between a processor and one of its subscribers.
+     */
+    public final class Subscription {
+        private final Subscriber subscriber;
+
+        private final AtomicLong requested = new AtomicLong();
+
+        private volatile boolean cancelled;
+
+        // the changes not delivered yet, by load port, only touched by the drain
+        private final Map<Integer, EnergizationChange> pending = new LinkedHashMap<>();
+
+        private Subscription(Subscriber subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        /**
+         * Asks for {@code n} more batches of changes.
+         *
+         * @throws IllegalArgumentException if n is not positive
+         */
+        public void request(long n) throws IllegalArgumentException {
+            if (n <= 0) {
+                throw new IllegalArgumentException("the number of batches must be positive: " + n);
+            }
+            requested.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            flushRequested.set(true);
+            schedule();
+        }
+
+        /**
+         * Stops the deliveries to the subscriber, the changes kept for it are
+         * dropped.
+         */
+        public void cancel() {
+            cancelled = true;
+            subscriptions.remove(this);
+        }
+
+        private void add(EnergizationChange change, int port) {
+            EnergizationChange previous = pending.remove(port);
+            if (previous != null) {
+                change = previous.followedBy(change);
+            }
+            if (change != null) {
+                pending.put(port, change);
+            }
+        }
+
+        private void deliver() {
+            if (cancelled || pending.isEmpty() || requested.get() == 0) {
+                return;
+            }
+            requested.decrementAndGet();
+            List<EnergizationChange> changes = new ArrayList<>(pending.values());
+            pending.clear();
+            try {
+                subscriber.onChanges(Collections.unmodifiableList(changes));
+            } catch (RuntimeException e) {
+                // a subscriber which fails is dropped, so it won't hold up the
+                // others
+                cancel();
+            }
+        }
+
+        private void reject(SwitchEvent event, RuntimeException e) {
+            if (cancelled) {
+                return;
+            }
+            try {
+                subscriber.onRejected(event, e);
+            } catch (RuntimeException failure) {
+                cancel();
+            }
+        }
+    }
+
+    private final EnergizedTopology topology;
+
+    private final CompiledGraph graph;
+
+    private final Executor executor;
+
+    private final BlockingQueue<SwitchEvent> events;
+
+    private final int maxBatchSize;
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    // the timestamp of the last event applied to each switch
+    private final long[] timestamps;
+
+    // the power supplies each load was last published with, by port, null for
+    // the other ports
+    private final List<BaseDevice>[] published;
+
+    // the loads seen in the current batch, by port
+    private final boolean[] seen;
+
+    private final AtomicBoolean draining = new AtomicBoolean();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private volatile boolean closed;
+
+    /**
+     * Processes the events on the common pool, from the state of every switch
+     * of the graph, with room for 1024 events and batches of as many.
+     */
+    public SwitchEventProcessor(PowerSupplySystemGraph graph)
+            throws LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        this(graph, graph.switchStates(null), ForkJoinPool.commonPool(), 1024, 1024);
+    }
+
+    /**
+     * @param graph          the graph
+     * @param closedSwitches the state of every switch before the first event
+     * @param executor       runs the batches and the deliveries
+     * @param capacity       the number of events to queue before holding back
+     *                       the producers
+     * @param maxBatchSize   the largest number of events to process at once
+     * @throws IllegalArgumentException if the vector is not of the size of the
+     *                                  switches of the graph, or a size is not
+     *                                  positive
+     */
+    public SwitchEventProcessor(PowerSupplySystemGraph graph, SwitchStateVector closedSwitches, Executor executor,
+            int capacity, int maxBatchSize)
+            throws IllegalArgumentException, LackPowerSupplies, ChargePowerSupply, ClosedLoop {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException("maximum batch size must be positive: " + maxBatchSize);
+        }
+        this.topology = new EnergizedTopology(graph, closedSwitches);
+        this.graph = graph.compile();
+        this.executor = executor;
+        this.events = new ArrayBlockingQueue<>(capacity);
+        this.maxBatchSize = maxBatchSize;
+        this.timestamps = new long[this.graph.getNumSwitches()];
+        Arrays.fill(timestamps, Long.MIN_VALUE);
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        List<BaseDevice>[] published = new List[this.graph.numPorts];
+        this.published = published;
+        this.seen = new boolean[this.graph.numPorts];
+        for (int p = 0; p < this.graph.numPorts; p++) {
+            if (this.graph.portTypes[p] == CompiledGraph.TYPE_LOAD) {
+                published[p] = topology.suppliesOf(p);
+            }
+        }
+        topology.changedPorts = new IntList();
+    }
+
+    /**
+     * Subscribes to the changes made from now on.
+     *
+     * @return the subscription, also given to the subscriber
+     */
+    public Subscription subscribe(Subscriber subscriber) {
+        Subscription subscription = new Subscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        if (!subscription.cancelled) {
+            subscriptions.add(subscription);
+        }
+        return subscription;
+    }
+
+    /**
+     * Queues an event, waiting for room in the queue if needed.
+     *
+     * @throws IllegalStateException      if the processor is closed
+     * @throws RejectedExecutionException if the executor rejects the run
+     *                                    processing the event, which stays
+     *                                    queued
+     */
+    public void submit(SwitchEvent event) throws InterruptedException, IllegalStateException {
+        checkOpen();
+        events.put(event);
+        schedule();
+    }
+
+    /**
+     * Queues an event if there's room for it.
+     *
+     * @return if the event was queued
+     * @throws IllegalStateException      if the processor is closed
+     * @throws RejectedExecutionException if the executor rejects the run
+     *                                    processing the event, which stays
+     *                                    queued
+     */
+    public boolean offer(SwitchEvent event) throws IllegalStateException {
+        checkOpen();
+        if (!events.offer(event)) {
+            return false;
+        }
+        schedule();
+        return true;
+    }
+
+    private void checkOpen() throws IllegalStateException {
+        if (closed) {
+            throw new IllegalStateException("the processor is closed");
+        }
+    }
+
+    /**
+     * Stops taking events, the events queued already are still processed.
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private void schedule() {
+        if (draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::drain);
+            } catch (RuntimeException e) {
+                // the next event or request schedules a run again
+                draining.set(false);
+                throw e;
+            }
+        }
+    }
+
+    private void drain() {
+        try {
+            List<SwitchEvent> batch = new ArrayList<>();
+            do {
+                flushRequested.set(false);
+                batch.clear();
+                events.drainTo(batch, maxBatchSize);
+                if (!batch.isEmpty()) {
+                    process(batch);
+                }
+                for (Subscription subscription : subscriptions) {
+                    subscription.deliver();
+                }
+            } while (!batch.isEmpty() || flushRequested.get());
+        } finally {
+            draining.set(false);
+        }
+        // what came in while the flag was still set
+        if (!events.isEmpty() || flushRequested.get()) {
+            schedule();
+        }
+    }
+
+    private void process(List<SwitchEvent> batch) {
+        for (SwitchEvent event : batch) {
+            try {
+                int switchIndex = graph.switchIndexOf(event.getSwitchName());
+                // events older than the last one of the switch are stale
+                if (event.getTimestamp() < timestamps[switchIndex]) {
+                    continue;
+                }
+                topology.setSwitch(event.getSwitchName(), event.isClosed());
+                timestamps[switchIndex] = event.getTimestamp();
+            } catch (RuntimeException e) {
+                for (Subscription subscription : subscriptions) {
+                    subscription.reject(event, e);
+                }
+            }
+        }
+
+        long timestamp = batch.get(batch.size() - 1).getTimestamp();
+        IntList changedPorts = topology.changedPorts;
+        for (int i = 0; i < changedPorts.size(); i++) {
+            int port = changedPorts.get(i);
+            if (published[port] == null || seen[port]) {
+                continue;
+            }
+            seen[port] = true;
+            List<BaseDevice> supplies = topology.suppliesOf(port);
+            if (supplies.equals(published[port])) {
+                continue;
+            }
+            EnergizationChange change = new EnergizationChange(graph.portDevices[port],
+                    Collections.unmodifiableList(published[port]), Collections.unmodifiableList(supplies), timestamp);
+            published[port] = supplies;
+            for (Subscription subscription : subscriptions) {
+                subscription.add(change, port);
+            }
+        }
+        for (int i = 0; i < changedPorts.size(); i++) {
+            seen[changedPorts.get(i)] = false;
+        }
+        changedPorts.clear();
+    }
+}
@@ -0,0 +1,111 @@
+package pssm;
+
+import java.util.Arrays;
+
+/**
+ * The state of every switch of a graph, one bit per switch, set if the switch
+ * is closed. The switches are numbered densely when the graph is compiled, see
+ * {@link CompiledGraph#switchIndexOf(String)}.
+ *
+ * A vector could be hashed, compared, copied and changed without boxing, which
+ * makes it the cheap way to describe many configurations of the same graph.
+ * It's checked against a graph by its size only. This class is not thread
+ * safe, a vector must not be changed while a traversal reads it.
+ */
+public final class SwitchStateVector {
+    private final int size;
+
+    private final long[] words;
+
+    /**
+     * Creates a vector with every switch open.
+     *
+     * @param size the number of switches
+     */
+    public SwitchStateVector(int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative: " + size);
+        }
+        this.size = size;
+        this.words = new long[(size + 63) >>> 6];
+    }
+
+    private SwitchStateVector(int size, long[] words) {
+        this.size = size;
+        this.words = words;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param i the index of the switch
+     * @return if the switch is closed
+     */
+    public boolean get(int i) {
+        checkIndex(i);
+        return (words[i >>> 6] & (1L << i)) != 0;
+    }
+
+    public void set(int i, boolean closed) {
+        checkIndex(i);
+        if (closed) {
+            words[i >>> 6] |= 1L << i;
+        } else {
+            words[i >>> 6] &= ~(1L << i);
+        }
+    }
+
+    public void flip(int i) {
+        checkIndex(i);
+        words[i >>> 6] ^= 1L << i;
+    }
+
+    /**
+     * @return the number of closed switches
+     */
+    public int cardinality() {
+        int res = 0;
+        for (long word : words) {
+            res += Long.bitCount(word);
+        }
+        return res;
+    }
+
+    public SwitchStateVector copy() {
+        return new SwitchStateVector(size, words.clone());
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("switch index " + i + " out of " + size);
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SwitchStateVector)) {
+            return false;
+        }
+        SwitchStateVector other = (SwitchStateVector) o;
+        return size == other.size && Arrays.equals(words, other.words);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * size + Arrays.hashCode(words);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(size);
+        for (int i = 0; i < size; i++) {
+            sb.append(get(i) ? '1' : '0');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,74 @@
+package pssm;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import pssm.devices.BaseDevice;
+import pssm.devices.Switch;
+
+/**
+ * The switches to close to feed a port, see
+ * {@link PowerSupplySystemGraph#planEnergization(String, SwitchStateVector)}.
+ */
+public final class SwitchingPlan {
+    private final BaseDevice powerSupply;
+
+    private final List<Switch> switchesToClose;
+
+    private final SwitchStateVector switchStates;
+
+    private final CompactPassage passage;
+
+    SwitchingPlan(BaseDevice powerSupply, List<Switch> switchesToClose, SwitchStateVector switchStates,
+            CompactPassage passage) {
+        this.powerSupply = powerSupply;
+        this.switchesToClose = Collections.unmodifiableList(switchesToClose);
+        this.switchStates = switchStates;
+        this.passage = passage;
+    }
+
+    /**
+     * @return the power supply which feeds the port once the plan is carried out
+     */
+    public BaseDevice getPowerSupply() {
+        return powerSupply;
+    }
+
+    /**
+     * @return the switches to close, from the power supply down to the port,
+     *         an empty list if the port is fed already
+     */
+    public List<Switch> getSwitchesToClose() {
+        return switchesToClose;
+    }
+
+    public List<String> getSwitchNamesToClose() {
+        List<String> res = new ArrayList<>(switchesToClose.size());
+        for (Switch switch_ : switchesToClose) {
+            res.add(switch_.name);
+        }
+        return res;
+    }
+
+    /**
+     * @return a copy of the state of every switch once the plan is carried out
+     */
+    public SwitchStateVector getSwitchStates() {
+        return switchStates.copy();
+    }
+
+    /**
+     * @return a passage from the power supply to the port once the plan is
+     *         carried out, through the switches to close, which need not be the
+     *         shortest one the forest would keep
+     */
+    public CompactPassage getPassage() {
+        return passage;
+    }
+
+    @Override
+    public String toString() {
+        return "SwitchingPlan(" + powerSupply.name + ": close " + getSwitchNamesToClose() + ")";
+    }
+}
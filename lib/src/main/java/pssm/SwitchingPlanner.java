@@ -0,0 +1,259 @@
+package pssm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import pssm.devices.BaseDevice;
+import pssm.devices.Switch;
+import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.LackPowerSupplies;
+
+/**
+ * Finds the fewest switches to close to feed a port, see
+ * {@link PowerSupplySystemGraph#planEnergization(String, SwitchStateVector)}.
+ *
+ * From every power supply in turn, a 0-1 breadth first search runs over the
+ * ports, following the links power goes through: edges, DcDcs, diodes from
+ * their first port to their second one, and switches. Going through a closed
+ * switch costs 0 and through an open one costs 1, so the cost of reaching the
+ * port is the number of switches to close. The cheapest power supply is kept,
+ * the first one of the ties, or the one feeding the port already if any.
+ *
+ * A plan never connects two power supplies. Before any search, the graph is
+ * walked back from every power supply, through the edges and the siblings
+ * which conduct towards it with the switches as they are, to find the power
+ * supplies every port conducts to. A search leaves out the ports which conduct
+ * to another power supply, the ports an {@link EnergizationIndex} finds fed
+ * by another power supply, and every other power supply, so energizing the
+ * passage it finds doesn't feed one power supply from another.
+ */
+final class SwitchingPlanner {
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final PowerSupplySystemGraph source;
+
+    private final CompiledGraph graph;
+
+    private final SwitchStateVector closedSwitches;
+
+    // the cost to reach every port, and the port it's reached from
+    private final int[] costs;
+    private final int[] previous;
+
+    // the power supply every port conducts to, plus one, 0 if none and -1 if
+    // several
+    private final int[] reaches;
+
+    // the deque of the search, as a ring buffer
+    private int[] deque;
+    private int head;
+    private int size;
+
+    SwitchingPlanner(PowerSupplySystemGraph source, SwitchStateVector closedSwitches) {
+        this.source = source;
+        this.graph = source.compile();
+        this.graph.checkSwitchStates(closedSwitches);
+        this.closedSwitches = closedSwitches;
+        costs = new int[graph.numPorts];
+        previous = new int[graph.numPorts];
+        deque = new int[16];
+        reaches = new int[graph.numPorts];
+        walkBack();
+    }
+
+    /**
+     * Walks back the links from every power supply, marking the ports power
+     * flows from to it.
+     */
+    private void walkBack() {
+        int[] roots = graph.powerSupplyPorts;
+        IntList queue = new IntList();
+        for (int t = 0; t < roots.length; t++) {
+            queue.clear();
+            reaches[roots[t]] = t + 1;
+            queue.add(roots[t]);
+            for (int head = 0; head < queue.size(); head++) {
+                int port = queue.get(head);
+                for (int slot = graph.offsets.get(port); slot < graph.offsets.get(port + 1); slot++) {
+                    mark(graph.neighbours.get(slot), t, queue);
+                }
+                int sibling = graph.siblings[port];
+                if (sibling >= 0 && graph.conducts(sibling, closedSwitches)) {
+                    mark(sibling, t, queue);
+                }
+            }
+        }
+    }
+
+    // a port is queued at most twice, once for the first power supply it
+    // conducts to and once when a second one is found
+    private void mark(int port, int t, IntList queue) {
+        if (reaches[port] == 0) {
+            reaches[port] = t + 1;
+            queue.add(port);
+        } else if (reaches[port] > 0 && reaches[port] != t + 1) {
+            reaches[port] = -1;
+            queue.add(port);
+        }
+    }
+
+    /**
+     * @return the plan, or null if no power supply can feed the port
+     */
+    SwitchingPlan plan(int target) throws LackPowerSupplies, ChargePowerSupply {
+        int[] roots = graph.powerSupplyPorts;
+        EnergizationIndex index = new EnergizationIndex(source, closedSwitches);
+        List<BaseDevice> supplies = index.suppliesOf(target);
+        if (!supplies.isEmpty()) {
+            BaseDevice powerSupply = supplies.get(0);
+            for (int root : roots) {
+                if (graph.portDevices[root] == powerSupply && search(root, target, index) == 0) {
+                    return toPlan(root, target);
+                }
+            }
+        }
+
+        // the cheapest power supply, the first one of the ties
+        int best = -1;
+        int bestCost = UNREACHED;
+        for (int t = 0; t < roots.length; t++) {
+            int cost = search(roots[t], target, index);
+            if (cost < bestCost) {
+                best = t;
+                bestCost = cost;
+            }
+        }
+        if (best < 0) {
+            return null;
+        }
+        // searched again, the arrays only hold the last search
+        search(roots[best], target, index);
+        return toPlan(roots[best], target);
+    }
+
+    /**
+     * Searches from the given power supply until the target is reached.
+     *
+     * @return the cost of the target, or UNREACHED
+     */
+    private int search(int root, int target, EnergizationIndex index) {
+        Arrays.fill(costs, UNREACHED);
+        head = 0;
+        size = 0;
+        costs[root] = 0;
+        previous[root] = -1;
+        pushFirst(root);
+        while (size > 0) {
+            int port = popFirst();
+            if (port == target) {
+                return costs[target];
+            }
+            int cost = costs[port];
+            for (int slot = graph.offsets.get(port); slot < graph.offsets.get(port + 1); slot++) {
+                relax(port, graph.neighbours.get(slot), cost, root, index);
+            }
+            int sibling = graph.siblings[port];
+            if (sibling < 0) {
+                continue;
+            }
+            switch (graph.portTypes[port]) {
+                case CompiledGraph.TYPE_SWITCH:
+                    relax(port, sibling, cost + (closedSwitches.get(graph.portSwitches[port]) ? 0 : 1), root, index);
+                    break;
+                case CompiledGraph.TYPE_DC_DC:
+                    relax(port, sibling, cost, root, index);
+                    break;
+                case CompiledGraph.TYPE_DIODE:
+                    if (graph.portIndices[port] == 0) {
+                        relax(port, sibling, cost, root, index);
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        return UNREACHED;
+    }
+
+    private void relax(int from, int to, int cost, int root, EnergizationIndex index) {
+        if (cost >= costs[to] || graph.portTypes[to] == CompiledGraph.TYPE_POWER_SUPPLY) {
+            return;
+        }
+        // power flows from the port to another power supply
+        if (reaches[to] != 0 && reaches[to] != reaches[root]) {
+            return;
+        }
+        // a port another power supply feeds would connect the two, unless this
+        // one feeds it already
+        List<BaseDevice> supplies = index.suppliesOf(to);
+        if (!supplies.isEmpty() && !supplies.contains(graph.portDevices[root])) {
+            return;
+        }
+        boolean free = cost == costs[from];
+        costs[to] = cost;
+        previous[to] = from;
+        if (free) {
+            pushFirst(to);
+        } else {
+            pushLast(to);
+        }
+    }
+
+    private void pushFirst(int port) {
+        grow();
+        head = (head - 1 + deque.length) % deque.length;
+        deque[head] = port;
+        size++;
+    }
+
+    private void pushLast(int port) {
+        grow();
+        deque[(head + size) % deque.length] = port;
+        size++;
+    }
+
+    private int popFirst() {
+        int port = deque[head];
+        head = (head + 1) % deque.length;
+        size--;
+        return port;
+    }
+
+    private void grow() {
+        if (size < deque.length) {
+            return;
+        }
+        int[] res = new int[deque.length * 2];
+        for (int i = 0; i < size; i++) {
+            res[i] = deque[(head + i) % deque.length];
+        }
+        deque = res;
+        head = 0;
+    }
+
+    // the plan of the last search, which reached the target
+    private SwitchingPlan toPlan(int root, int target) {
+        IntList passage = new IntList();
+        for (int port = target; port >= 0; port = previous[port]) {
+            passage.add(port);
+        }
+        int[] ports = new int[passage.size()];
+        for (int i = 0; i < ports.length; i++) {
+            ports[i] = passage.get(ports.length - 1 - i);
+        }
+        SwitchStateVector states = closedSwitches.copy();
+        List<Switch> switchesToClose = new ArrayList<>();
+        for (int i = 1; i < ports.length; i++) {
+            int port = ports[i];
+            if (graph.siblings[port] == ports[i - 1] && graph.portTypes[port] == CompiledGraph.TYPE_SWITCH) {
+                int switchIndex = graph.portSwitches[port];
+                if (!states.get(switchIndex)) {
+                    states.set(switchIndex, true);
+                    switchesToClose.add(graph.switches[switchIndex]);
+                }
+            }
+        }
+        return new SwitchingPlan(graph.portDevices[root], switchesToClose, states, new CompactPassage(graph, ports));
+    }
+}
@@ -0,0 +1,150 @@
+package pssm;
+
+import java.util.List;
+import java.util.Map;
+
+import pssm.exceptions.ChargePowerSupply;
+
+/**
+ * What a call to {@link PowerSupplySystemGraph#genForest(Map)},
+ * {@link PowerSupplySystemGraph#findPassages(List, Map)} or
+ * {@link PowerSupplySystemGraph#findUpstreamPassages(List, Map)} did, see
+ * {@link PowerSupplySystemGraph#setTraversalListener(TraversalListener)}.
+ */
+public final class TraversalEvent {
+    public enum Kind {
+        GEN_FOREST,
+        FIND_PASSAGES,
+        /**
+         * Walks back from the destinations, no tree is generated, so nothing
+         * but the passages found and the conflict is counted.
+         */
+        FIND_UPSTREAM_PASSAGES,
+    }
+
+    private final Kind kind;
+    private final int numPorts;
+    private final int numEdges;
+    private final long startTime;
+
+    private long nanos;
+    private int treesBuilt;
+    private long portsVisited;
+    private long edgesRelaxed;
+    private boolean cached;
+    private int passagesFound;
+    private ChargePowerSupply conflict;
+
+    TraversalEvent(Kind kind, CompiledGraph graph) {
+        this.kind = kind;
+        this.numPorts = graph.numPorts;
+        this.numEdges = graph.getNumEdges();
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * Counts the trees of a forest which was generated, not taken from the
+     * cache.
+     */
+    void built(List<PowerSupplySystemTree> forest) {
+        treesBuilt += forest.size();
+        for (PowerSupplySystemTree tree : forest) {
+            portsVisited += tree.getNumPorts();
+            edgesRelaxed += tree.edgesRelaxed;
+        }
+    }
+
+    void cached() {
+        cached = true;
+    }
+
+    void found(int passages) {
+        passagesFound += passages;
+    }
+
+    void conflict(ChargePowerSupply e) {
+        conflict = e;
+    }
+
+    TraversalEvent done() {
+        nanos = System.nanoTime() - startTime;
+        return this;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the number of ports of the graph queried
+     */
+    public int getNumPorts() {
+        return numPorts;
+    }
+
+    /**
+     * @return the number of edges of the graph queried
+     */
+    public int getNumEdges() {
+        return numEdges;
+    }
+
+    /**
+     * @return how long the call took, in nanoseconds
+     */
+    public long getNanos() {
+        return nanos;
+    }
+
+    /**
+     * @return the number of trees generated, 0 if the forest was cached
+     */
+    public int getTreesBuilt() {
+        return treesBuilt;
+    }
+
+    /**
+     * @return the number of ports reached by the trees generated
+     */
+    public long getPortsVisited() {
+        return portsVisited;
+    }
+
+    /**
+     * @return the number of links, edges or the ones between the two ports of
+     *         a device, followed from the ports reached
+     */
+    public long getEdgesRelaxed() {
+        return edgesRelaxed;
+    }
+
+    /**
+     * @return if the forest was taken from the forest cache
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    /**
+     * @return the number of passages found, 0 for a
+     *         {@link Kind#GEN_FOREST}
+     */
+    public int getPassagesFound() {
+        return passagesFound;
+    }
+
+    /**
+     * @return the conflict which failed the call, or null
+     */
+    public ChargePowerSupply getConflict() {
+        return conflict;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " on " + numPorts + " ports and " + numEdges + " edges: " + treesBuilt + " trees, "
+                + portsVisited + " ports visited, " + edgesRelaxed + " edges relaxed, " + passagesFound
+                + " passages" + (cached ? ", cached" : "") + (conflict != null ? ", conflict" : "") + " in "
+                + nanos + "ns";
+    }
+}
@@ -0,0 +1,13 @@
+package pssm;
+
+/**
+ * Told about the traversals of a graph, see
+ * {@link PowerSupplySystemGraph#setTraversalListener(TraversalListener)}.
+ *
+ * The listener is called on the thread which made the call, once the call is
+ * done, whether it succeeded or not, so it should return quickly, and be
+ * thread safe if the graph is queried from several threads.
+ */
+public interface TraversalListener {
+    void onTraversal(TraversalEvent event);
+}
@@ -0,0 +1,132 @@
+package pssm;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link TraversalListener} which sums the events up: counters over every
+ * call, and a latency histogram per kind of call. It may be shared by several
+ * graphs, and read while they are queried.
+ *
+ * The histograms have one bucket per power of two nanoseconds, so a
+ * percentile is known within a factor of two, which is enough to tell a
+ * regression from noise.
+ */
+public final class TraversalMetrics implements TraversalListener {
+    private static final int NUM_BUCKETS = 64;
+
+    private final LongAdder treesBuilt = new LongAdder();
+    private final LongAdder portsVisited = new LongAdder();
+    private final LongAdder edgesRelaxed = new LongAdder();
+    private final LongAdder passagesFound = new LongAdder();
+    private final LongAdder conflicts = new LongAdder();
+    private final LongAdder cacheHits = new LongAdder();
+
+    // by kind, then by bucket, see bucketOf()
+    private final AtomicLongArray latencies = new AtomicLongArray(TraversalEvent.Kind.values().length * NUM_BUCKETS);
+
+    @Override
+    public void onTraversal(TraversalEvent event) {
+        treesBuilt.add(event.getTreesBuilt());
+        portsVisited.add(event.getPortsVisited());
+        edgesRelaxed.add(event.getEdgesRelaxed());
+        passagesFound.add(event.getPassagesFound());
+        if (event.getConflict() != null) {
+            conflicts.increment();
+        }
+        if (event.isCached()) {
+            cacheHits.increment();
+        }
+        latencies.incrementAndGet(event.getKind().ordinal() * NUM_BUCKETS + bucketOf(event.getNanos()));
+    }
+
+    // the bucket of [2^(i - 1), 2^i) nanoseconds is i, 0 is for 0
+    private static int bucketOf(long nanos) {
+        return nanos <= 0 ? 0 : NUM_BUCKETS - Long.numberOfLeadingZeros(nanos);
+    }
+
+    public long getTreesBuilt() {
+        return treesBuilt.sum();
+    }
+
+    public long getPortsVisited() {
+        return portsVisited.sum();
+    }
+
+    public long getEdgesRelaxed() {
+        return edgesRelaxed.sum();
+    }
+
+    public long getPassagesFound() {
+        return passagesFound.sum();
+    }
+
+    /**
+     * @return the number of calls failed by a {@link pssm.exceptions.ChargePowerSupply}
+     */
+    public long getConflicts() {
+        return conflicts.sum();
+    }
+
+    /**
+     * @return the number of calls whose forest was taken from the forest cache
+     */
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    /**
+     * @return the number of calls of the given kind
+     */
+    public long getCalls(TraversalEvent.Kind kind) {
+        long res = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            res += latencies.get(kind.ordinal() * NUM_BUCKETS + i);
+        }
+        return res;
+    }
+
+    /**
+     * @return the number of calls of the given kind by latency: element i
+     *         counts the calls which took from 2^(i - 1) nanoseconds, included,
+     *         to 2^i, excluded
+     */
+    public long[] getLatencyHistogram(TraversalEvent.Kind kind) {
+        long[] res = new long[NUM_BUCKETS];
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            res[i] = latencies.get(kind.ordinal() * NUM_BUCKETS + i);
+        }
+        return res;
+    }
+
+    /**
+     * Estimates a percentile of the latency of the calls of the given kind.
+     *
+     * @param percentile between 0 and 100
+     * @return the upper bound of the bucket the percentile falls in, in
+     *         nanoseconds, or 0 if there were no such calls
+     * @throws IllegalArgumentException if the percentile is out of range
+     */
+    public long getLatencyPercentile(TraversalEvent.Kind kind, double percentile) throws IllegalArgumentException {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("percentile out of range: " + percentile);
+        }
+        long[] histogram = getLatencyHistogram(kind);
+        long total = 0;
+        for (long count : histogram) {
+            total += count;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            seen += histogram[i];
+            if (seen >= rank) {
+                return i == 0 ? 0 : i == NUM_BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
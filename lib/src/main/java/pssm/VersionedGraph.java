@@ -0,0 +1,127 @@
+package pssm;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import pssm.devices.BaseDevice;
+import pssm.exceptions.DuplicateDevice;
+import pssm.exceptions.DuplicateEdge;
+import pssm.exceptions.InvalidPort;
+import pssm.exceptions.NoSuchDevice;
+
+/**
+ * A graph edited by one thread at a time and read by any number of threads.
+ *
+ * Every edit publishes a new {@link GraphVersion}, and {@link #current()}
+ * returns the latest one without taking a lock, so a reader is never held up
+ * by an edit, and keeps seeing the version it got however the graph is edited
+ * afterwards. Opening or closing a switch only copies the switch states, the
+ * new version shares the compiled graph of the previous one. Changing the
+ * topology compiles the graph again, so many changes should be made in one
+ * {@link #edit(Consumer)}.
+ *
+ * The edits are serialized on the versioned graph.
+ */
+public final class VersionedGraph {
+    private final PowerSupplySystemGraph graph;
+
+    private final AtomicReference<GraphVersion> current = new AtomicReference<>();
+
+    /**
+     * Publishes the given graph as the first version. The graph must be edited
+     * through this versioned graph from now on, and the state of its switches
+     * is the one they have now.
+     */
+    public VersionedGraph(PowerSupplySystemGraph graph) {
+        this.graph = graph;
+        CompiledGraph compiled = graph.compile();
+        current.set(new GraphVersion(0, compiled, compiled.switchStates(null), graph.getLoopPolicy()));
+    }
+
+    /**
+     * @return the latest version
+     */
+    public GraphVersion current() {
+        return current.get();
+    }
+
+    /**
+     * Opens or closes a switch.
+     *
+     * @return the version published, or the current one if the switch is in
+     *         that state already
+     * @throws NoSuchDevice             if there's no such device in the system
+     * @throws IllegalArgumentException if the device is not a switch
+     */
+    public synchronized GraphVersion setSwitch(String switchName, boolean closed)
+            throws NoSuchDevice, IllegalArgumentException {
+        GraphVersion version = current.get();
+        CompiledGraph compiled = version.getCompiledGraph();
+        int switchIndex = compiled.switchIndexOf(switchName);
+        SwitchStateVector closedSwitches = version.getSwitchStates();
+        if (closedSwitches.get(switchIndex) == closed) {
+            return version;
+        }
+        closedSwitches.set(switchIndex, closed);
+        return publish(version, compiled, closedSwitches);
+    }
+
+    /**
+     * Adds a device, see {@link PowerSupplySystemGraph#addDevice(BaseDevice)}.
+     *
+     * @return the version published
+     */
+    public GraphVersion addDevice(BaseDevice device) throws DuplicateDevice {
+        return edit(target -> target.addDevice(device));
+    }
+
+    /**
+     * Adds an edge, see {@link PowerSupplySystemGraph#addEdge(String, String, Object)}.
+     *
+     * @return the version published
+     */
+    public GraphVersion addEdge(String firstPortId, String secondPortId, Object extras)
+            throws InvalidPort, DuplicateEdge {
+        return edit(target -> target.addEdge(firstPortId, secondPortId, extras));
+    }
+
+    /**
+     * Edits the topology of the graph, and publishes the result as one version.
+     * The switches added keep their own state, the others keep the one of the
+     * current version.
+     *
+     * If the editor fails, what it changed before failing is published all the
+     * same, since the graph can't be rolled back, and the failure is rethrown.
+     *
+     * @param editor changes the graph, it must neither keep the graph nor use
+     *               it from another thread
+     * @return the version published, or the current one if the topology is
+     *         unchanged
+     */
+    public synchronized GraphVersion edit(Consumer<PowerSupplySystemGraph> editor) {
+        GraphVersion version = current.get();
+        try {
+            editor.accept(graph);
+        } finally {
+            CompiledGraph compiled = graph.compile();
+            if (compiled != version.getCompiledGraph()) {
+                // the switches are numbered in the order they were added, and
+                // none is ever removed
+                SwitchStateVector closedSwitches = compiled.switchStates(null);
+                SwitchStateVector previous = version.getSwitchStates();
+                for (int i = 0; i < previous.size(); i++) {
+                    closedSwitches.set(i, previous.get(i));
+                }
+                version = publish(version, compiled, closedSwitches);
+            }
+        }
+        return version;
+    }
+
+    private GraphVersion publish(GraphVersion previous, CompiledGraph compiled, SwitchStateVector closedSwitches) {
+        GraphVersion version = new GraphVersion(previous.getVersion() + 1, compiled, closedSwitches,
+                graph.getLoopPolicy());
+        current.set(version);
+        return version;
+    }
+}
@@ -0,0 +1,14 @@
+package pssm.exceptions;
+
+import pssm.devices.BaseDevice;
+
+public class ClosedLoop extends IllegalArgumentException {
+    public final BaseDevice powerSupply;
+    public final String portId;
+
+    public ClosedLoop(BaseDevice powerSupply, String portId) {
+        super("Closed loop: from " + powerSupply.name + " back to " + portId);
+        this.powerSupply = powerSupply;
+        this.portId = portId;
+    }
+}
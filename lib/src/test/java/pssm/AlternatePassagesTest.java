@@ -0,0 +1,216 @@
+package pssm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.ToDoubleFunction;
+
+import org.apache.commons.math3.util.Pair;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import pssm.devices.BaseDevice;
+import pssm.devices.Bus;
+import pssm.devices.DcDc;
+import pssm.devices.Diode;
+import pssm.devices.Load;
+import pssm.devices.PowerSupply;
+import pssm.devices.Switch;
+import pssm.exceptions.InvalidPort;
+
+public class AlternatePassagesTest {
+
+    private static final ToDoubleFunction<Object> LENGTH = extras -> (Double) extras;
+
+    private PowerSupplySystemGraph graph;
+
+    /**
+     * power_supply_0 and power_supply_1 feed bus_0 and bus_1 through switch_0
+     * and switch_1, and the buses can be tied by switch_tie. bus_2 hangs off
+     * bus_0 by switch_2, and off bus_1 by switch_3, and feeds bus_3 through a
+     * DcDc. A diode passes power from bus_3 to bus_4, which power_supply_2 feeds
+     * through switch_4. Every bus has a load. The extras of every edge are its
+     * length, which is also its length attribute.
+     */
+    @BeforeMethod
+    public void setUp() {
+        graph = new PowerSupplySystemGraph(new EdgeSchema.Builder().doubleColumn("length").build());
+        for (BaseDevice device : Arrays.asList(new PowerSupply("power_supply_0"), new PowerSupply("power_supply_1"),
+                new PowerSupply("power_supply_2"), new Switch("switch_0"), new Switch("switch_1"),
+                new Switch("switch_tie"), new Switch("switch_2"), new Switch("switch_3"), new Switch("switch_4"),
+                new Bus("bus_0"), new Bus("bus_1"), new Bus("bus_2"), new Bus("bus_3"), new Bus("bus_4"),
+                new DcDc("dc_dc"), new Diode("diode"), new Load("load_0"), new Load("load_1"), new Load("load_2"),
+                new Load("load_3"), new Load("load_4"))) {
+            graph.addDevice(device);
+        }
+        Object[][] edges = {
+                { "power_supply_0.0", "switch_0.0", 1.0 }, { "switch_0.1", "bus_0.0", 2.5 },
+                { "power_supply_1.0", "switch_1.0", 1.0 }, { "switch_1.1", "bus_1.0", 1.0 },
+                { "bus_0.0", "switch_tie.0", 0.5 }, { "switch_tie.1", "bus_1.0", 0.5 },
+                { "bus_0.0", "switch_2.0", 3.0 }, { "switch_2.1", "bus_2.0", 1.0 },
+                { "bus_1.0", "switch_3.0", 1.0 }, { "switch_3.1", "bus_2.0", 4.0 },
+                { "bus_2.0", "dc_dc.0", 1.0 }, { "dc_dc.1", "bus_3.0", 1.0 },
+                { "bus_3.0", "diode.0", 1.0 }, { "diode.1", "bus_4.0", 1.0 },
+                { "power_supply_2.0", "switch_4.0", 2.0 }, { "switch_4.1", "bus_4.0", 2.0 },
+                { "bus_0.0", "load_0.0", 1.0 }, { "bus_1.0", "load_1.0", 1.0 }, { "bus_2.0", "load_2.0", 1.0 },
+                { "bus_3.0", "load_3.0", 1.0 }, { "bus_4.0", "load_4.0", 1.0 },
+        };
+        EdgeAttributes.DoubleColumn length = graph.getEdgeAttributes().doubleColumn("length");
+        for (int e = 0; e < edges.length; e++) {
+            graph.addEdge((String) edges[e][0], (String) edges[e][1], edges[e][2]);
+            length.set(e, (Double) edges[e][2]);
+        }
+    }
+
+    /**
+     * Every loopless passage to the given port, found by walking from every
+     * power supply, with its weight.
+     */
+    private List<Pair<List<Integer>, Double>> allPassages(int destination, ToDoubleFunction<Object> edgeWeight) {
+        CompiledGraph compiled = graph.compile();
+        List<Pair<List<Integer>, Double>> res = new ArrayList<>();
+        for (int powerSupply : compiled.powerSupplyPorts) {
+            List<Integer> path = new ArrayList<>();
+            path.add(powerSupply);
+            walk(compiled, path, 0, destination, edgeWeight, res);
+        }
+        return res;
+    }
+
+    private void walk(CompiledGraph compiled, List<Integer> path, double weight, int destination,
+            ToDoubleFunction<Object> edgeWeight, List<Pair<List<Integer>, Double>> res) {
+        int port = path.get(path.size() - 1);
+        if (port == destination) {
+            res.add(Pair.create(new ArrayList<>(path), weight));
+            return;
+        }
+        for (int slot = compiled.offsets.get(port); slot < compiled.offsets.get(port + 1); slot++) {
+            int next = compiled.neighbours.get(slot);
+            if (!path.contains(next) && compiled.portTypes[next] != CompiledGraph.TYPE_POWER_SUPPLY) {
+                path.add(next);
+                walk(compiled, path, weight + (edgeWeight == null ? 1
+                        : edgeWeight.applyAsDouble(compiled.edgeExtras[compiled.adjacencyEdges.get(slot)])),
+                        destination, edgeWeight, res);
+                path.remove(path.size() - 1);
+            }
+        }
+        int sibling = compiled.siblings[port];
+        boolean passes = compiled.portTypes[port] == CompiledGraph.TYPE_SWITCH
+                || compiled.portTypes[port] == CompiledGraph.TYPE_DC_DC
+                || compiled.portTypes[port] == CompiledGraph.TYPE_DIODE && compiled.portIndices[port] == 0;
+        if (sibling >= 0 && passes && !path.contains(sibling)) {
+            path.add(sibling);
+            walk(compiled, path, weight + (edgeWeight == null ? 1 : 0), destination, edgeWeight, res);
+            path.remove(path.size() - 1);
+        }
+    }
+
+    private double weightOf(CompactPassage passage, List<Pair<List<Integer>, Double>> all) {
+        for (Pair<List<Integer>, Double> p : all) {
+            if (p.getFirst().size() == passage.size()) {
+                boolean same = true;
+                for (int i = 0; i < passage.size() && same; i++) {
+                    same = p.getFirst().get(i) == passage.getPort(i);
+                }
+                if (same) {
+                    return p.getSecond();
+                }
+            }
+        }
+        throw new RuntimeException("not a loopless passage: " + passage);
+    }
+
+    @Test
+    public void alternatePassages() {
+        List<CompactPassage> passages = graph.findAlternatePassages("load_2.0", 3);
+        assertEquals(passages.size(), 3);
+        // the two of 7 hops, in either order
+        assertEquals(new HashSet<>(passages.subList(0, 2)), new HashSet<>(Arrays.asList(
+                Arrays.asList(Pair.create("power_supply_0", 0), Pair.create("switch_0", 0),
+                        Pair.create("switch_0", 1), Pair.create("bus_0", 0), Pair.create("switch_2", 0),
+                        Pair.create("switch_2", 1), Pair.create("bus_2", 0), Pair.create("load_2", 0)),
+                Arrays.asList(Pair.create("power_supply_1", 0), Pair.create("switch_1", 0),
+                        Pair.create("switch_1", 1), Pair.create("bus_1", 0), Pair.create("switch_3", 0),
+                        Pair.create("switch_3", 1), Pair.create("bus_2", 0), Pair.create("load_2", 0)))));
+        assertEquals(passages.get(2).size(), 11);
+
+        // by length, switch_tie makes power_supply_1 the closest to bus_0
+        passages = graph.findAlternatePassages("load_0.0", 1, LENGTH);
+        assertEquals(passages.get(0).get(0), Pair.create("power_supply_1", 0));
+
+        // the diode only passes power towards bus_4
+        passages = graph.findAlternatePassages("load_3.0", 100);
+        for (CompactPassage passage : passages) {
+            assertTrue(passage.get(0).getFirst().equals("power_supply_0")
+                    || passage.get(0).getFirst().equals("power_supply_1"));
+        }
+        // by every power supply, through switch_2 or switch_3, and maybe
+        // switch_tie
+        assertEquals(passages.size(), 4);
+
+        assertEquals(graph.findAlternatePassages("power_supply_2.0", 3).size(), 1);
+        assertTrue(graph.findAlternatePassages("load_0.0", 0).isEmpty());
+
+        try {
+            graph.findAlternatePassages("load_5.0", 1);
+            throw new RuntimeException("shouldn't reach here");
+        } catch (InvalidPort e) {
+        }
+        try {
+            graph.findAlternatePassages("load_0.0", 1, extras -> -1);
+            throw new RuntimeException("shouldn't reach here");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void shortestOfAll() {
+        CompiledGraph compiled = graph.compile();
+        for (ToDoubleFunction<Object> edgeWeight : Arrays.asList(null, LENGTH)) {
+            for (BaseDevice device : graph.getDevices().values()) {
+                for (int i = 0; i < device.getNumPorts(); i++) {
+                    String portId = Utils.genPortId(Pair.create(device.name, i));
+                    List<Pair<List<Integer>, Double>> all = allPassages(compiled.indexOf(portId), edgeWeight);
+                    all.sort((a, b) -> Double.compare(a.getSecond(), b.getSecond()));
+                    for (int k = 1; k <= all.size() + 1; k++) {
+                        List<CompactPassage> passages = graph.findAlternatePassages(portId, k, edgeWeight);
+                        assertEquals(passages.size(), Math.min(k, all.size()), portId);
+                        Set<List<Pair<String, Integer>>> distinct = new HashSet<>();
+                        for (int j = 0; j < passages.size(); j++) {
+                            assertEquals(weightOf(passages.get(j), all), all.get(j).getSecond(), 1e-9, portId);
+                            assertTrue(distinct.add(passages.get(j)));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void batch() {
+        List<String> loads = Arrays.asList("load_0.0", "load_1.0", "load_2.0", "load_3.0", "load_4.0");
+        Map<String, List<CompactPassage>> res = graph.findAlternatePassagesBatch(loads, 4, LENGTH);
+        assertEquals(new ArrayList<>(res.keySet()), loads);
+        for (String load : loads) {
+            assertEquals(res.get(load), graph.findAlternatePassages(load, 4, LENGTH));
+        }
+
+        EdgeAttributes.DoubleColumn length = graph.getEdgeAttributes().doubleColumn("length");
+        assertEquals(graph.findAlternatePassagesBatch(loads, 4, length), res);
+        for (String load : loads) {
+            assertEquals(graph.findAlternatePassages(load, 4, length), res.get(load));
+        }
+
+        try {
+            graph.findAlternatePassagesBatch(Arrays.asList("load_0.0", "load_5.0"), 4, LENGTH);
+            throw new RuntimeException("shouldn't reach here");
+        } catch (InvalidPort e) {
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package pssm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import org.apache.commons.math3.util.Pair;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import pssm.devices.BaseDevice;
+import pssm.devices.Bus;
+import pssm.devices.DcDc;
+import pssm.devices.Diode;
+import pssm.devices.Load;
+import pssm.devices.PowerSupply;
+import pssm.devices.Switch;
+
+public class ContingencyAnalysisTest {
+
+    private PowerSupplySystemGraph graph;
+
+    // every device but the loads, then every edge as a pair of port ids
+    private List<Object> elements;
+
+    @BeforeMethod
+    public void setUp() {
+        graph = build(Collections.emptySet());
+        elements = new ArrayList<>();
+        for (BaseDevice device : graph.getDevices().values()) {
+            if (!(device instanceof Load)) {
+                elements.add(device.name);
+            }
+        }
+        for (Edge edge : graph.getEdges()) {
+            elements.add(Arrays.asList(edge.first.getId(), edge.second.getId()));
+        }
+    }
+
+    /**
+     * Two power supplies joined by diodes on bus_0, a ring of three buses, and
+     * a DcDc feeding bus_3. The given elements fail: a failed switch, DcDc or
+     * diode is replaced by an open switch, any other failed device and failed
+     * edge is left out.
+     */
+    private static PowerSupplySystemGraph build(Set<Object> failed) {
+        List<BaseDevice> devices = new ArrayList<>();
+        Set<String> ports = new HashSet<>();
+        for (BaseDevice device : Arrays.asList(new PowerSupply("power_supply_0"), new PowerSupply("power_supply_1"),
+                new Diode("diode_0"), new Diode("diode_1"), new Bus("bus_0"), new Bus("bus_1"), new Bus("bus_2"),
+                new Bus("bus_3"), new Switch("switch_0", true), new Switch("switch_1", true),
+                new Switch("switch_2", true), new Switch("switch_3", false), new DcDc("dc_dc"),
+                new Load("load_0"), new Load("load_1"), new Load("load_2"), new Load("load_3"),
+                new Load("load_4"))) {
+            if (!failed.contains(device.name)) {
+                devices.add(device);
+            } else if (device.getNumPorts() == 2) {
+                devices.add(new Switch(device.name, false));
+            } else {
+                continue;
+            }
+            for (int i = 0; i < device.getNumPorts(); i++) {
+                ports.add(Utils.genPortId(device.name, i));
+            }
+        }
+        String[][] edges = {
+                { "power_supply_0.0", "diode_0.0" }, { "diode_0.1", "bus_0.0" },
+                { "power_supply_1.0", "diode_1.0" }, { "diode_1.1", "bus_0.0" },
+                { "bus_0.0", "switch_0.0" }, { "switch_0.1", "bus_1.0" },
+                { "bus_1.0", "switch_1.0" }, { "switch_1.1", "bus_2.0" },
+                { "bus_2.0", "switch_2.0" }, { "switch_2.1", "bus_0.0" },
+                { "bus_1.0", "dc_dc.0" }, { "dc_dc.1", "bus_3.0" },
+                { "bus_0.0", "load_0.0" }, { "bus_1.0", "load_1.0" }, { "bus_2.0", "load_2.0" },
+                { "bus_3.0", "load_3.0" }, { "bus_3.0", "switch_3.0" }, { "switch_3.1", "load_4.0" },
+        };
+        List<String[]> kept = new ArrayList<>();
+        for (String[] edge : edges) {
+            if (!failed.contains(Arrays.asList(edge[0], edge[1])) && ports.contains(edge[0])
+                    && ports.contains(edge[1])) {
+                kept.add(edge);
+            }
+        }
+        return TestGraphs.build(devices, kept.toArray(new String[0][]));
+    }
+
+    private static Set<String> fedLoads(PowerSupplySystemGraph graph) {
+        List<Pair<String, Integer>> loads = new ArrayList<>();
+        boolean powered = false;
+        for (BaseDevice device : graph.getDevices().values()) {
+            if (device instanceof Load) {
+                loads.add(Pair.create(device.name, 0));
+            }
+            powered |= device instanceof PowerSupply;
+        }
+        Set<String> res = new HashSet<>();
+        if (!powered) {
+            return res;
+        }
+        for (String portId : graph.findPassages(loads).keySet()) {
+            res.add(portId.substring(0, portId.indexOf('.')));
+        }
+        return res;
+    }
+
+    private Set<String> lostLoads(Set<Object> failed) {
+        Set<String> res = new HashSet<>(fedLoads(graph));
+        res.removeAll(fedLoads(build(failed)));
+        return res;
+    }
+
+    private static Set<Object> failedElements(Contingency contingency) {
+        Set<Object> res = new HashSet<>();
+        for (BaseDevice device : contingency.getFailedDevices()) {
+            res.add(device.name);
+        }
+        for (Edge edge : contingency.getFailedEdges()) {
+            res.add(Arrays.asList(edge.first.getId(), edge.second.getId()));
+        }
+        return res;
+    }
+
+    private static Set<String> names(List<BaseDevice> devices) {
+        Set<String> res = new HashSet<>();
+        for (BaseDevice device : devices) {
+            res.add(device.name);
+        }
+        return res;
+    }
+
+    @Test
+    public void singleFailures() {
+        ContingencyAnalysis analysis = new ContingencyAnalysis(graph);
+        assertEquals(analysis.getNumElements(), elements.size());
+        Map<Set<Object>, Set<String>> cases = new HashMap<>();
+        for (Contingency contingency : analysis.analyze(1)) {
+            assertEquals(contingency.getOrder(), 1);
+            cases.put(failedElements(contingency), names(contingency.getLostLoads()));
+        }
+        Map<Set<Object>, Set<String>> expected = new HashMap<>();
+        expected.put(Collections.singleton("bus_0"), new HashSet<>(Arrays.asList("load_0", "load_1", "load_2",
+                "load_3")));
+        expected.put(Collections.singleton("bus_1"), new HashSet<>(Arrays.asList("load_1", "load_3")));
+        expected.put(Collections.singleton("bus_2"), Collections.singleton("load_2"));
+        expected.put(Collections.singleton("bus_3"), Collections.singleton("load_3"));
+        expected.put(Collections.singleton("dc_dc"), Collections.singleton("load_3"));
+        expected.put(Collections.singleton(Arrays.asList("bus_1.0", "dc_dc.0")), Collections.singleton("load_3"));
+        expected.put(Collections.singleton(Arrays.asList("dc_dc.1", "bus_3.0")), Collections.singleton("load_3"));
+        for (int i = 0; i < 4; i++) {
+            expected.put(Collections.singleton(Arrays.asList("bus_" + i + ".0", "load_" + i + ".0")),
+                    Collections.singleton("load_" + i));
+        }
+        assertEquals(cases, expected);
+    }
+
+    @Test
+    public void doubleFailures() {
+        List<Contingency> contingencies = new ContingencyAnalysis(graph).analyze(2);
+        Map<Set<Object>, Set<String>> cases = new HashMap<>();
+        for (Contingency contingency : contingencies) {
+            Set<Object> failed = failedElements(contingency);
+            assertEquals(names(contingency.getLostLoads()), lostLoads(failed), failed.toString());
+            cases.put(failed, names(contingency.getLostLoads()));
+        }
+        assertEquals(cases.size(), contingencies.size());
+        // both power supplies, or both ways round the ring
+        assertEquals(cases.get(new HashSet<>(Arrays.asList("power_supply_0", "power_supply_1"))),
+                new HashSet<>(Arrays.asList("load_0", "load_1", "load_2", "load_3")));
+        assertEquals(cases.get(new HashSet<>(Arrays.asList("switch_0", "switch_2"))),
+                new HashSet<>(Arrays.asList("load_1", "load_2", "load_3")));
+
+        // every pair losing some load is reported, or a part of it losing the
+        // same loads
+        for (int i = 0; i < elements.size(); i++) {
+            for (int j = i; j < elements.size(); j++) {
+                Set<Object> failed = new HashSet<>(Arrays.asList(elements.get(i), elements.get(j)));
+                Set<String> lost = lostLoads(failed);
+                if (lost.isEmpty()) {
+                    continue;
+                }
+                boolean covered = false;
+                for (Map.Entry<Set<Object>, Set<String>> entry : cases.entrySet()) {
+                    covered |= failed.containsAll(entry.getKey()) && entry.getValue().equals(lost);
+                }
+                assertTrue(covered, failed.toString());
+            }
+        }
+    }
+
+    @Test
+    public void inParallel() {
+        ContingencyAnalysis analysis = new ContingencyAnalysis(graph);
+        ForkJoinPool pool = new ForkJoinPool(3);
+        try {
+            assertEquals(analysis.analyze(3, pool).toString(), analysis.analyze(3).toString());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void nonPositiveOrder() {
+        new ContingencyAnalysis(graph).analyze(0);
+    }
+}
@@ -0,0 +1,178 @@
+package pssm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.math3.util.Pair;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import pssm.devices.BaseDevice;
+import pssm.devices.Bus;
+import pssm.devices.DcDc;
+import pssm.devices.Diode;
+import pssm.devices.Load;
+import pssm.devices.PowerSupply;
+import pssm.devices.Switch;
+import pssm.exceptions.InvalidPort;
+
+public class CriticalDeviceIndexTest {
+
+    private static final List<String> SWITCHES = Arrays.asList("switch_0", "switch_1", "switch_tie", "switch_2",
+            "switch_3", "switch_4");
+
+    private PowerSupplySystemGraph graph;
+
+    /**
+     * Two power supplies on bus_0 and bus_1, joined by a tie switch, a ring
+     * through bus_2, a diode down to bus_3, and a DcDc down to bus_4, whose
+     * load hangs off a switch.
+     */
+    @BeforeMethod
+    public void setUp() {
+        List<BaseDevice> devices = Arrays.asList(new PowerSupply("power_supply_0"), new PowerSupply("power_supply_1"),
+                new Switch("switch_0", true), new Switch("switch_1", true), new Switch("switch_tie"),
+                new Switch("switch_2", true), new Switch("switch_3"), new Switch("switch_4", true),
+                new Bus("bus_0"), new Bus("bus_1"), new Bus("bus_2"), new Bus("bus_3"), new Bus("bus_4"),
+                new Diode("diode"), new DcDc("dc_dc"), new Load("load_0"), new Load("load_1"),
+                new Load("load_2"), new Load("load_3"), new Load("load_4"));
+        String[][] edges = {
+                { "power_supply_0.0", "switch_0.0" }, { "switch_0.1", "bus_0.0" },
+                { "power_supply_1.0", "switch_1.0" }, { "switch_1.1", "bus_1.0" },
+                { "bus_0.0", "switch_tie.0" }, { "switch_tie.1", "bus_1.0" },
+                { "bus_0.0", "switch_2.0" }, { "switch_2.1", "bus_2.0" },
+                { "bus_1.0", "switch_3.0" }, { "switch_3.1", "bus_2.0" },
+                { "bus_2.0", "diode.0" }, { "diode.1", "bus_3.0" },
+                { "bus_2.0", "dc_dc.0" }, { "dc_dc.1", "bus_4.0" },
+                { "bus_4.0", "switch_4.0" }, { "switch_4.1", "load_4.0" },
+                { "bus_0.0", "load_0.0" }, { "bus_1.0", "load_1.0" }, { "bus_2.0", "load_2.0" },
+                { "bus_3.0", "load_3.0" },
+        };
+        graph = TestGraphs.build(devices, edges);
+    }
+
+    /**
+     * The ports power supplies reach under the given truth table, without the
+     * given port.
+     */
+    private Set<Port> fed(Map<String, Boolean> truthTable, Port dead) {
+        Set<Port> res = new HashSet<>();
+        Deque<Port> queue = new ArrayDeque<>();
+        for (Port port : graph.getPorts().values()) {
+            if (port.device instanceof PowerSupply && port != dead) {
+                res.add(port);
+                queue.add(port);
+            }
+        }
+        while (!queue.isEmpty()) {
+            Port port = queue.poll();
+            List<Port> children = new ArrayList<>();
+            for (Pair<Port, Object> adj : port.adjList) {
+                children.add(adj.getFirst());
+            }
+            boolean conducts = port.device instanceof DcDc || (port.device instanceof Diode && port.index == 0)
+                    || (port.device instanceof Switch && truthTable.get(port.device.name));
+            if (conducts) {
+                children.add(graph.getPorts().get(Utils.genPortId(port.device.name, 1 - port.index)));
+            }
+            for (Port child : children) {
+                if (child != dead && !(child.device instanceof PowerSupply) && res.add(child)) {
+                    queue.add(child);
+                }
+            }
+        }
+        return res;
+    }
+
+    /**
+     * The devices one of whose ports every passage to the given port goes
+     * through, found by leaving out one port after another.
+     */
+    private Set<String> criticalDevices(Map<String, Boolean> truthTable, Port port) {
+        Set<String> res = new HashSet<>();
+        if (!fed(truthTable, null).contains(port)) {
+            return res;
+        }
+        for (Port dead : graph.getPorts().values()) {
+            if (dead.device != port.device && !fed(truthTable, dead).contains(port)) {
+                res.add(dead.device.name);
+            }
+        }
+        return res;
+    }
+
+    private static Set<String> names(List<BaseDevice> devices) {
+        Set<String> res = new HashSet<>();
+        for (BaseDevice device : devices) {
+            res.add(device.name);
+        }
+        assertEquals(res.size(), devices.size());
+        return res;
+    }
+
+    @Test
+    public void everyConfiguration() {
+        Map<String, Boolean> truthTable = new HashMap<>();
+        for (String name : SWITCHES) {
+            truthTable.put(name, false);
+        }
+        CriticalDeviceIndex index = new CriticalDeviceIndex(graph, truthTable);
+        // one switch after another, in gray code order
+        for (int i = 0; i < 1 << SWITCHES.size(); i++) {
+            if (i > 0) {
+                String name = SWITCHES.get(Integer.numberOfTrailingZeros(i));
+                truthTable.put(name, !truthTable.get(name));
+                index.setSwitch(name, truthTable.get(name));
+            }
+            assertEquals(index.getSwitchStates(), graph.switchStates(truthTable));
+            Set<Port> fed = fed(truthTable, null);
+            for (Port port : graph.getPorts().values()) {
+                String message = port.getId() + " under " + truthTable;
+                assertEquals(index.isFed(port.getId()), fed.contains(port), message);
+                assertEquals(names(index.criticalDevices(port.getId())), criticalDevices(truthTable, port), message);
+            }
+        }
+    }
+
+    @Test
+    public void criticalDevicesInOrder() {
+        CriticalDeviceIndex index = new CriticalDeviceIndex(graph);
+        assertEquals(names(index.criticalDevices(Pair.create("load_4", 0))), new HashSet<>(Arrays.asList(
+                "power_supply_0", "switch_0", "bus_0", "switch_2", "bus_2", "dc_dc", "bus_4", "switch_4")));
+        List<String> devices = new ArrayList<>();
+        for (BaseDevice device : index.criticalDevices("load_3.0")) {
+            devices.add(device.name);
+        }
+        assertEquals(devices, Arrays.asList("power_supply_0", "switch_0", "bus_0", "switch_2", "bus_2", "diode",
+                "bus_3"));
+
+        // the ring makes bus_2 fed by either power supply
+        index.close("switch_3");
+        assertTrue(index.isClosed("switch_3"));
+        assertEquals(names(index.criticalDevices("load_3.0")), new HashSet<>(Arrays.asList("bus_2", "diode",
+                "bus_3")));
+        index.open("switch_4");
+        assertFalse(index.isFed("load_4.0"));
+        assertTrue(index.criticalDevices("load_4.0").isEmpty());
+        assertEquals(names(index.criticalDevices("switch_4.0")), new HashSet<>(Arrays.asList("bus_2", "dc_dc",
+                "bus_4")));
+
+        try {
+            index.criticalDevices("load_5.0");
+            throw new RuntimeException("shouldn't reach here");
+        } catch (InvalidPort e) {
+            assertEquals(e.portId, "load_5.0");
+        }
+    }
+}
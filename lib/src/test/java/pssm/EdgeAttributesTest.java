@@ -0,0 +1,139 @@
+package pssm;
+
+import static org.testng.Assert.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import pssm.devices.Load;
+import pssm.devices.PowerSupply;
+import pssm.devices.Switch;
+
+public class EdgeAttributesTest {
+
+    private static final EdgeSchema SCHEMA = new EdgeSchema.Builder().doubleColumn("resistance")
+            .doubleColumn("length", 1.5).intColumn("rated_current", 10).build();
+
+    private PowerSupplySystemGraph graph;
+
+    /**
+     * power_supply_0 feeds load_0 through switch_0, the edges have a
+     * resistance, a length and a rated current.
+     */
+    @BeforeMethod
+    public void setUp() {
+        graph = new PowerSupplySystemGraph(SCHEMA);
+        graph.addDevice(new PowerSupply("power_supply_0"));
+        graph.addDevice(new Switch("switch_0", true));
+        graph.addDevice(new Load("load_0"));
+        graph.addEdge("power_supply_0.0", "switch_0.0");
+        graph.addEdge("switch_0.1", "load_0.0");
+    }
+
+    @Test
+    public void columns() {
+        EdgeAttributes attributes = graph.getEdgeAttributes();
+        assertEquals(attributes.getSchema().getDoubleColumns(), Arrays.asList("resistance", "length"));
+        assertEquals(attributes.getSchema().getIntColumns(), Arrays.asList("rated_current"));
+        EdgeAttributes.DoubleColumn resistance = attributes.doubleColumn("resistance");
+        EdgeAttributes.DoubleColumn length = attributes.doubleColumn("length");
+        EdgeAttributes.IntColumn ratedCurrent = attributes.intColumn("rated_current");
+        assertEquals(resistance.get(1), 0.0);
+        assertEquals(length.get(1), 1.5);
+        assertEquals(ratedCurrent.get(0), 10);
+
+        CompiledGraph compiled = graph.compile();
+        resistance.set(1, 0.25);
+        ratedCurrent.set(1, 16);
+        assertEquals(resistance.get(1), 0.25);
+        assertEquals(ratedCurrent.get(1), 16);
+        // the values are not part of the topology
+        assertEquals(graph.compile(), compiled);
+
+        // the ids of the edges of a tree are the ones of the graph
+        DirectedPort load = graph.genForest().get(0).getNodes().get("load_0.0");
+        DirectedEdge edge = load.getParent().edges.get(0);
+        assertEquals(edge.getEdgeId(), 1);
+        assertEquals(resistance.get(edge.getEdgeId()), 0.25);
+        assertEquals(graph.getEdges().get(edge.getEdgeId()).second.getId(), "load_0.0");
+
+        // the columns grow with the edges
+        for (int i = 1; i < 40; i++) {
+            graph.addDevice(new Load("load_" + i));
+            assertEquals(graph.addEdge("switch_0.1", "load_" + i + ".0"), i + 1);
+        }
+        assertEquals(length.get(40), 1.5);
+        assertEquals(resistance.get(1), 0.25);
+
+        try {
+            resistance.get(41);
+            throw new RuntimeException("shouldn't reach here");
+        } catch (IndexOutOfBoundsException e) {
+        }
+        try {
+            attributes.doubleColumn("rated_current");
+            throw new RuntimeException("shouldn't reach here");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new EdgeSchema.Builder().doubleColumn("length").intColumn("length");
+            throw new RuntimeException("shouldn't reach here");
+        } catch (IllegalArgumentException e) {
+        }
+        try {
+            new PowerSupplySystemGraph().getEdgeAttributes().intColumn("rated_current");
+            throw new RuntimeException("shouldn't reach here");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void builder() {
+        PowerSupplySystemGraph built = new PowerSupplySystemGraph.Builder(3, 2, SCHEMA)
+                .addDevice(new PowerSupply("power_supply_0")).addDevice(new Switch("switch_0", true))
+                .addDevice(new Load("load_0")).addEdge("power_supply_0.0", "switch_0.0")
+                .setDouble("resistance", 0.5).setInt("rated_current", 16).addEdge("switch_0.1", "load_0.0")
+                .setDouble("length", 3).build();
+        EdgeAttributes.IntColumn ratedCurrent = built.getEdgeAttributes().intColumn("rated_current");
+        EdgeAttributes.DoubleColumn resistance = built.getEdgeAttributes().doubleColumn("resistance");
+        EdgeAttributes.DoubleColumn length = built.getEdgeAttributes().doubleColumn("length");
+        assertEquals(resistance.get(0), 0.5);
+        assertEquals(ratedCurrent.get(0), 16);
+        assertEquals(length.get(0), 1.5);
+        assertEquals(resistance.get(1), 0.0);
+        assertEquals(ratedCurrent.get(1), 10);
+        assertEquals(length.get(1), 3.0);
+        ratedCurrent.set(0, 32);
+        assertEquals(ratedCurrent.get(0), 32);
+
+        try {
+            new PowerSupplySystemGraph.Builder(0, 0, SCHEMA).setDouble("length", 1);
+            throw new RuntimeException("shouldn't reach here");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            new PowerSupplySystemGraph.Builder(0, 0, SCHEMA).addEdge("power_supply_0.0", "switch_0.0")
+                    .setInt("length", 1);
+            throw new RuntimeException("shouldn't reach here");
+        } catch (IllegalArgumentException e) {
+        }
+    }
+
+    @Test
+    public void snapshot() throws IOException {
+        Path path = Files.createTempFile("graph", ".snapshot");
+        try {
+            // the columns are not part of a snapshot
+            GraphSnapshot.write(graph, path);
+            throw new RuntimeException("shouldn't reach here");
+        } catch (IllegalArgumentException e) {
+        } finally {
+            Files.delete(path);
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package pssm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.util.Pair;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import pssm.devices.BaseDevice;
+import pssm.devices.Bus;
+import pssm.devices.DcDc;
+import pssm.devices.Diode;
+import pssm.devices.Load;
+import pssm.devices.PowerSupply;
+import pssm.devices.Switch;
+import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.InvalidPort;
+import pssm.exceptions.LackPowerSupplies;
+
+public class EnergizationIndexTest {
+
+    private static final List<String> SWITCHES = Arrays.asList("switch_0", "switch_1", "switch_2", "switch_3");
+
+    private PowerSupplySystemGraph graph;
+
+    /**
+     * Two power supplies joined by diodes on bus_0, which feeds bus_1 and,
+     * through a DcDc, bus_2. A diode the wrong way round keeps bus_3 from
+     * bus_2, but bus_3 is tied back to bus_1. A third power supply on bus_4
+     * could be tied to bus_0.
+     */
+    @BeforeMethod
+    public void setUp() {
+        List<BaseDevice> devices = Arrays.asList(new PowerSupply("power_supply_0"), new PowerSupply("power_supply_1"),
+                new PowerSupply("power_supply_2"), new Diode("diode_0"), new Diode("diode_1"), new Diode("diode_2"),
+                new Bus("bus_0"), new Bus("bus_1"), new Bus("bus_2"), new Bus("bus_3"), new Bus("bus_4"),
+                new Switch("switch_0", true), new Switch("switch_1"), new Switch("switch_2", true),
+                new Switch("switch_3"), new DcDc("dc_dc"), new Load("load_1"), new Load("load_2"),
+                new Load("load_3"), new Load("load_4"));
+        String[][] edges = {
+                { "power_supply_0.0", "diode_0.0" }, { "diode_0.1", "bus_0.0" },
+                { "power_supply_1.0", "diode_1.0" }, { "diode_1.1", "bus_0.0" },
+                { "bus_0.0", "switch_0.0" }, { "switch_0.1", "bus_1.0" },
+                { "bus_1.0", "dc_dc.0" }, { "dc_dc.1", "bus_2.0" },
+                { "bus_3.0", "diode_2.0" }, { "diode_2.1", "bus_2.0" },
+                { "bus_3.0", "switch_1.0" }, { "switch_1.1", "bus_1.0" },
+                { "power_supply_2.0", "switch_2.0" }, { "switch_2.1", "bus_4.0" },
+                { "bus_4.0", "switch_3.0" }, { "switch_3.1", "bus_0.0" },
+                { "bus_1.0", "load_1.0" }, { "bus_2.0", "load_2.0" }, { "bus_3.0", "load_3.0" },
+                { "bus_4.0", "load_4.0" },
+        };
+        graph = TestGraphs.build(devices, edges);
+    }
+
+    @Test
+    public void everyConfiguration() {
+        for (int i = 0; i < 1 << SWITCHES.size(); i++) {
+            Map<String, Boolean> truthTable = new HashMap<>();
+            for (int s = 0; s < SWITCHES.size(); s++) {
+                truthTable.put(SWITCHES.get(s), (i & (1 << s)) != 0);
+            }
+            List<PowerSupplySystemTree> forest;
+            try {
+                forest = graph.genForest(truthTable);
+            } catch (ChargePowerSupply e) {
+                try {
+                    new EnergizationIndex(graph, truthTable);
+                    throw new RuntimeException("shouldn't reach here under " + truthTable);
+                } catch (ChargePowerSupply expected) {
+                }
+                continue;
+            }
+            EnergizationIndex index = new EnergizationIndex(graph, truthTable);
+            for (Port port : graph.getPorts().values()) {
+                List<BaseDevice> supplies = new ArrayList<>();
+                for (PowerSupplySystemTree tree : forest) {
+                    if (tree.findPassage(port.getId()) != null) {
+                        supplies.add(tree.getRoot().device);
+                    }
+                }
+                String message = port.getId() + " under " + truthTable;
+                assertEquals(index.suppliesOf(port.getId()), supplies, message);
+                assertEquals(index.isPowered(port.getId()), !supplies.isEmpty(), message);
+                assertEquals(index.isPowered(port.handle), !supplies.isEmpty(), message);
+            }
+        }
+    }
+
+    @Test
+    public void supplies() {
+        EnergizationIndex index = new EnergizationIndex(graph);
+        BaseDevice powerSupply0 = graph.getDevices().get("power_supply_0");
+        BaseDevice powerSupply1 = graph.getDevices().get("power_supply_1");
+        assertEquals(index.suppliesOf(Pair.create("load_2", 0)), Arrays.asList(powerSupply0, powerSupply1));
+        assertEquals(index.suppliesOf(Pair.create("power_supply_0", 0)), Arrays.asList(powerSupply0));
+        assertEquals(index.suppliesOf(graph.getPortHandle("load_4.0")),
+                Arrays.asList(graph.getDevices().get("power_supply_2")));
+        assertFalse(index.isPowered(Pair.create("load_3", 0)));
+        assertTrue(index.suppliesOf("load_3.0").isEmpty());
+
+        index = new EnergizationIndex(graph, graph.switchStates(new HashMap<String, Boolean>() {
+            {
+                put("switch_1", true);
+            }
+        }));
+        assertTrue(index.isPowered("load_3.0"));
+
+        try {
+            new EnergizationIndex(graph, new HashMap<String, Boolean>() {
+                {
+                    put("switch_3", true);
+                }
+            });
+            throw new RuntimeException("shouldn't reach here");
+        } catch (ChargePowerSupply e) {
+            assertEquals(e.from.name, "power_supply_0");
+            assertEquals(e.to.name, "power_supply_2");
+        }
+        try {
+            index.isPowered("load_5.0");
+            throw new RuntimeException("shouldn't reach here");
+        } catch (InvalidPort e) {
+            assertEquals(e.portId, "load_5.0");
+        }
+        PowerSupplySystemGraph other = new PowerSupplySystemGraph();
+        other.addDevice(new Load("load_1"));
+        try {
+            index.isPowered(other.getPortHandle("load_1.0"));
+            throw new RuntimeException("shouldn't reach here");
+        } catch (InvalidPort e) {
+        }
+        try {
+            new EnergizationIndex(other);
+            throw new RuntimeException("shouldn't reach here");
+        } catch (LackPowerSupplies e) {
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package pssm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.util.Pair;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import pssm.devices.Bus;
+import pssm.devices.Load;
+import pssm.devices.PowerSupply;
+import pssm.devices.Switch;
+import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.ClosedLoop;
+import pssm.exceptions.NoSuchDevice;
+
+public class EnergizedTopologyTest {
+
+    private PowerSupplySystemGraph graph;
+
+    private final List<Pair<String, Integer>> loads = Arrays.asList(Pair.create("load_0", 0),
+            Pair.create("load_1", 0));
+
+    @BeforeMethod
+    public void setUp() {
+        graph = new PowerSupplySystemGraph();
+
+        graph.addDevice(new PowerSupply("power_supply_0"));
+        graph.addDevice(new PowerSupply("power_supply_1"));
+
+        graph.addDevice(new Switch("switch_0"));
+        graph.addEdge("power_supply_0.0", "switch_0.0");
+        graph.addDevice(new Switch("switch_1"));
+        graph.addEdge("power_supply_1.0", "switch_1.0");
+
+        graph.addDevice(new Bus("bus_0"));
+        graph.addDevice(new Bus("bus_1"));
+        graph.addEdge("switch_0.1", "bus_0.0");
+        graph.addEdge("switch_1.1", "bus_1.0");
+
+        graph.addDevice(new Switch("switch_2"));
+        graph.addEdge("bus_0.0", "switch_2.0");
+        graph.addEdge("bus_1.0", "switch_2.1");
+
+        graph.addDevice(new Load("load_0"));
+        graph.addDevice(new Load("load_1"));
+        graph.addEdge("bus_0.0", "load_0.0");
+        graph.addEdge("bus_1.0", "load_1.0");
+    }
+
+    private static Map<String, Boolean> truthTable(boolean switch0, boolean switch1, boolean switch2) {
+        Map<String, Boolean> truthTable = new HashMap<>();
+        truthTable.put("switch_0", switch0);
+        truthTable.put("switch_1", switch1);
+        truthTable.put("switch_2", switch2);
+        return truthTable;
+    }
+
+    private static void assertSameTree(DirectedPort actual, DirectedPort expected) {
+        assertEquals(actual.getId(), expected.getId());
+        assertEquals(actual.children.size(), expected.children.size());
+        for (int i = 0; i < expected.children.size(); i++) {
+            assertTrue(actual.children.get(i).getParent() == actual);
+            assertTrue(actual.edges.get(i).getTo() == actual.children.get(i));
+            assertSameTree(actual.children.get(i), expected.children.get(i));
+        }
+    }
+
+    private void assertSameForest(EnergizedTopology topology, Map<String, Boolean> truthTable) {
+        List<PowerSupplySystemTree> expected = graph.genForest(truthTable);
+        List<PowerSupplySystemTree> actual = topology.getForest();
+        assertEquals(actual.size(), expected.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(actual.get(i).getNodes().keySet(), expected.get(i).getNodes().keySet());
+            assertSameTree(actual.get(i).getRoot(), expected.get(i).getRoot());
+        }
+        assertEquals(topology.findPassages(loads), graph.findPassages(loads, truthTable));
+    }
+
+    @Test
+    public void initialForest() {
+        EnergizedTopology topology = new EnergizedTopology(graph, truthTable(true, true, false));
+        assertSameForest(topology, truthTable(true, true, false));
+        assertTrue(topology.isClosed("switch_0"));
+        assertFalse(topology.isClosed("switch_2"));
+        assertTrue(topology.isEnergized("load_1.0"));
+    }
+
+    @Test
+    public void toggleSwitches() {
+        EnergizedTopology topology = new EnergizedTopology(graph, truthTable(true, true, false));
+
+        topology.open("switch_1");
+        assertSameForest(topology, truthTable(true, false, false));
+        assertFalse(topology.isEnergized("load_1.0"));
+
+        topology.close("switch_2");
+        assertSameForest(topology, truthTable(true, false, true));
+        assertTrue(topology.isEnergized("load_1.0"));
+
+        topology.open("switch_0");
+        assertSameForest(topology, truthTable(false, false, true));
+        assertFalse(topology.isEnergized("load_0.0"));
+        assertFalse(topology.isEnergized("load_1.0"));
+
+        topology.close("switch_1");
+        assertSameForest(topology, truthTable(false, true, true));
+
+        topology.open("switch_2");
+        assertSameForest(topology, truthTable(false, true, false));
+    }
+
+    @Test
+    public void chargePowerSupplyLeavesStateUnchanged() {
+        EnergizedTopology topology = new EnergizedTopology(graph, truthTable(true, true, false));
+        List<PowerSupplySystemTree> before = topology.getForest();
+        try {
+            topology.close("switch_2");
+            fail("shouldn't reach here");
+        } catch (ChargePowerSupply e) {
+            assertEquals(e.from, graph.getDevices().get("power_supply_0"));
+            assertEquals(e.to, graph.getDevices().get("power_supply_1"));
+        }
+        assertFalse(topology.isClosed("switch_2"));
+        assertTrue(topology.getForest() == before);
+        assertSameForest(topology, truthTable(true, true, false));
+    }
+
+    @Test(expectedExceptions = NoSuchDevice.class)
+    public void toggleUnknownSwitch() {
+        new EnergizedTopology(graph).close("switch_3");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class, expectedExceptionsMessageRegExp = "bus_0 is not a switch")
+    public void toggleNonSwitch() {
+        new EnergizedTopology(graph).close("bus_0");
+    }
+
+    private static PowerSupplySystemGraph ringGraph() {
+        PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
+        graph.addDevice(new PowerSupply("power_supply_0"));
+        graph.addDevice(new Bus("bus_0"));
+        graph.addDevice(new Bus("bus_1"));
+        graph.addDevice(new Switch("switch_0"));
+        graph.addDevice(new Switch("switch_1"));
+        graph.addDevice(new Load("load_1"));
+        graph.addEdge("power_supply_0.0", "bus_0.0");
+        graph.addEdge("bus_0.0", "switch_0.0");
+        graph.addEdge("switch_0.1", "bus_1.0");
+        graph.addEdge("bus_1.0", "switch_1.0");
+        graph.addEdge("switch_1.1", "bus_0.0");
+        graph.addEdge("bus_1.0", "load_1.0");
+        return graph;
+    }
+
+    @Test
+    public void ringKeepsFirstFeed() {
+        PowerSupplySystemGraph ring = ringGraph();
+        List<Pair<String, Integer>> load = Arrays.asList(Pair.create("load_1", 0), Pair.create("load_2", 0));
+        List<Pair<String, Integer>> viaSwitch0 = Arrays.asList(Pair.create("power_supply_0", 0),
+                Pair.create("bus_0", 0), Pair.create("switch_0", 0), Pair.create("switch_0", 1),
+                Pair.create("bus_1", 0), Pair.create("load_1", 0));
+        List<Pair<String, Integer>> viaSwitch1 = Arrays.asList(Pair.create("power_supply_0", 0),
+                Pair.create("bus_0", 0), Pair.create("switch_1", 1), Pair.create("switch_1", 0),
+                Pair.create("bus_1", 0), Pair.create("load_1", 0));
+        Map<String, Boolean> truthTable = new HashMap<>();
+        truthTable.put("switch_0", true);
+        truthTable.put("switch_1", true);
+        EnergizedTopology topology = new EnergizedTopology(ring, truthTable);
+        assertEquals(topology.getForest().get(0).getNodes().keySet(),
+                ring.genForest(truthTable).get(0).getNodes().keySet());
+        assertEquals(topology.findCompactPassages(load), ring.findCompactPassages(load, truthTable));
+        assertEquals(topology.findCompactPassages(load).get("load_1.0"), Arrays.asList(viaSwitch0));
+
+        topology.open("switch_0");
+        truthTable.put("switch_0", false);
+        assertEquals(topology.getForest().get(0).getNodes().keySet(),
+                ring.genForest(truthTable).get(0).getNodes().keySet());
+        assertTrue(topology.isEnergized("load_1.0"));
+        assertEquals(topology.findCompactPassages(load).get("load_1.0"), Arrays.asList(viaSwitch1));
+        assertEquals(topology.findCompactPassages(load), ring.findCompactPassages(load, truthTable));
+
+        // load_1 keeps its feed through switch_1, where genForest goes through
+        // switch_0 again, the ports are the same
+        topology.close("switch_0");
+        truthTable.put("switch_0", true);
+        assertTrue(topology.isEnergized("switch_0.1"));
+        assertTrue(topology.isEnergized("load_1.0"));
+        assertEquals(topology.getForest().get(0).getNodes().keySet(),
+                ring.genForest(truthTable).get(0).getNodes().keySet());
+        assertEquals(topology.findCompactPassages(load).get("load_1.0"), Arrays.asList(viaSwitch1));
+        assertEquals(ring.findCompactPassages(load, truthTable).get("load_1.0"), Arrays.asList(viaSwitch0));
+        assertEquals(topology.findPassages(load).keySet(), ring.findPassages(load, truthTable).keySet());
+    }
+
+    @Test
+    public void ringReportsLoop() {
+        PowerSupplySystemGraph ring = ringGraph();
+        ring.setLoopPolicy(LoopPolicy.REPORT);
+        Map<String, Boolean> truthTable = new HashMap<>();
+        truthTable.put("switch_0", true);
+        truthTable.put("switch_1", false);
+        EnergizedTopology topology = new EnergizedTopology(ring, truthTable);
+        List<PowerSupplySystemTree> before = topology.getForest();
+        try {
+            topology.close("switch_1");
+            fail("shouldn't reach here");
+        } catch (ClosedLoop e) {
+            assertEquals(e.powerSupply, ring.getDevices().get("power_supply_0"));
+        }
+        assertFalse(topology.isClosed("switch_1"));
+        assertTrue(topology.getForest() == before);
+
+        topology.open("switch_0");
+        assertFalse(topology.isEnergized("load_1.0"));
+        topology.close("switch_1");
+        assertTrue(topology.isEnergized("load_1.0"));
+        truthTable.put("switch_0", false);
+        truthTable.put("switch_1", true);
+        assertEquals(topology.getForest().get(0).getNodes().keySet(),
+                ring.genForest(truthTable).get(0).getNodes().keySet());
+    }
+}
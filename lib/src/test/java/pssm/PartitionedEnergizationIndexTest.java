@@ -0,0 +1,163 @@
+package pssm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import pssm.devices.BaseDevice;
+import pssm.devices.Bus;
+import pssm.devices.DcDc;
+import pssm.devices.Diode;
+import pssm.devices.Load;
+import pssm.devices.PowerSupply;
+import pssm.devices.Switch;
+import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.InvalidPort;
+import pssm.exceptions.LackPowerSupplies;
+
+public class PartitionedEnergizationIndexTest {
+
+    private static final List<String> SWITCHES = Arrays.asList("switch_0", "switch_1", "switch_2", "switch_3",
+            "switch_4");
+
+    private PowerSupplySystemGraph graph;
+
+    /**
+     * Two power supplies joined by diodes on bus_0, which feeds bus_1 and,
+     * through a DcDc, bus_2. A diode the wrong way round keeps bus_3 from
+     * bus_2, but bus_3 is tied back to bus_1. A third power supply on bus_4
+     * could be tied to bus_0. Both bus_2 and bus_3 feed load_5 through diodes
+     * joined by switch_4.
+     */
+    @BeforeMethod
+    public void setUp() {
+        List<BaseDevice> devices = Arrays.asList(new PowerSupply("power_supply_0"), new PowerSupply("power_supply_1"),
+                new PowerSupply("power_supply_2"), new Diode("diode_0"), new Diode("diode_1"), new Diode("diode_2"),
+                new Diode("diode_3"), new Diode("diode_4"), new Bus("bus_0"), new Bus("bus_1"), new Bus("bus_2"),
+                new Bus("bus_3"), new Bus("bus_4"), new Switch("switch_0", true), new Switch("switch_1"),
+                new Switch("switch_2", true), new Switch("switch_3"), new Switch("switch_4", true),
+                new DcDc("dc_dc"), new Load("load_1"), new Load("load_2"), new Load("load_3"),
+                new Load("load_4"), new Load("load_5"));
+        String[][] edges = {
+                { "power_supply_0.0", "diode_0.0" }, { "diode_0.1", "bus_0.0" },
+                { "power_supply_1.0", "diode_1.0" }, { "diode_1.1", "bus_0.0" },
+                { "bus_0.0", "switch_0.0" }, { "switch_0.1", "bus_1.0" },
+                { "bus_1.0", "dc_dc.0" }, { "dc_dc.1", "bus_2.0" },
+                { "bus_3.0", "diode_2.0" }, { "diode_2.1", "bus_2.0" },
+                { "bus_3.0", "switch_1.0" }, { "switch_1.1", "bus_1.0" },
+                { "power_supply_2.0", "switch_2.0" }, { "switch_2.1", "bus_4.0" },
+                { "bus_4.0", "switch_3.0" }, { "switch_3.1", "bus_0.0" },
+                { "bus_2.0", "diode_3.0" }, { "diode_3.1", "switch_4.0" },
+                { "bus_3.0", "diode_4.0" }, { "diode_4.1", "switch_4.0" },
+                { "switch_4.1", "load_5.0" },
+                { "bus_1.0", "load_1.0" }, { "bus_2.0", "load_2.0" }, { "bus_3.0", "load_3.0" },
+                { "bus_4.0", "load_4.0" },
+        };
+        graph = TestGraphs.build(devices, edges);
+    }
+
+    private SwitchStateVector switchStates(int configuration) {
+        Map<String, Boolean> truthTable = new HashMap<>();
+        for (int s = 0; s < SWITCHES.size(); s++) {
+            truthTable.put(SWITCHES.get(s), (configuration & (1 << s)) != 0);
+        }
+        return graph.switchStates(truthTable);
+    }
+
+    @Test
+    public void everyConfiguration() {
+        PartitionedEnergizationIndex partitioned = new PartitionedEnergizationIndex(graph);
+        // the power supplies with their diodes, the switches, the DcDcs, the
+        // loads of the buses, and the diodes feeding load_5
+        assertEquals(partitioned.getNumPartitions(), 13);
+        // from one configuration to the next in Gray code, one switch changes
+        // at a time
+        for (int i = 0; i < 1 << SWITCHES.size(); i++) {
+            SwitchStateVector states = switchStates(i ^ (i >> 1));
+            partitioned.setSwitchStates(states);
+            EnergizationIndex index;
+            try {
+                index = new EnergizationIndex(graph, states);
+            } catch (ChargePowerSupply e) {
+                try {
+                    partitioned.isPowered("load_1.0");
+                    throw new RuntimeException("shouldn't reach here under " + states);
+                } catch (ChargePowerSupply expected) {
+                }
+                continue;
+            }
+            for (Port port : graph.getPorts().values()) {
+                String message = port.getId() + " under " + states;
+                assertEquals(partitioned.suppliesOf(port.getId()), index.suppliesOf(port.getId()), message);
+                assertEquals(partitioned.isPowered(port.getId()), index.isPowered(port.getId()), message);
+            }
+        }
+    }
+
+    @Test
+    public void dirtyPartitions() {
+        PartitionedEnergizationIndex index = new PartitionedEnergizationIndex(graph);
+        BaseDevice powerSupply0 = graph.getDevices().get("power_supply_0");
+        BaseDevice powerSupply1 = graph.getDevices().get("power_supply_1");
+        assertEquals(index.summaries, 13);
+        assertEquals(index.suppliesOf("load_5.0"), Arrays.asList(powerSupply0, powerSupply1));
+        assertFalse(index.isPowered("load_3.0"));
+
+        // only the partition of switch_4 is summed up again
+        index.setSwitch("switch_4", false);
+        index.setSwitch("switch_4", true);
+        index.setSwitch("switch_4", false);
+        assertFalse(index.isPowered("load_5.0"));
+        assertEquals(index.summaries, 14);
+        assertTrue(index.isPowered("load_2.0"));
+        assertEquals(index.summaries, 14);
+
+        index.setSwitch("switch_4", true);
+        index.setSwitch("switch_1", true);
+        assertTrue(index.isPowered("load_3.0"));
+        assertEquals(index.summaries, 16);
+
+        index.setSwitch("switch_3", true);
+        try {
+            index.isPowered("load_3.0");
+            throw new RuntimeException("shouldn't reach here");
+        } catch (ChargePowerSupply e) {
+            assertEquals(e.from.name, "power_supply_0");
+            assertEquals(e.to.name, "power_supply_2");
+        }
+        index.setSwitch("switch_3", false);
+        assertTrue(index.isPowered("load_3.0"));
+        assertEquals(index.getSwitchStates(), graph.switchStates(new HashMap<String, Boolean>() {
+            {
+                put("switch_1", true);
+            }
+        }));
+
+        try {
+            index.isPowered("load_6.0");
+            throw new RuntimeException("shouldn't reach here");
+        } catch (InvalidPort e) {
+            assertEquals(e.portId, "load_6.0");
+        }
+        try {
+            index.setSwitch("load_1", true);
+            throw new RuntimeException("shouldn't reach here");
+        } catch (IllegalArgumentException e) {
+        }
+        PowerSupplySystemGraph other = new PowerSupplySystemGraph();
+        other.addDevice(new Load("load_1"));
+        try {
+            new PartitionedEnergizationIndex(other);
+            throw new RuntimeException("shouldn't reach here");
+        } catch (LackPowerSupplies e) {
+        }
+    }
+}
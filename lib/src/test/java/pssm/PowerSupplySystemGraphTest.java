@@ -5,11 +5,18 @@ import static org.testng.Assert.assertFalse;
 import static org.testng.Assert.assertTrue;
 import static pssm.Utils.genPortId;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.math3.util.Pair;
 import org.testng.annotations.BeforeClass;
@@ -22,6 +29,9 @@ import pssm.devices.Load;
 import pssm.devices.PowerSupply;
 import pssm.devices.Switch;
 import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.ClosedLoop;
+import pssm.exceptions.DuplicateDevice;
+import pssm.exceptions.DuplicateEdge;
 import pssm.exceptions.InvalidPort;
 import pssm.exceptions.LackPowerSupplies;
 import pssm.exceptions.NoSuchDevice;
@@ -112,6 +122,437 @@ public class PowerSupplySystemGraphTest {
         assertEquals(second.adjList.get(0).getFirst(), first);
     }
 
+    @Test
+    public void compile() {
+        PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
+        graph.addDevice(new PowerSupply("power_supply"));
+        graph.addDevice(new Switch("switch"));
+        graph.addEdge("power_supply.0", "switch.0", "cable");
+
+        CompiledGraph compiled = graph.compile();
+        assertTrue(compiled == graph.compile());
+        assertEquals(compiled.getNumPorts(), 3);
+        assertEquals(compiled.getNumEdges(), 1);
+        assertEquals(compiled.indexOf("power_supply.0"), 0);
+        assertEquals(compiled.indexOf("switch.0"), 1);
+        assertEquals(compiled.indexOf("switch.1"), 2);
+        assertEquals(compiled.getPortId(2), "switch.1");
+        assertEquals(compiled.neighbours.get(compiled.offsets.get(0)), 1);
+        assertEquals(compiled.edgeExtras[compiled.adjacencyEdges.get(compiled.offsets.get(1))], "cable");
+        assertEquals(compiled.siblings[1], 2);
+        assertEquals(compiled.siblings[0], -1);
+
+        graph.addDevice(new Load("load"));
+        graph.addEdge("switch.1", "load.0");
+        CompiledGraph recompiled = graph.compile();
+        assertTrue(recompiled != compiled);
+        assertEquals(recompiled.getNumPorts(), 4);
+        assertEquals(recompiled.getNumEdges(), 2);
+    }
+
+    @Test
+    public void forestCache() {
+        PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
+        graph.addDevice(new PowerSupply("power_supply"));
+        Switch switch_ = new Switch("switch");
+        graph.addDevice(switch_);
+        graph.addEdge("power_supply.0", "switch.0");
+        graph.addDevice(new Load("load"));
+        graph.addEdge("switch.1", "load.0");
+
+        ForestCache cache = graph.enableForestCache(1);
+        Map<String, Boolean> closed = new HashMap<>();
+        closed.put("switch", true);
+
+        List<PowerSupplySystemTree> forest = graph.genForest(closed);
+        assertEquals(forest.get(0).getNodes().size(), 4);
+        // the default state of the switch gives the same configuration
+        switch_.close();
+        assertTrue(graph.genForest() == forest);
+        assertEquals(graph.findPassages(Arrays.asList(Pair.create("load", 0))).size(), 1);
+        assertEquals(cache.getHits(), 2);
+        assertEquals(cache.getMisses(), 1);
+
+        switch_.open();
+        assertEquals(graph.genForest().get(0).getNodes().size(), 2);
+        assertEquals(cache.getMisses(), 2);
+        assertEquals(cache.getEvictions(), 1);
+        assertEquals(cache.size(), 1);
+
+        graph.addDevice(new Load("load_1"));
+        assertEquals(cache.size(), 0);
+        assertTrue(graph.genForest(closed) != forest);
+
+        graph.disableForestCache();
+        assertTrue(graph.getForestCache() == null);
+        assertTrue(graph.genForest(closed) != graph.genForest(closed));
+    }
+
+    @Test
+    public void switchStateVector() {
+        CompiledGraph compiled = graph.compile();
+        assertEquals(compiled.getNumSwitches(), 3);
+        int switch2 = compiled.switchIndexOf("switch_2");
+        assertEquals(compiled.getSwitch(switch2).name, "switch_2");
+
+        Map<String, Boolean> truthTable = new HashMap<>();
+        truthTable.put("switch_0", true);
+        truthTable.put("switch_1", false);
+        truthTable.put("switch_2", true);
+        SwitchStateVector states = graph.switchStates(truthTable);
+        assertEquals(states.size(), 3);
+        assertEquals(states.cardinality(), 2);
+        assertTrue(states.get(switch2));
+        List<Pair<String, Integer>> destinations = Arrays.asList(Pair.create("load_0", 0), Pair.create("load_1", 0));
+        assertEquals(graph.findPassagesFor(destinations, states), graph.findPassages(destinations, truthTable));
+        assertEquals(graph.findUpstreamPassagesFor(destinations, states), graph.findPassages(destinations, truthTable));
+
+        SwitchStateVector copy = states.copy();
+        assertEquals(copy, states);
+        assertEquals(copy.hashCode(), states.hashCode());
+        copy.flip(switch2);
+        assertFalse(copy.get(switch2));
+        assertFalse(copy.equals(states));
+        copy.set(switch2, true);
+        assertEquals(copy, states);
+
+        try {
+            graph.genForestFor(new SwitchStateVector(4));
+            throw new RuntimeException("shouldn't reach here");
+        } catch (IllegalArgumentException e) {
+            assertEquals(e.getMessage(), "expected the states of 3 switches, got 4");
+        }
+    }
+
+    @Test
+    public void traversalMetrics() {
+        PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
+        graph.addDevice(new PowerSupply("power_supply"));
+        graph.addDevice(new Switch("switch", true));
+        graph.addEdge("power_supply.0", "switch.0");
+        graph.addDevice(new Load("load"));
+        graph.addEdge("switch.1", "load.0");
+
+        TraversalMetrics metrics = new TraversalMetrics();
+        List<TraversalEvent> events = new ArrayList<>();
+        graph.setTraversalListener(event -> {
+            events.add(event);
+            metrics.onTraversal(event);
+        });
+        graph.genForest();
+        TraversalEvent event = events.get(0);
+        assertEquals(event.getKind(), TraversalEvent.Kind.GEN_FOREST);
+        assertEquals(event.getNumPorts(), 4);
+        assertEquals(event.getNumEdges(), 2);
+        assertEquals(event.getTreesBuilt(), 1);
+        assertEquals(event.getPortsVisited(), 4);
+        // each edge from both of its ends, and the switch both ways
+        assertEquals(event.getEdgesRelaxed(), 6);
+        assertTrue(event.getNanos() > 0);
+
+        graph.enableForestCache(1);
+        graph.findPassages(Arrays.asList(Pair.create("load", 0)));
+        graph.findPassages(Arrays.asList(Pair.create("load", 0)));
+        assertEquals(events.size(), 3);
+        assertEquals(events.get(1).getKind(), TraversalEvent.Kind.FIND_PASSAGES);
+        assertEquals(events.get(1).getPassagesFound(), 1);
+        assertFalse(events.get(1).isCached());
+        assertTrue(events.get(2).isCached());
+        assertEquals(events.get(2).getTreesBuilt(), 0);
+
+        graph.addDevice(new PowerSupply("power_supply_1"));
+        graph.addEdge("power_supply_1.0", "load.0");
+        try {
+            graph.genForest();
+            throw new RuntimeException("shouldn't reach here");
+        } catch (ChargePowerSupply e) {
+            assertTrue(events.get(3).getConflict() == e);
+        }
+
+        assertEquals(metrics.getCalls(TraversalEvent.Kind.GEN_FOREST), 2);
+        assertEquals(metrics.getCalls(TraversalEvent.Kind.FIND_PASSAGES), 2);
+        assertEquals(metrics.getTreesBuilt(), 2);
+        assertEquals(metrics.getPassagesFound(), 2);
+        assertEquals(metrics.getCacheHits(), 1);
+        assertEquals(metrics.getConflicts(), 1);
+        assertTrue(metrics.getLatencyPercentile(TraversalEvent.Kind.FIND_PASSAGES, 100) > Math
+                .max(events.get(1).getNanos(), events.get(2).getNanos()));
+        assertTrue(metrics.getLatencyPercentile(TraversalEvent.Kind.FIND_PASSAGES, 0) <= Math
+                .min(events.get(1).getNanos(), events.get(2).getNanos()) * 2);
+
+        graph.setTraversalListener(null);
+        graph.genForest(new HashMap<String, Boolean>() {
+            {
+                put("switch", false);
+            }
+        });
+        assertEquals(events.size(), 4);
+    }
+
+    @Test
+    public void traversalEventsOfPassages() {
+        PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
+        graph.addDevice(new PowerSupply("power_supply"));
+        graph.addDevice(new Switch("switch", true));
+        graph.addEdge("power_supply.0", "switch.0");
+        graph.addDevice(new Load("load"));
+        graph.addEdge("switch.1", "load.0");
+        List<Pair<String, Integer>> loads = Arrays.asList(Pair.create("load", 0));
+
+        List<TraversalEvent> events = new ArrayList<>();
+        graph.setTraversalListener(events::add);
+        graph.findCompactPassages(loads, null);
+        graph.findPassagesTo(Arrays.asList(graph.getPortHandle("load.0")));
+        graph.findUpstreamPassages(loads);
+        Map<String, Boolean> open = new HashMap<>();
+        open.put("switch", false);
+        graph.findPassagesBatch(loads, Arrays.asList(null, open), Runnable::run);
+        assertEquals(events.size(), 5);
+        for (int i : new int[] { 0, 1, 3, 4 }) {
+            assertEquals(events.get(i).getKind(), TraversalEvent.Kind.FIND_PASSAGES);
+            assertEquals(events.get(i).getTreesBuilt(), 1);
+        }
+        assertEquals(events.get(2).getKind(), TraversalEvent.Kind.FIND_UPSTREAM_PASSAGES);
+        assertEquals(events.get(2).getTreesBuilt(), 0);
+        int[] found = { 1, 1, 1, 1, 0 };
+        for (int i = 0; i < found.length; i++) {
+            assertEquals(events.get(i).getPassagesFound(), found[i]);
+        }
+    }
+
+    @Test
+    public void forestCacheKeepsItsOwnKeys() {
+        PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
+        graph.addDevice(new PowerSupply("power_supply"));
+        graph.addDevice(new Switch("switch"));
+        graph.addEdge("power_supply.0", "switch.0");
+        ForestCache cache = graph.enableForestCache(2);
+
+        SwitchStateVector states = graph.switchStates(null);
+        List<PowerSupplySystemTree> open = graph.genForestFor(states);
+        states.set(0, true);
+        assertEquals(graph.genForestFor(states).get(0).getNodes().size(), 3);
+        states.set(0, false);
+        assertTrue(graph.genForestFor(states) == open);
+        assertEquals(cache.getHits(), 1);
+    }
+
+    @Test
+    public void portHandles() {
+        PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
+        PortHandle powerSupply = graph.addDevice(new PowerSupply("power_supply")).get(0);
+        List<PortHandle> switch_ = graph.addDevice(new Switch("switch", true));
+        PortHandle load = graph.addDevice(new Load("load")).get(0);
+        assertEquals(switch_.size(), 2);
+        assertEquals(switch_.get(1).getId(), "switch.1");
+        assertEquals(switch_.get(1).getPortIndex(), 1);
+        assertTrue(graph.getPortHandle("switch.1") == switch_.get(1));
+        assertEquals(load.getOrdinal(), graph.compile().indexOf("load.0"));
+
+        graph.addEdge(powerSupply, switch_.get(0));
+        graph.addEdge(switch_.get(1), load);
+        try {
+            graph.addEdge(load, switch_.get(1));
+            throw new RuntimeException("shouldn't reach here");
+        } catch (DuplicateEdge e) {
+        }
+        PortHandle stranger = new PowerSupplySystemGraph().addDevice(new Load("load")).get(0);
+        try {
+            graph.addEdge(powerSupply, stranger);
+            throw new RuntimeException("shouldn't reach here");
+        } catch (InvalidPort e) {
+            assertEquals(e.portId, "load.0");
+        }
+
+        Map<PortHandle, List<CompactPassage>> passages = graph.findPassagesTo(Arrays.asList(load));
+        assertEquals(passages.keySet(), new HashSet<>(Arrays.asList(load)));
+        assertEquals(passages.get(load), graph.findPassages(Arrays.asList(Pair.create("load", 0))).get("load.0"));
+        assertEquals(passages.get(load).get(0).getPort(0), powerSupply.getOrdinal());
+    }
+
+    @Test
+    public void genForestInParallel() {
+        PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
+        List<Pair<String, Integer>> loads = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            graph.addDevice(new PowerSupply("power_supply_" + i));
+            graph.addDevice(new Switch("switch_" + i, true));
+            graph.addDevice(new Load("load_" + i));
+            graph.addEdge("power_supply_" + i + ".0", "switch_" + i + ".0");
+            graph.addEdge("switch_" + i + ".1", "load_" + i + ".0");
+            loads.add(Pair.create("load_" + i, 0));
+        }
+        List<PowerSupplySystemTree> expected = graph.genForest();
+        Map<String, List<Passage>> expectedPassages = graph.findPassages(loads);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            graph.setForestPool(pool);
+            assertTrue(graph.getForestPool() == pool);
+            List<PowerSupplySystemTree> forest = graph.genForest();
+            assertEquals(forest.size(), expected.size());
+            for (int i = 0; i < forest.size(); i++) {
+                assertEquals(forest.get(i).getRoot().getId(), expected.get(i).getRoot().getId());
+                assertEquals(forest.get(i).getNodes().keySet(), expected.get(i).getNodes().keySet());
+            }
+            assertEquals(graph.findPassages(loads), expectedPassages);
+
+            // two pairs of power supplies feeding each other, the first pair is reported
+            graph.addEdge("load_2.0", "load_3.0");
+            graph.addEdge("load_5.0", "load_6.0");
+            try {
+                graph.genForest();
+                throw new RuntimeException("shouldn't reach here");
+            } catch (ChargePowerSupply e) {
+                assertEquals(e.from, graph.getDevices().get("power_supply_2"));
+                assertEquals(e.to, graph.getDevices().get("power_supply_3"));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void builder() {
+        // edges could come before the devices they connect
+        PowerSupplySystemGraph built = new PowerSupplySystemGraph.Builder(3, 2)
+                .addEdge("power_supply.0", "switch.0")
+                .addEdge(Pair.create("switch", 1), Pair.create("load", 0), "extras")
+                .addDevice(new PowerSupply("power_supply"))
+                .addDevices(Arrays.asList(new Switch("switch", true), new Load("load")))
+                .build();
+        assertEquals(built.getDevices().keySet(), new HashSet<>(Arrays.asList("power_supply", "switch", "load")));
+        assertEquals(built.getEdges().size(), 2);
+        assertEquals(built.getEdges().get(1).extras, "extras");
+        assertEquals(built.getPorts().get("switch.1").adjList.size(), 1);
+        assertEquals(built.findPassages(Arrays.asList(Pair.create("load", 0))).get("load.0"),
+                Arrays.asList(Arrays.asList(Pair.create("power_supply", 0), Pair.create("switch", 0),
+                        Pair.create("switch", 1), Pair.create("load", 0))));
+        // and it's an ordinary graph afterwards
+        built.addDevice(new Load("load_1"));
+        built.addEdge("switch.1", "load_1.0");
+        try {
+            built.addEdge("load_1.0", "switch.1");
+            throw new RuntimeException("shouldn't reach here");
+        } catch (DuplicateEdge e) {
+        }
+
+        PowerSupplySystemGraph.Builder builder = new PowerSupplySystemGraph.Builder(2, 2)
+                .addDevice(new PowerSupply("power_supply"))
+                .addDevice(new Load("load"))
+                .addEdge("power_supply.0", "load.0")
+                .addEdge("load.0", "power_supply.0");
+        try {
+            builder.build();
+            throw new RuntimeException("shouldn't reach here");
+        } catch (DuplicateEdge e) {
+            assertEquals(e.firstPortId, "load.0");
+            assertEquals(e.secondPortId, "power_supply.0");
+        }
+        try {
+            builder.build();
+            throw new RuntimeException("shouldn't reach here");
+        } catch (IllegalStateException e) {
+        }
+        try {
+            new PowerSupplySystemGraph.Builder(0, 0).addEdge("load.0", "bus.0").build();
+            throw new RuntimeException("shouldn't reach here");
+        } catch (InvalidPort e) {
+            assertEquals(e.portId, "load.0");
+        }
+        try {
+            new PowerSupplySystemGraph.Builder(0, 0).addDevice(new Bus("bus")).addDevice(new Load("bus")).build();
+            throw new RuntimeException("shouldn't reach here");
+        } catch (DuplicateDevice e) {
+        }
+    }
+
+    @Test
+    public void snapshot() throws IOException {
+        PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
+        graph.addDevice(new PowerSupply("power_supply"));
+        graph.addDevice(new Switch("switch", true));
+        graph.addDevice(new DcDc("dc_dc"));
+        graph.addDevice(new Bus("母线"));
+        graph.addDevice(new Load("load"));
+        graph.addEdge("power_supply.0", "switch.0", "cable");
+        graph.addEdge("switch.1", "dc_dc.0");
+        graph.addEdge("dc_dc.1", "母线.0");
+        graph.addEdge("母线.0", "load.0", "cable");
+        List<Object> extras = Arrays.asList("cable");
+
+        Path path = Files.createTempFile("graph", ".snapshot");
+        try {
+            try {
+                GraphSnapshot.write(graph, path);
+                throw new RuntimeException("shouldn't reach here");
+            } catch (IllegalArgumentException e) {
+            }
+            GraphSnapshot.write(graph, path, extras::indexOf);
+            GraphSnapshot snapshot = GraphSnapshot.open(path);
+            assertEquals(snapshot.getNumDevices(), 5);
+            assertEquals(snapshot.getNumPorts(), 7);
+            assertEquals(snapshot.getNumEdges(), 4);
+            assertEquals(snapshot.getDeviceName(3), "母线");
+            assertEquals(snapshot.getSwitchStates(), graph.switchStates(null));
+
+            PowerSupplySystemGraph loaded = snapshot.toGraph(extras::get);
+            CompiledGraph compiled = graph.compile();
+            CompiledGraph loadedCompiled = loaded.compile();
+            // the adjacency is read from the mapping
+            assertTrue(loadedCompiled.offsets.isDirect());
+            assertTrue(loadedCompiled.neighbours.isDirect());
+            assertFalse(compiled.neighbours.isDirect());
+            assertEquals(loadedCompiled.portIds, compiled.portIds);
+            assertEquals(loadedCompiled.offsets, compiled.offsets);
+            assertEquals(loadedCompiled.neighbours, compiled.neighbours);
+            assertEquals(loadedCompiled.twinSlots, compiled.twinSlots);
+            assertEquals(loadedCompiled.anchors, compiled.anchors);
+            assertEquals(loadedCompiled.edgeExtras, compiled.edgeExtras);
+            // the devices, ports and edges are added when they are asked for,
+            // and the compiled graph is kept
+            assertEquals(loaded.getEdges().get(3).extras, "cable");
+            assertEquals(loaded.getPorts().size(), 7);
+            assertEquals(loaded.getPortHandle("母线.0").getOrdinal(), 5);
+            assertTrue(loaded.compile() == loadedCompiled);
+            List<Pair<String, Integer>> loads = Arrays.asList(Pair.create("load", 0));
+            assertEquals(loaded.findPassages(loads), graph.findPassages(loads));
+            assertEquals(snapshot.compile(extras::get).genForest(null).size(), 1);
+            // and it's an ordinary graph afterwards
+            loaded.addDevice(new Load("load_1"));
+            loaded.addEdge("母线.0", "load_1.0");
+            assertEquals(loaded.compile().getNumEdges(), 5);
+            try {
+                loaded.addEdge("load.0", "母线.0");
+                throw new RuntimeException("shouldn't reach here");
+            } catch (DuplicateEdge e) {
+            }
+            try {
+                snapshot.toGraph();
+                throw new RuntimeException("shouldn't reach here");
+            } catch (IllegalArgumentException e) {
+            }
+
+            byte[] bytes = Files.readAllBytes(path);
+            bytes[4] = 2;
+            Files.write(path, bytes);
+            try {
+                GraphSnapshot.open(path);
+                throw new RuntimeException("shouldn't reach here");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("version 2"));
+            }
+            Files.write(path, Arrays.copyOf(bytes, bytes.length - 4));
+            try {
+                GraphSnapshot.open(path);
+                throw new RuntimeException("shouldn't reach here");
+            } catch (IOException e) {
+            }
+        } finally {
+            Files.delete(path);
+        }
+    }
+
     @Test
     public void genForestWithInvalidTruthTable() {
         PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
@@ -861,4 +1302,198 @@ public class PowerSupplySystemGraphTest {
                 Pair.create("load", 0))));
     }
 
+    @Test
+    public void findPassagesBatch() {
+        List<Map<String, Boolean>> truthTables = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            Map<String, Boolean> truthTable = new HashMap<>();
+            truthTable.put("switch_0", (i & 1) != 0);
+            truthTable.put("switch_1", (i & 2) != 0);
+            truthTable.put("switch_2", (i & 4) != 0 && (i & 3) != 3);
+            truthTables.add(truthTable);
+        }
+        List<Pair<String, Integer>> destinations = Arrays.asList(Pair.create("load_0", 0), Pair.create("load_1", 0));
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Map<String, List<Passage>>> batch = graph.findPassagesBatch(destinations, truthTables, executor);
+            assertEquals(batch.size(), truthTables.size());
+            for (int i = 0; i < truthTables.size(); i++) {
+                assertEquals(batch.get(i), graph.findPassages(destinations, truthTables.get(i)));
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(graph.findPassagesBatch(destinations, truthTables),
+                graph.findPassagesBatch(destinations, truthTables, Runnable::run));
+
+        Map<String, Boolean> allClosed = new HashMap<>();
+        allClosed.put("switch_0", true);
+        allClosed.put("switch_1", true);
+        allClosed.put("switch_2", true);
+        try {
+            graph.findPassagesBatch(destinations, Arrays.asList(truthTables.get(0), allClosed));
+            throw new RuntimeException("shouldn't reach here");
+        } catch (ChargePowerSupply e) {
+            assertEquals(e.from, graph.getDevices().get("power_supply_0"));
+        }
+    }
+
+    @Test
+    public void findCompactPassages() {
+        Map<String, Boolean> truthTable = new HashMap<>();
+        truthTable.put("switch_0", true);
+        truthTable.put("switch_1", false);
+        truthTable.put("switch_2", true);
+        List<Pair<String, Integer>> destinations = Arrays.asList(Pair.create("load_0", 0), Pair.create("load_1", 0));
+
+        Map<String, List<CompactPassage>> compactPassages = graph.findCompactPassages(destinations, truthTable);
+        Map<String, List<Passage>> passages = graph.findPassages(destinations, truthTable);
+        assertEquals(compactPassages, passages);
+
+        CompactPassage passage = compactPassages.get("load_1.0").get(0);
+        CompiledGraph compiled = graph.compile();
+        assertTrue(passage.getGraph() == compiled);
+        assertEquals(passage.size(), 8);
+        assertEquals(passage.getPort(0), compiled.indexOf("power_supply_0.0"));
+        assertEquals(passage.getPort(7), compiled.indexOf("load_1.0"));
+        assertEquals(passage.toPassage(), passages.get("load_1.0").get(0));
+    }
+
+    @Test
+    public void findUpstreamPassages() {
+        List<Pair<String, Integer>> destinations = Arrays.asList(Pair.create("load_0", 0), Pair.create("load_1", 0),
+                Pair.create("switch_2", 1));
+        for (int i = 0; i < 8; i++) {
+            Map<String, Boolean> truthTable = new HashMap<>();
+            truthTable.put("switch_0", (i & 1) != 0);
+            truthTable.put("switch_1", (i & 2) != 0);
+            truthTable.put("switch_2", (i & 4) != 0);
+            if (i == 7) {
+                try {
+                    graph.findUpstreamPassages(destinations, truthTable);
+                    throw new RuntimeException("shouldn't reach here");
+                } catch (ChargePowerSupply e) {
+                    assertEquals(e.from, graph.getDevices().get("power_supply_0"));
+                    assertEquals(e.to, graph.getDevices().get("power_supply_1"));
+                }
+                continue;
+            }
+            assertEquals(graph.findUpstreamPassages(destinations, truthTable),
+                    graph.findPassages(destinations, truthTable));
+        }
+    }
+
+    @Test
+    public void findUpstreamPassagesOnlyVisitsTheCone() {
+        PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
+        graph.addDevice(new PowerSupply("power_supply_0"));
+        graph.addDevice(new Diode("diode"));
+        graph.addEdge("power_supply_0.0", "diode.0");
+        graph.addDevice(new Load("load_0"));
+        graph.addEdge("diode.1", "load_0.0");
+
+        // two power supplies feeding each other, away from load_0
+        graph.addDevice(new PowerSupply("power_supply_1"));
+        graph.addDevice(new PowerSupply("power_supply_2"));
+        graph.addDevice(new Load("load_1"));
+        graph.addEdge("power_supply_1.0", "load_1.0");
+        graph.addEdge("power_supply_2.0", "load_1.0");
+
+        Map<String, List<Passage>> passages = graph.findUpstreamPassages(Arrays.asList(Pair.create("load_0", 0),
+                Pair.create("diode", 0), Pair.create("no_such_load", 0)));
+        assertEquals(passages.size(), 2);
+        assertEquals(passages.get("load_0.0"), Arrays.asList(Arrays.asList(
+                Pair.create("power_supply_0", 0), Pair.create("diode", 0), Pair.create("diode", 1),
+                Pair.create("load_0", 0))));
+        assertEquals(passages.get("diode.0"), Arrays.asList(Arrays.asList(
+                Pair.create("power_supply_0", 0), Pair.create("diode", 0))));
+
+        try {
+            graph.findPassages(Arrays.asList(Pair.create("load_0", 0)));
+            throw new RuntimeException("shouldn't reach here");
+        } catch (ChargePowerSupply e) {
+            assertEquals(e.from, graph.getDevices().get("power_supply_1"));
+        }
+    }
+
+    private static PowerSupplySystemGraph ringGraph() {
+        PowerSupplySystemGraph graph = new PowerSupplySystemGraph();
+        graph.addDevice(new PowerSupply("power_supply_0"));
+        graph.addDevice(new Bus("bus_0"));
+        graph.addDevice(new Bus("bus_1"));
+        graph.addDevice(new Bus("bus_2"));
+        graph.addDevice(new Switch("switch_0"));
+        graph.addDevice(new Switch("switch_1"));
+        graph.addDevice(new Switch("switch_2"));
+        graph.addDevice(new Load("load_2"));
+        graph.addEdge("power_supply_0.0", "bus_0.0");
+        // bus_0 -> bus_1 -> bus_2 -> bus_0
+        graph.addEdge("bus_0.0", "switch_0.0");
+        graph.addEdge("switch_0.1", "bus_1.0");
+        graph.addEdge("bus_1.0", "switch_1.0");
+        graph.addEdge("switch_1.1", "bus_2.0");
+        graph.addEdge("bus_2.0", "switch_2.0");
+        graph.addEdge("switch_2.1", "bus_0.0");
+        graph.addEdge("bus_2.0", "load_2.0");
+        return graph;
+    }
+
+    private static Map<String, Boolean> ringTruthTable(boolean closed) {
+        Map<String, Boolean> truthTable = new HashMap<>();
+        truthTable.put("switch_0", closed);
+        truthTable.put("switch_1", closed);
+        truthTable.put("switch_2", closed);
+        return truthTable;
+    }
+
+    @Test
+    public void ringKeepsFirstFeed() {
+        PowerSupplySystemGraph graph = ringGraph();
+        assertTrue(graph.getLoopPolicy() == LoopPolicy.KEEP_FIRST_FEED);
+        List<PowerSupplySystemTree> forest = graph.genForest(ringTruthTable(true));
+        assertEquals(forest.size(), 1);
+        // every port once, the power supply included
+        assertEquals(forest.get(0).getNodes().size(), 11);
+
+        List<Pair<String, Integer>> destinations = Arrays.asList(Pair.create("load_2", 0));
+        Map<String, List<Passage>> passages = graph.findPassages(destinations, ringTruthTable(true));
+        // the shorter way round
+        assertEquals(passages.get("load_2.0"), Arrays.asList(Arrays.asList(
+                Pair.create("power_supply_0", 0), Pair.create("bus_0", 0), Pair.create("switch_2", 1),
+                Pair.create("switch_2", 0), Pair.create("bus_2", 0), Pair.create("load_2", 0))));
+        assertEquals(graph.findUpstreamPassages(destinations, ringTruthTable(true)), passages);
+        assertEquals(graph.compile().genForest(ringTruthTable(true)).get(0).getNodes().keySet(),
+                forest.get(0).getNodes().keySet());
+    }
+
+    @Test
+    public void ringReportsLoop() {
+        PowerSupplySystemGraph graph = ringGraph();
+        graph.enableForestCache(4);
+        assertEquals(graph.genForest(ringTruthTable(true)).get(0).getNodes().size(), 11);
+
+        graph.setLoopPolicy(LoopPolicy.REPORT);
+        List<Pair<String, Integer>> destinations = Arrays.asList(Pair.create("load_2", 0));
+        try {
+            graph.genForest(ringTruthTable(true));
+            throw new RuntimeException("shouldn't reach here");
+        } catch (ClosedLoop e) {
+            assertEquals(e.powerSupply, graph.getDevices().get("power_supply_0"));
+        }
+        try {
+            graph.findUpstreamPassages(destinations, ringTruthTable(true));
+            throw new RuntimeException("shouldn't reach here");
+        } catch (ClosedLoop e) {
+            assertEquals(e.powerSupply, graph.getDevices().get("power_supply_0"));
+        }
+
+        // an open switch breaks the ring
+        Map<String, Boolean> truthTable = ringTruthTable(true);
+        truthTable.put("switch_1", false);
+        assertEquals(graph.genForest(truthTable).get(0).getNodes().size(), 11);
+        assertEquals(graph.findUpstreamPassages(destinations, truthTable),
+                graph.findPassages(destinations, truthTable));
+    }
 }
@@ -0,0 +1,286 @@
+package pssm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import pssm.devices.BaseDevice;
+import pssm.devices.Bus;
+import pssm.devices.Load;
+import pssm.devices.PowerSupply;
+import pssm.devices.Switch;
+import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.NoSuchDevice;
+
+public class SwitchEventProcessorTest {
+
+    private PowerSupplySystemGraph graph;
+
+    // the runs the processor asked for, run by the test
+    private List<Runnable> runs;
+
+    private SwitchEventProcessor processor;
+
+    private List<List<EnergizationChange>> batches;
+
+    private List<SwitchEvent> rejected;
+
+    private SwitchEventProcessor.Subscription subscription;
+
+    /**
+     * power_supply_0 feeds bus_0 through switch_0, power_supply_1 feeds bus_1
+     * through switch_1, and the buses can be tied by switch_tie. load_0 and
+     * load_1 hang off the buses, load_2 off bus_1 through switch_2.
+     */
+    @BeforeMethod
+    public void setUp() {
+        List<BaseDevice> devices = Arrays.asList(new PowerSupply("power_supply_0"), new PowerSupply("power_supply_1"),
+                new Switch("switch_0", true), new Switch("switch_1", true), new Switch("switch_tie"),
+                new Switch("switch_2", true), new Bus("bus_0"), new Bus("bus_1"), new Load("load_0"),
+                new Load("load_1"), new Load("load_2"));
+        String[][] edges = {
+                { "power_supply_0.0", "switch_0.0" }, { "switch_0.1", "bus_0.0" },
+                { "power_supply_1.0", "switch_1.0" }, { "switch_1.1", "bus_1.0" },
+                { "bus_0.0", "switch_tie.0" }, { "switch_tie.1", "bus_1.0" },
+                { "bus_1.0", "switch_2.0" }, { "switch_2.1", "load_2.0" },
+                { "bus_0.0", "load_0.0" }, { "bus_1.0", "load_1.0" },
+        };
+        graph = TestGraphs.build(devices, edges);
+
+        runs = new ArrayList<>();
+        processor = new SwitchEventProcessor(graph, graph.switchStates(null), runs::add, 16, 16);
+        batches = new ArrayList<>();
+        rejected = new ArrayList<>();
+        processor.subscribe(new SwitchEventProcessor.Subscriber() {
+            @Override
+            public void onSubscribe(SwitchEventProcessor.Subscription subscription) {
+                SwitchEventProcessorTest.this.subscription = subscription;
+            }
+
+            @Override
+            public void onChanges(List<EnergizationChange> changes) {
+                batches.add(changes);
+            }
+
+            @Override
+            public void onRejected(SwitchEvent event, RuntimeException e) {
+                rejected.add(event);
+            }
+        });
+    }
+
+    private void runAll() {
+        while (!runs.isEmpty()) {
+            runs.remove(0).run();
+        }
+    }
+
+    private BaseDevice device(String name) {
+        return graph.getDevices().get(name);
+    }
+
+    @Test
+    public void changes() throws InterruptedException {
+        subscription.request(Long.MAX_VALUE);
+        processor.submit(new SwitchEvent("switch_0", false, 1));
+        runAll();
+        assertEquals(batches.size(), 1);
+        assertEquals(batches.get(0).size(), 1);
+        EnergizationChange change = batches.get(0).get(0);
+        assertEquals(change.getLoad(), device("load_0"));
+        assertEquals(change.getSuppliesBefore(), Arrays.asList(device("power_supply_0")));
+        assertTrue(change.getSuppliesAfter().isEmpty());
+        assertTrue(change.wasEnergized());
+        assertFalse(change.isEnergized());
+        assertEquals(change.getTimestamp(), 1);
+
+        // a burst is one batch, and load_2 is both cut off and fed again
+        processor.submit(new SwitchEvent("switch_2", false, 2));
+        processor.submit(new SwitchEvent("switch_2", true, 3));
+        processor.submit(new SwitchEvent("switch_tie", true, 4));
+        runAll();
+        assertEquals(batches.size(), 2);
+        assertEquals(batches.get(1).size(), 1);
+        change = batches.get(1).get(0);
+        assertEquals(change.getLoad(), device("load_0"));
+        assertEquals(change.getSuppliesAfter(), Arrays.asList(device("power_supply_1")));
+        assertEquals(change.getTimestamp(), 4);
+
+        // nothing changes for the loads
+        processor.submit(new SwitchEvent("switch_tie", true, 5));
+        runAll();
+        assertEquals(batches.size(), 2);
+    }
+
+    @Test
+    public void coalescedWithoutDemand() {
+        processor.offer(new SwitchEvent("switch_1", false, 1));
+        runAll();
+        processor.offer(new SwitchEvent("switch_2", false, 2));
+        runAll();
+        // load_1 is fed again before it's delivered, load_2 is not
+        processor.offer(new SwitchEvent("switch_1", true, 3));
+        runAll();
+        assertTrue(batches.isEmpty());
+
+        subscription.request(1);
+        runAll();
+        assertEquals(batches.size(), 1);
+        assertEquals(batches.get(0).size(), 1);
+        EnergizationChange change = batches.get(0).get(0);
+        assertEquals(change.getLoad(), device("load_2"));
+        assertTrue(change.getSuppliesAfter().isEmpty());
+        assertEquals(change.getTimestamp(), 1);
+
+        processor.offer(new SwitchEvent("switch_2", true, 4));
+        runAll();
+        assertEquals(batches.size(), 1);
+        subscription.request(1);
+        runAll();
+        assertEquals(batches.size(), 2);
+        subscription.cancel();
+        processor.offer(new SwitchEvent("switch_2", false, 5));
+        runAll();
+        assertEquals(batches.size(), 2);
+    }
+
+    @Test
+    public void rejected() {
+        subscription.request(Long.MAX_VALUE);
+        processor.offer(new SwitchEvent("switch_tie", true, 1));
+        processor.offer(new SwitchEvent("switch_3", true, 2));
+        processor.offer(new SwitchEvent("load_0", true, 3));
+        processor.offer(new SwitchEvent("switch_2", false, 5));
+        // stale
+        processor.offer(new SwitchEvent("switch_2", true, 4));
+        runAll();
+        assertEquals(rejected.size(), 3);
+        assertEquals(batches.size(), 1);
+        assertFalse(batches.get(0).get(0).isEnergized());
+        batches.clear();
+
+        for (int i = 0; i < 16; i++) {
+            assertTrue(processor.offer(new SwitchEvent("switch_2", i % 2 == 0, 10 + i)));
+        }
+        assertFalse(processor.offer(new SwitchEvent("switch_2", true, 26)));
+        runAll();
+        assertTrue(batches.isEmpty());
+
+        processor.close();
+        try {
+            processor.offer(new SwitchEvent("switch_2", true, 26));
+            throw new RuntimeException("shouldn't reach here");
+        } catch (IllegalStateException e) {
+        }
+
+        processor = new SwitchEventProcessor(graph, graph.switchStates(null), Runnable::run, 16, 16);
+        List<RuntimeException> errors = new ArrayList<>();
+        processor.subscribe(new SwitchEventProcessor.Subscriber() {
+            @Override
+            public void onSubscribe(SwitchEventProcessor.Subscription subscription) {
+            }
+
+            @Override
+            public void onChanges(List<EnergizationChange> changes) {
+            }
+
+            @Override
+            public void onRejected(SwitchEvent event, RuntimeException e) {
+                errors.add(e);
+            }
+        });
+        processor.offer(new SwitchEvent("switch_tie", true, 1));
+        processor.offer(new SwitchEvent("switch_3", true, 2));
+        assertTrue(errors.get(0) instanceof ChargePowerSupply);
+        assertTrue(errors.get(1) instanceof NoSuchDevice);
+    }
+
+    @Test
+    public void throwingSubscriber() {
+        List<SwitchEvent> seen = new ArrayList<>();
+        SwitchEventProcessor.Subscription failing = processor.subscribe(new SwitchEventProcessor.Subscriber() {
+            @Override
+            public void onSubscribe(SwitchEventProcessor.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onChanges(List<EnergizationChange> changes) {
+                throw new IllegalStateException();
+            }
+
+            @Override
+            public void onRejected(SwitchEvent event, RuntimeException e) {
+                seen.add(event);
+                throw new IllegalStateException();
+            }
+        });
+        subscription.request(Long.MAX_VALUE);
+        processor.offer(new SwitchEvent("switch_tie", true, 1));
+        processor.offer(new SwitchEvent("switch_0", false, 2));
+        processor.offer(new SwitchEvent("switch_3", true, 3));
+        runAll();
+        // the failing subscriber is dropped at its first rejection, the batch
+        // goes on for the others
+        assertEquals(seen.size(), 1);
+        assertEquals(rejected.size(), 2);
+        assertEquals(batches.size(), 1);
+        assertEquals(batches.get(0).get(0).getLoad(), device("load_0"));
+
+        failing.request(1);
+        processor.offer(new SwitchEvent("switch_0", true, 4));
+        runAll();
+        assertEquals(seen.size(), 1);
+        assertEquals(batches.size(), 2);
+    }
+
+    @Test
+    public void rejectedExecution() {
+        boolean[] shutDown = { false };
+        SwitchEventProcessor rejecting = new SwitchEventProcessor(graph, graph.switchStates(null), run -> {
+            if (shutDown[0]) {
+                throw new RejectedExecutionException();
+            }
+            runs.add(run);
+        }, 16, 16);
+        List<List<EnergizationChange>> seen = new ArrayList<>();
+        rejecting.subscribe(new SwitchEventProcessor.Subscriber() {
+            @Override
+            public void onSubscribe(SwitchEventProcessor.Subscription subscription) {
+            }
+
+            @Override
+            public void onChanges(List<EnergizationChange> changes) {
+                seen.add(changes);
+            }
+
+            @Override
+            public void onRejected(SwitchEvent event, RuntimeException e) {
+            }
+        }).request(Long.MAX_VALUE);
+        runAll();
+        shutDown[0] = true;
+        try {
+            rejecting.offer(new SwitchEvent("switch_0", false, 1));
+            throw new RuntimeException("shouldn't reach here");
+        } catch (RejectedExecutionException e) {
+        }
+        assertTrue(runs.isEmpty());
+
+        // the event stayed queued, and the next one schedules a run again
+        shutDown[0] = false;
+        rejecting.offer(new SwitchEvent("switch_1", false, 2));
+        runAll();
+        assertEquals(seen.size(), 1);
+        // load_0 by the event rejected first, load_1 and load_2 by the second
+        assertEquals(seen.get(0).size(), 3);
+    }
+}
@@ -0,0 +1,183 @@
+package pssm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.math3.util.Pair;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import pssm.devices.BaseDevice;
+import pssm.devices.Bus;
+import pssm.devices.DcDc;
+import pssm.devices.Diode;
+import pssm.devices.Load;
+import pssm.devices.PowerSupply;
+import pssm.devices.Switch;
+import pssm.exceptions.ChargePowerSupply;
+import pssm.exceptions.InvalidPort;
+
+public class SwitchingPlannerTest {
+
+    private static final List<String> SWITCHES = Arrays.asList("switch_0", "switch_1", "switch_tie", "switch_2",
+            "switch_3", "switch_4");
+
+    private PowerSupplySystemGraph graph;
+
+    /**
+     * power_supply_0 and power_supply_1 feed bus_0 and bus_1 through switch_0
+     * and switch_1, and the buses can be tied by switch_tie. bus_2 hangs off
+     * bus_0 by switch_2, and off bus_1 by switch_3, and feeds bus_3 through a
+     * DcDc. A diode passes power from bus_3 to bus_4, which power_supply_2 feeds
+     * through switch_4. Every bus has a load.
+     */
+    @BeforeMethod
+    public void setUp() {
+        List<BaseDevice> devices = Arrays.asList(new PowerSupply("power_supply_0"), new PowerSupply("power_supply_1"),
+                new PowerSupply("power_supply_2"), new Switch("switch_0"), new Switch("switch_1"),
+                new Switch("switch_tie"), new Switch("switch_2"), new Switch("switch_3"), new Switch("switch_4"),
+                new Bus("bus_0"), new Bus("bus_1"), new Bus("bus_2"), new Bus("bus_3"), new Bus("bus_4"),
+                new DcDc("dc_dc"), new Diode("diode"), new Load("load_0"), new Load("load_1"), new Load("load_2"),
+                new Load("load_3"), new Load("load_4"));
+        String[][] edges = {
+                { "power_supply_0.0", "switch_0.0" }, { "switch_0.1", "bus_0.0" },
+                { "power_supply_1.0", "switch_1.0" }, { "switch_1.1", "bus_1.0" },
+                { "bus_0.0", "switch_tie.0" }, { "switch_tie.1", "bus_1.0" },
+                { "bus_0.0", "switch_2.0" }, { "switch_2.1", "bus_2.0" },
+                { "bus_1.0", "switch_3.0" }, { "switch_3.1", "bus_2.0" },
+                { "bus_2.0", "dc_dc.0" }, { "dc_dc.1", "bus_3.0" },
+                { "bus_3.0", "diode.0" }, { "diode.1", "bus_4.0" },
+                { "power_supply_2.0", "switch_4.0" }, { "switch_4.1", "bus_4.0" },
+                { "bus_0.0", "load_0.0" }, { "bus_1.0", "load_1.0" }, { "bus_2.0", "load_2.0" },
+                { "bus_3.0", "load_3.0" }, { "bus_4.0", "load_4.0" },
+        };
+        graph = TestGraphs.build(devices, edges);
+    }
+
+    private boolean isValid(SwitchStateVector states) {
+        try {
+            new EnergizationIndex(graph, states);
+            return true;
+        } catch (ChargePowerSupply e) {
+            return false;
+        }
+    }
+
+    /**
+     * The fewest switches to close for the port to be fed, found by trying
+     * every set of open switches, or -1.
+     */
+    private int fewestSwitches(SwitchStateVector states, String portId) {
+        int best = -1;
+        for (int subset = 0; subset < 1 << states.size(); subset++) {
+            SwitchStateVector closed = states.copy();
+            boolean closesOnlyOpenOnes = true;
+            for (int i = 0; i < states.size(); i++) {
+                if ((subset & (1 << i)) != 0) {
+                    closesOnlyOpenOnes &= !states.get(i);
+                    closed.set(i, true);
+                }
+            }
+            if (!closesOnlyOpenOnes || !isValid(closed)) {
+                continue;
+            }
+            if (new EnergizationIndex(graph, closed).isPowered(portId)
+                    && (best < 0 || Integer.bitCount(subset) < best)) {
+                best = Integer.bitCount(subset);
+            }
+        }
+        return best;
+    }
+
+    @Test
+    public void everyConfiguration() {
+        for (int i = 0; i < 1 << SWITCHES.size(); i++) {
+            Map<String, Boolean> truthTable = new HashMap<>();
+            for (int s = 0; s < SWITCHES.size(); s++) {
+                truthTable.put(SWITCHES.get(s), (i & (1 << s)) != 0);
+            }
+            SwitchStateVector states = graph.switchStates(truthTable);
+            if (!isValid(states)) {
+                continue;
+            }
+            for (Port port : graph.getPorts().values()) {
+                if (!(port.device instanceof Load)) {
+                    continue;
+                }
+                String message = port.getId() + " under " + truthTable;
+                SwitchingPlan plan = graph.planEnergization(port.getId(), states);
+                int fewest = fewestSwitches(states, port.getId());
+                if (fewest < 0) {
+                    assertNull(plan, message);
+                    continue;
+                }
+                assertNotNull(plan, message);
+                assertEquals(plan.getSwitchesToClose().size(), fewest, message);
+                SwitchStateVector after = plan.getSwitchStates();
+                assertTrue(isValid(after), message);
+                EnergizationIndex index = new EnergizationIndex(graph, after);
+                assertTrue(index.suppliesOf(port.getId()).contains(plan.getPowerSupply()), message);
+                assertEquals(plan.getPassage().get(plan.getPassage().size() - 1).getFirst(), port.device.name);
+            }
+        }
+    }
+
+    @Test
+    public void plans() {
+        SwitchingPlan plan = graph.planEnergization("load_3.0");
+        assertEquals(plan.getPowerSupply().name, "power_supply_0");
+        assertEquals(plan.getSwitchNamesToClose(), Arrays.asList("switch_0", "switch_2"));
+        assertTrue(plan.getPassage().contains(Pair.create("dc_dc", 1)));
+
+        // power_supply_1 feeds bus_2, so switch_2 can't be closed
+        Map<String, Boolean> truthTable = new HashMap<>();
+        truthTable.put("switch_1", true);
+        truthTable.put("switch_3", true);
+        plan = graph.planEnergization("load_0.0", graph.switchStates(truthTable));
+        assertEquals(plan.getPowerSupply().name, "power_supply_0");
+        assertEquals(plan.getSwitchNamesToClose(), Arrays.asList("switch_0"));
+        plan = graph.planEnergization("load_4.0", graph.switchStates(truthTable));
+        assertTrue(plan.getSwitchesToClose().isEmpty());
+        assertEquals(plan.getPowerSupply().name, "power_supply_1");
+
+        try {
+            graph.planEnergization("load_5.0");
+            throw new RuntimeException("shouldn't reach here");
+        } catch (InvalidPort e) {
+        }
+    }
+
+    /**
+     * Closing switch_0 would feed load_0 through diode_0, but also power_supply_1
+     * through diode_1, so the plan goes the long way, by switch_1 and switch_2.
+     */
+    @Test
+    public void avoidsFeedingPowerSupplies() {
+        List<BaseDevice> devices = Arrays.asList(new PowerSupply("power_supply_0"), new PowerSupply("power_supply_1"),
+                new Switch("switch_0"), new Switch("switch_1"), new Switch("switch_2"), new Bus("bus_m"),
+                new Bus("bus_n"), new Bus("bus_p"), new Bus("bus_t"), new Diode("diode_0"), new Diode("diode_1"),
+                new Load("load_0"));
+        String[][] edges = {
+                { "power_supply_0.0", "switch_0.0" }, { "switch_0.1", "bus_m.0" },
+                { "bus_m.0", "diode_0.0" }, { "diode_0.1", "bus_t.0" }, { "bus_t.0", "load_0.0" },
+                { "bus_m.0", "diode_1.0" }, { "diode_1.1", "bus_p.0" }, { "power_supply_1.0", "bus_p.0" },
+                { "power_supply_0.0", "switch_1.0" }, { "switch_1.1", "bus_n.0" },
+                { "bus_n.0", "switch_2.0" }, { "switch_2.1", "bus_t.0" },
+        };
+        graph = TestGraphs.build(devices, edges);
+
+        SwitchingPlan plan = graph.planEnergization("load_0.0");
+        assertNotNull(plan);
+        assertEquals(plan.getPowerSupply().name, "power_supply_0");
+        assertEquals(plan.getSwitchNamesToClose(), Arrays.asList("switch_1", "switch_2"));
+        assertTrue(isValid(plan.getSwitchStates()));
+        assertEquals(fewestSwitches(graph.switchStates(new HashMap<>()), "load_0.0"), 2);
+    }
+}
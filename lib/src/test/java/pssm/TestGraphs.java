@@ -0,0 +1,35 @@
+package pssm;
+
+import java.util.List;
+
+import pssm.devices.BaseDevice;
+
+/**
+ * Builds the graphs the tests run on.
+ */
+final class TestGraphs {
+
+    private TestGraphs() {
+    }
+
+    /**
+     * Adds the given devices to the graph, then links them by the given edges,
+     * each a pair of port ids.
+     *
+     * @return the graph
+     */
+    static PowerSupplySystemGraph build(PowerSupplySystemGraph graph, List<? extends BaseDevice> devices,
+            String[][] edges) {
+        for (BaseDevice device : devices) {
+            graph.addDevice(device);
+        }
+        for (String[] edge : edges) {
+            graph.addEdge(edge[0], edge[1]);
+        }
+        return graph;
+    }
+
+    static PowerSupplySystemGraph build(List<? extends BaseDevice> devices, String[][] edges) {
+        return build(new PowerSupplySystemGraph(), devices, edges);
+    }
+}
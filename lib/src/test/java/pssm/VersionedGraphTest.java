@@ -0,0 +1,144 @@
+package pssm;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.math3.util.Pair;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import pssm.devices.BaseDevice;
+import pssm.devices.Bus;
+import pssm.devices.Load;
+import pssm.devices.PowerSupply;
+import pssm.devices.Switch;
+import pssm.exceptions.DuplicateDevice;
+
+public class VersionedGraphTest {
+
+    private VersionedGraph graph;
+
+    /**
+     * power_supply_0 feeds bus_0 through switch_0, which feeds load_0.
+     */
+    @BeforeMethod
+    public void setUp() {
+        PowerSupplySystemGraph source = new PowerSupplySystemGraph();
+        for (BaseDevice device : Arrays.asList(new PowerSupply("power_supply_0"), new Switch("switch_0", true),
+                new Bus("bus_0"), new Load("load_0"))) {
+            source.addDevice(device);
+        }
+        source.addEdge("power_supply_0.0", "switch_0.0");
+        source.addEdge("switch_0.1", "bus_0.0");
+        source.addEdge("bus_0.0", "load_0.0");
+        graph = new VersionedGraph(source);
+    }
+
+    private static boolean fed(GraphVersion version, String deviceName) {
+        List<Passage> passages = version.findPassages(Arrays.asList(Pair.create(deviceName, 0)))
+                .get(deviceName + ".0");
+        return passages != null && !passages.isEmpty();
+    }
+
+    @Test
+    public void versions() {
+        GraphVersion first = graph.current();
+        assertEquals(first.getVersion(), 0);
+        assertTrue(fed(first, "load_0"));
+        assertSame(first.genForest(), first.genForest());
+
+        GraphVersion second = graph.setSwitch("switch_0", false);
+        assertSame(graph.current(), second);
+        assertEquals(second.getVersion(), 1);
+        assertSame(second.getCompiledGraph(), first.getCompiledGraph());
+        assertFalse(fed(second, "load_0"));
+        assertTrue(fed(first, "load_0"));
+        assertTrue(first.isClosed("switch_0"));
+        assertTrue(((Switch) first.getDevices().get("switch_0")).isClosed());
+        assertSame(graph.setSwitch("switch_0", false), second);
+        // the truth table is on top of the states of the version
+        assertTrue(second.genForest(new HashMap<String, Boolean>() {
+            {
+                put("switch_0", true);
+            }
+        }).get(0).findPassage("load_0.0") != null);
+        assertTrue(second.genForest().get(0).findPassage("load_0.0") == null);
+
+        // a second feed, added in one version
+        GraphVersion third = graph.edit(target -> {
+            target.addDevice(new PowerSupply("power_supply_1"));
+            target.addDevice(new Switch("switch_1", true));
+            target.addEdge("power_supply_1.0", "switch_1.0");
+            target.addEdge("switch_1.1", "bus_0.0");
+        });
+        assertEquals(third.getVersion(), 2);
+        assertNotSame(third.getCompiledGraph(), second.getCompiledGraph());
+        assertFalse(third.isClosed("switch_0"));
+        assertTrue(fed(third, "load_0"));
+        assertFalse(second.getDevices().containsKey("power_supply_1"));
+        assertEquals(second.getCompiledGraph().getNumPorts(), 5);
+        try {
+            second.isClosed("switch_1");
+            throw new RuntimeException("shouldn't reach here");
+        } catch (IllegalArgumentException e) {
+        }
+
+        // what was done before the failure is published
+        try {
+            graph.edit(target -> {
+                target.addDevice(new Load("load_1"));
+                target.addDevice(new Load("load_1"));
+            });
+            throw new RuntimeException("shouldn't reach here");
+        } catch (DuplicateDevice e) {
+        }
+        assertEquals(graph.current().getVersion(), 3);
+        assertTrue(graph.current().getDevices().containsKey("load_1"));
+        try {
+            graph.current().getDevices().remove("load_1");
+            throw new RuntimeException("shouldn't reach here");
+        } catch (UnsupportedOperationException e) {
+        }
+    }
+
+    /**
+     * Readers keep querying while the switch is opened and closed, and every
+     * version they get is consistent with itself.
+     */
+    @Test
+    public void concurrentReaders() throws InterruptedException {
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            Thread reader = new Thread(() -> {
+                try {
+                    for (int j = 0; j < 1000; j++) {
+                        GraphVersion version = graph.current();
+                        assertEquals(fed(version, "load_0"), version.isClosed("switch_0"));
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+        for (int i = 0; i < 1000; i++) {
+            graph.setSwitch("switch_0", i % 2 == 1);
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(failure.get(), null);
+        assertEquals(graph.current().getVersion(), 1000);
+    }
+}